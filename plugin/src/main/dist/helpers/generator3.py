@@ -328,6 +328,109 @@ def process_one(name, mod_file_name, doing_builtins, subdir):
     return True
 
 
+def to_frame_bytes(text):
+    if not isinstance(text, bytes):
+        text = text.encode('utf-8')
+    return text
+
+
+def write_frame(frames, status, out_text, err_text):
+    out_bytes = to_frame_bytes(out_text)
+    err_bytes = to_frame_bytes(err_text)
+    frames.write(to_frame_bytes("%d %d %d\n" % (status, len(out_bytes), len(err_bytes))))
+    frames.write(out_bytes)
+    frames.write(err_bytes)
+    frames.flush()
+
+
+#noinspection PyBroadException
+def serve_requests(subdir):
+    """
+    Worker mode: keeps the interpreter alive and serves requests read from stdin, one per line:
+      GEN<TAB>module_name<TAB>file_name -- build a skeleton, file_name may be empty
+      BUILTINS -- build skeletons for built-in modules, like -b
+      LIST -- list binary modules, like -L
+    An empty line or EOF stops the worker.
+    Each reply is a "status stdout_length stderr_length" line followed by that many bytes of stdout and stderr text.
+    Status is 0 on success, 1 on failure and 2 if the module must be generated by a fresh interpreter,
+    e.g. because an earlier request that imported it failed before generating the modules it defines.
+    """
+    global quiet
+    quiet = True
+    # keep stdout for frames only: stray prints, including ones from native code, go to stderr
+    frames = os.fdopen(os.dup(1), 'wb')
+    os.dup2(2, 1)
+    sys.stdout = sys.stderr
+    requests = getattr(sys.stdin, 'buffer', sys.stdin)
+    try:
+        from StringIO import StringIO
+    except ImportError:
+        from io import StringIO
+
+    # a fresh interpreter has these loaded too, so they are generated the same way
+    startup_modules = set(sys.modules.keys())
+    # modules first imported by a successful request: the modules defined along with them were generated then
+    generated_modules = set()
+
+    while True:
+        line = requests.readline()
+        if not isinstance(line, str):
+            line = line.decode('utf-8')
+        parts = line.rstrip('\r\n').split('\t')
+        command = parts[0]
+        if not command:
+            break
+        out_text = ''
+        captured = StringIO()
+        real_stderr = sys.stderr
+        sys.stderr = captured
+        try:
+            if command == 'GEN':
+                name = parts[1]
+                mod_file_name = len(parts) > 2 and parts[2] or None
+                if sys.platform == 'cli':
+                    # CLR namespaces need the assembly references of the command-line mode
+                    status = 2
+                elif name in sys.modules and name not in startup_modules and name not in generated_modules:
+                    status = 2
+                else:
+                    loaded_modules = set(sys.modules.keys())
+                    if process_one(name, mod_file_name, False, subdir):
+                        generated_modules.update([m for m in sys.modules.keys() if m not in loaded_modules])
+                        status = 0
+                    else:
+                        status = 1
+            elif command == 'BUILTINS':
+                names = list(sys.builtin_module_names)
+                if not BUILTIN_MOD_NAME in names:
+                    names.append(BUILTIN_MOD_NAME)
+                if '__main__' in names:
+                    names.remove('__main__')
+                ok = True
+                for name in names:
+                    ok = process_one(name, None, True, subdir) and ok
+                status = ok and 0 or 1
+            elif command == 'LIST':
+                results = list(list_binaries(sys.path))
+                results.sort()
+                lines = [VERSION] + ["%s\t%s\t%d\t%d" % result for result in results]
+                out_text = "\n".join(lines) + "\n"
+                status = 0
+            else:
+                report("Unknown worker command %r", command)
+                status = 1
+        except:
+            report("Worker failed on %r: %s", command, str(sys.exc_info()[1]))
+            status = 1
+        finally:
+            sys.stderr = real_stderr
+        try:
+            err_text = captured.getvalue()
+        except UnicodeError:
+            err_text = "Error output of %r is not decodable" % command
+        write_frame(frames, status, out_text, err_text)
+
+
 def get_help_text():
     return (
         #01234567890123456789012345678901234567890123456789012345678901234567890123456789
@@ -357,7 +460,8 @@ def get_help_text():
         '    on sys.path and in directories in directory_list;' '\n'
         '    lines are "qualified.module.name /full/path/to/module_file.{pyd,dll,so}"' '\n'
         ' -S -- lists all python sources found in sys.path and in directories in directory_list\n'
-        ' -z archive_name -- zip files to archive_name. Accepts files to be archived from stdin in format <filepath> <name in archive>'
+        ' -z archive_name -- zip files to archive_name. Accepts files to be archived from stdin in format <filepath> <name in archive>\n'
+        ' -W -- worker mode: serve generation requests read from stdin until EOF, see serve_requests()'
     )
 
 
@@ -365,7 +469,7 @@ if __name__ == "__main__":
     from getopt import getopt
 
     helptext = get_help_text()
-    opts, args = getopt(sys.argv[1:], "d:hbqxvc:ps:C:LSz")
+    opts, args = getopt(sys.argv[1:], "d:hbqxvc:ps:C:LSzW")
     opts = dict(opts)
 
     quiet = '-q' in opts
@@ -376,8 +480,8 @@ if __name__ == "__main__":
         say(helptext)
         sys.exit(0)
 
-    if '-L' not in opts and '-b' not in opts and '-S' not in opts and not args:
-        report("Neither -L nor -b nor -S nor any module name given")
+    if '-L' not in opts and '-b' not in opts and '-S' not in opts and '-W' not in opts and not args:
+        report("Neither -L nor -b nor -S nor -W nor any module name given")
         sys.exit(1)
 
     if "-x" in opts:
@@ -392,6 +496,10 @@ if __name__ == "__main__":
                 sys.path.append(p) # we need this to make things in additional dirs importable
         note("Altered sys.path: %r", sys.path)
 
+    if "-W" in opts:
+        serve_requests(subdir)
+        sys.exit(0)
+
     # find binaries?
     if "-L" in opts:
         if len(args) > 0:
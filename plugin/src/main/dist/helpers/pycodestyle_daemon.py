@@ -0,0 +1,185 @@
+"""Long-running pycodestyle checker serving requests over stdin/stdout.
+
+Every request is a header line followed by the source to check:
+
+    CHECK<TAB>option<TAB>...<TAB>length<LF>
+    <length bytes of UTF-8 encoded source>
+
+and every reply is a header line followed by the problems, one per line,
+in the default pycodestyle report format:
+
+    status length<LF>
+    <length bytes of UTF-8 encoded output>
+
+A CHECK_LINES<TAB>first<TAB>last<TAB>option<TAB>...<TAB>length request checks
+only the given lines (see RangeChecker); the first line of its output is
+"first last", the lines actually checked.
+
+Status is 0 when the source was checked and 1 when the checker failed, then
+the output is the traceback. An empty line or the end of input stops the process.
+"""
+
+import os
+import sys
+import traceback
+
+import pycodestyle
+
+STATUS_OK = 0
+STATUS_ERROR = 1
+
+
+class CollectingReport(pycodestyle.BaseReport):
+    """Collects all problems of a file instead of printing them."""
+
+    def init_file(self, filename, lines, expected, line_offset):
+        self.problems = []
+        return super(CollectingReport, self).init_file(
+            filename, lines, expected, line_offset)
+
+    def error(self, line_number, offset, text, check):
+        code = super(CollectingReport, self).error(line_number, offset,
+                                                   text, check)
+        if code:
+            self.problems.append((line_number, offset, code, text[5:]))
+        return code
+
+    def get_file_results(self):
+        self.problems.sort()
+        return self.problems
+
+
+class RangeChecker(pycodestyle.Checker):
+    """Runs the logical line checks only on the logical lines overlapping the
+    given physical lines and on the logical lines up to the next statement,
+    whose blank line checks depend on the lines before it.
+
+    The whole source is still tokenized, so the state the checks depend on
+    (indentation, blank lines, previous logical line) is the same as in a full
+    check. Checks keeping their own state run everywhere with their problems
+    discarded. The range grows to the boundaries of the checked logical lines.
+    """
+
+    def __init__(self, first_line, last_line, **kwargs):
+        super(RangeChecker, self).__init__(**kwargs)
+        self.first_line = first_line
+        self.last_line = last_line
+        self.context_checked = False
+        self._stateful_checks = [check for check in self._logical_checks
+                                 if 'checker_state' in check[2]]
+
+    def check_logical(self):
+        if self.tokens:
+            start, end = self.tokens[0][2][0], self.tokens[-1][3][0]
+        else:
+            start = end = self.line_number
+        if end < self.first_line or self.context_checked:
+            self.skip_logical()
+            return
+        after_range = start > self.last_line
+        self.first_line = min(self.first_line, start)
+        self.last_line = max(self.last_line, end)
+        super(RangeChecker, self).check_logical()
+        if after_range and self.logical_line:
+            self.context_checked = True
+
+    def skip_logical(self):
+        logical_checks, report_error = self._logical_checks, self.report_error
+        self._logical_checks = self._stateful_checks
+        self.report_error = lambda *args: None
+        try:
+            super(RangeChecker, self).check_logical()
+        finally:
+            self._logical_checks = logical_checks
+            self.report_error = report_error
+
+
+_style_guides = {}
+
+
+def get_style_guide(options):
+    key = tuple(options)
+    guide = _style_guides.get(key)
+    if guide is None:
+        guide = pycodestyle.StyleGuide(paths=list(options) + ['-'])
+        guide.init_report(CollectingReport)
+        _style_guides[key] = guide
+    return guide
+
+
+def format_problems(problems):
+    return [pycodestyle.REPORT_FORMAT['default'] % {
+        'path': 'stdin', 'row': row, 'col': col + 1,
+        'code': code, 'text': text,
+    } for row, col, code, text in problems]
+
+
+def decode(source):
+    if sys.version_info >= (3,):
+        return source.decode('utf-8', 'ignore')
+    return source
+
+
+def check(options, source):
+    guide = get_style_guide(options)
+    checker = pycodestyle.Checker(lines=decode(source).splitlines(True),
+                                  options=guide.options)
+    return '\n'.join(format_problems(checker.check_all()))
+
+
+def check_lines(first_line, last_line, options, source):
+    guide = get_style_guide(options)
+    lines = decode(source).splitlines(True)
+    checker = RangeChecker(first_line, last_line, lines=lines,
+                           options=guide.options)
+    problems = checker.check_all()
+    if any(code.startswith('E9') for _, _, code, _ in problems):
+        # the source can't be tokenized, nothing reported before is reliable
+        first, last = 1, max(len(lines), 1)
+    else:
+        first, last = checker.first_line, checker.last_line
+        problems = [p for p in problems if first <= p[0] <= last]
+    return '\n'.join(['%d %d' % (first, last)] + format_problems(problems))
+
+
+def read_line(input):
+    line = input.readline()
+    if not line:
+        return None
+    return line.rstrip(b'\r\n').decode('utf-8')
+
+
+def write_reply(output, status, text):
+    data = text if isinstance(text, bytes) else text.encode('utf-8')
+    output.write(('%d %d\n' % (status, len(data))).encode('ascii'))
+    output.write(data)
+    output.flush()
+
+
+def serve(input, output):
+    while True:
+        header = read_line(input)
+        if not header:
+            return
+        parts = header.split('\t')
+        source = input.read(int(parts[-1]))
+        try:
+            if parts[0] == 'CHECK_LINES':
+                result = check_lines(int(parts[1]), int(parts[2]),
+                                     parts[3:-1], source)
+            else:
+                result = check(parts[1:-1], source)
+            write_reply(output, STATUS_OK, result)
+        except Exception:
+            write_reply(output, STATUS_ERROR, traceback.format_exc())
+
+
+def binary_stream(stream):
+    if sys.platform == 'win32' and sys.version_info < (3,):
+        import msvcrt
+        msvcrt.setmode(stream.fileno(), os.O_BINARY)
+    return getattr(stream, 'buffer', stream)
+
+
+if __name__ == '__main__':
+    serve(binary_stream(sys.stdin), binary_stream(sys.stdout))
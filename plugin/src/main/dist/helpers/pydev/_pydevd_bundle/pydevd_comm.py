@@ -147,6 +147,10 @@ CMD_GET_DESCRIPTION = 148
 
 CMD_PROCESS_CREATED = 149
 
+CMD_GET_VARIABLES = 180
+CMD_GET_ARRAY_BINARY = 181
+CMD_GET_FRAME_DIFF = 182
+
 CMD_VERSION = 501
 CMD_RETURN = 502
 CMD_ERROR = 901
@@ -205,6 +209,10 @@ ID_TO_MEANING = {
 
     '149': 'CMD_PROCESS_CREATED',
 
+    '180': 'CMD_GET_VARIABLES',
+    '181': 'CMD_GET_ARRAY_BINARY',
+    '182': 'CMD_GET_FRAME_DIFF',
+
     '501': 'CMD_VERSION',
     '502': 'CMD_RETURN',
     '901': 'CMD_ERROR',
@@ -729,6 +737,12 @@ class NetCommandFactory:
             return self.make_error_message(seq, get_exception_traceback_str())
 
 
+    def make_get_variables_message(self, seq, payload):
+        try:
+            return NetCommand(CMD_GET_VARIABLES, seq, payload)
+        except Exception:
+            return self.make_error_message(seq, get_exception_traceback_str())
+
     def make_get_array_message(self, seq, payload):
         try:
             return NetCommand(CMD_GET_ARRAY, seq, payload)
@@ -747,6 +761,12 @@ class NetCommandFactory:
         except Exception:
             return self.make_error_message(seq, get_exception_traceback_str())
 
+    def make_get_frame_diff_message(self, seq, payload):
+        try:
+            return NetCommand(CMD_GET_FRAME_DIFF, seq, payload)
+        except Exception:
+            return self.make_error_message(seq, get_exception_traceback_str())
+
 
     def make_evaluate_expression_message(self, seq, payload):
         try:
@@ -994,23 +1014,67 @@ class InternalGetVariable(InternalThreadCommand):
         try:
             xml = "<xml>"
             valDict = pydevd_vars.resolve_compound_variable(self.thread_id, self.frame_id, self.scope, self.attributes)
-            if valDict is None:
-                valDict = {}
+            xml += compound_variable_to_xml(valDict)
+            xml += "</xml>"
+            cmd = dbg.cmd_factory.make_get_variable_message(self.sequence, xml)
+            dbg.writer.add_command(cmd)
+        except Exception:
+            cmd = dbg.cmd_factory.make_error_message(self.sequence, "Error resolving variables " + get_exception_traceback_str())
+            dbg.writer.add_command(cmd)
 
-            keys = valDict.keys()
-            if hasattr(keys, 'sort'):
-                keys.sort(compare_object_attrs) #Python 3.0 does not have it
-            else:
-                if IS_PY3K:
-                    keys = sorted(keys, key=cmp_to_key(compare_object_attrs)) #Jython 2.1 does not have it (and all must be compared as strings).
-                else:
-                    keys = sorted(keys, cmp=compare_object_attrs) #Jython 2.1 does not have it (and all must be compared as strings).
 
-            for k in keys:
-                xml += pydevd_xml.var_to_xml(valDict[k], to_string(k))
+def compound_variable_to_xml(valDict):
+    """ Converts the attributes of a compound variable to xml, sorted by name """
+    if valDict is None:
+        valDict = {}
 
-            xml += "</xml>"
-            cmd = dbg.cmd_factory.make_get_variable_message(self.sequence, xml)
+    keys = valDict.keys()
+    if hasattr(keys, 'sort'):
+        keys.sort(compare_object_attrs) #Python 3.0 does not have it
+    else:
+        if IS_PY3K:
+            keys = sorted(keys, key=cmp_to_key(compare_object_attrs)) #Jython 2.1 does not have it (and all must be compared as strings).
+        else:
+            keys = sorted(keys, cmp=compare_object_attrs) #Jython 2.1 does not have it (and all must be compared as strings).
+
+    return ''.join([pydevd_xml.var_to_xml(valDict[k], to_string(k)) for k in keys])
+
+
+#=======================================================================================================================
+# InternalGetVariables
+#=======================================================================================================================
+class InternalGetVariables(InternalThreadCommand):
+    """ gets the values of several variables and expressions of a thread at once
+
+    items are (kind, fields) pairs: ('VAR', [frame_id, scope, attrs*]) loads the attributes of a variable
+    like InternalGetVariable, ('EXPR', [frame_id, expression, trim]) evaluates an expression like
+    InternalEvaluateExpression. The reply has a <part> per item, a failed item is <part error="..."/>.
+    """
+    def __init__(self, seq, thread_id, items):
+        self.sequence = seq
+        self.thread_id = thread_id
+        self.items = items
+
+    def do_it(self, dbg):
+        try:
+            xml = ["<xml>"]
+            for kind, fields in self.items:
+                try:
+                    if kind == 'VAR':
+                        attrs = '\t'.join(fields[2:]) or None
+                        valDict = pydevd_vars.resolve_compound_variable(self.thread_id, fields[0], fields[1], attrs)
+                        xml.append("<part>%s</part>" % compound_variable_to_xml(valDict))
+                    elif kind == 'EXPR':
+                        frame_id, expression, trim = fields
+                        expression = expression.replace("@_@TAB_CHAR@_@", '\t')
+                        result = pydevd_vars.evaluate_expression(self.thread_id, frame_id, expression, False)
+                        xml.append("<part>%s</part>" % pydevd_xml.var_to_xml(result, expression, trim == '1'))
+                    else:
+                        raise ValueError("Unknown item: %s" % (kind,))
+                except:
+                    xml.append('<part error="%s"/>' % quote(get_exception_traceback_str()))
+            xml.append("</xml>")
+            cmd = dbg.cmd_factory.make_get_variables_message(self.sequence, ''.join(xml))
             dbg.writer.add_command(cmd)
         except Exception:
             cmd = dbg.cmd_factory.make_error_message(self.sequence, "Error resolving variables " + get_exception_traceback_str())
@@ -1021,7 +1085,7 @@ class InternalGetVariable(InternalThreadCommand):
 # InternalGetArray
 #=======================================================================================================================
 class InternalGetArray(InternalThreadCommand):
-    def __init__(self, seq, roffset, coffset, rows, cols, format, thread_id, frame_id, scope, attrs):
+    def __init__(self, seq, roffset, coffset, rows, cols, format, thread_id, frame_id, scope, attrs, binary=False):
         self.sequence = seq
         self.thread_id = thread_id
         self.frame_id = frame_id
@@ -1033,12 +1097,13 @@ class InternalGetArray(InternalThreadCommand):
         self.rows = int(rows)
         self.cols = int(cols)
         self.format = format
+        self.binary = binary
 
     def do_it(self, dbg):
         try:
             frame = pydevd_vars.find_frame(self.thread_id, self.frame_id)
             var = pydevd_vars.eval_in_context(self.name, frame.f_globals, frame.f_locals)
-            xml = pydevd_vars.table_like_struct_to_xml(var, self.name, self.roffset, self.coffset, self.rows, self.cols, self.format )
+            xml = pydevd_vars.table_like_struct_to_xml(var, self.name, self.roffset, self.coffset, self.rows, self.cols, self.format, self.binary)
             cmd = dbg.cmd_factory.make_get_array_message(self.sequence, xml)
             dbg.writer.add_command(cmd)
         except:
@@ -1104,6 +1169,89 @@ class InternalGetFrame(InternalThreadCommand):
             dbg.writer.add_command(cmd)
 
 
+#=======================================================================================================================
+# InternalGetFrameDiff
+#=======================================================================================================================
+class FrameSnapshots:
+    """ the variables last sent for each frame by InternalGetFrameDiff: (thread_id, frame_id) -> (version, {name: hash})
+
+    Only the most recent snapshots are kept, the client gets all the variables of a frame when its version is gone.
+    """
+    MAX_SNAPSHOTS = 64
+
+    lock = thread.allocate_lock()
+    snapshots = {}
+    last_version = 0
+
+    def update(cls, key, base_version, hashes):
+        """ stores the hashes of the variables of a frame under a new version
+        @return: (version, previous hashes), the previous hashes are None unless base_version is the stored version
+        """
+        cls.lock.acquire()
+        try:
+            previous = cls.snapshots.get(key)
+            cls.last_version += 1
+            cls.snapshots[key] = (cls.last_version, hashes)
+            if len(cls.snapshots) > cls.MAX_SNAPSHOTS:
+                oldest = min(cls.snapshots, key=lambda k: cls.snapshots[k][0])
+                del cls.snapshots[oldest]
+            if previous is not None and previous[0] == base_version:
+                return cls.last_version, previous[1]
+            return cls.last_version, None
+        finally:
+            cls.lock.release()
+
+    update = classmethod(update)
+
+
+class InternalGetFrameDiff(InternalThreadCommand):
+    """ gets the variables of a frame, sending only those changed since the version of the frame the client has
+
+    The reply starts with <frame version="..." base="..."/>: the variables are sent as a new version of the frame,
+    a variable that is the same as in the base version is sent as <same name="..."/>. The base is 0 when all
+    the variables are sent. Return values are always sent.
+    """
+    def __init__(self, seq, thread_id, frame_id, base_version):
+        self.sequence = seq
+        self.thread_id = thread_id
+        self.frame_id = frame_id
+        self.base_version = base_version
+
+    def do_it(self, dbg):
+        try:
+            frame = pydevd_vars.find_frame(self.thread_id, self.frame_id)
+            if frame is not None:
+                hidden_ns = pydevconsole.get_ipython_hidden_vars_dict()
+                items = pydevd_xml.frame_vars_to_xml_items(frame.f_locals, hidden_ns)
+                del frame
+                hashes = {}
+                for name, xml, is_return_value in items:
+                    if not is_return_value:
+                        hashes[name] = hash(xml)
+                version, previous = FrameSnapshots.update((self.thread_id, self.frame_id), self.base_version, hashes)
+                if previous is None:
+                    base_version = 0
+                    previous = {}
+                else:
+                    base_version = self.base_version
+                xml = ['<xml><frame version="%s" base="%s"/>' % (version, base_version)]
+                for name, var_xml, is_return_value in items:
+                    if not is_return_value and previous.get(name) == hashes[name]:
+                        xml.append('<same name="%s"/>' % pydevd_xml.make_valid_xml_value(quote(name, '/>_= ')))
+                    else:
+                        xml.append(var_xml)
+                xml.append("</xml>")
+                cmd = dbg.cmd_factory.make_get_frame_diff_message(self.sequence, ''.join(xml))
+                dbg.writer.add_command(cmd)
+            else:
+                #don't print this error: frame not found: means that the client is not synchronized (but that's ok)
+                cmd = dbg.cmd_factory.make_error_message(self.sequence, "Frame not found: %s from thread: %s" % (self.frame_id, self.thread_id))
+                dbg.writer.add_command(cmd)
+        except:
+            cmd = dbg.cmd_factory.make_error_message(self.sequence, "Error resolving frame: %s from thread: %s" % (self.frame_id, self.thread_id))
+            dbg.writer.add_command(cmd)
+
+
 #=======================================================================================================================
 # InternalEvaluateExpression
 #=======================================================================================================================
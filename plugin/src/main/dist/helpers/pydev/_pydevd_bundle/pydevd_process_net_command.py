@@ -17,7 +17,8 @@ from _pydevd_bundle.pydevd_comm import CMD_RUN, CMD_VERSION, CMD_LIST_THREADS, C
     CMD_REMOVE_EXCEPTION_BREAK, CMD_LOAD_SOURCE, CMD_ADD_DJANGO_EXCEPTION_BREAK, CMD_REMOVE_DJANGO_EXCEPTION_BREAK, \
     CMD_EVALUATE_CONSOLE_EXPRESSION, InternalEvaluateConsoleExpression, InternalConsoleGetCompletions, \
     CMD_RUN_CUSTOM_OPERATION, InternalRunCustomOperation, CMD_IGNORE_THROWN_EXCEPTION_AT, CMD_ENABLE_DONT_TRACE, \
-    CMD_SHOW_RETURN_VALUES, ID_TO_MEANING, CMD_GET_DESCRIPTION, InternalGetDescription
+    CMD_SHOW_RETURN_VALUES, ID_TO_MEANING, CMD_GET_DESCRIPTION, InternalGetDescription, CMD_GET_VARIABLES, \
+    InternalGetVariables, CMD_GET_ARRAY_BINARY, CMD_GET_FRAME_DIFF, InternalGetFrameDiff
 from _pydevd_bundle.pydevd_constants import get_thread_id, IS_PY3K, DebugInfoHolder, dict_contains, dict_keys, dict_pop, \
     STATE_RUN
 
@@ -186,8 +187,29 @@ def process_net_command(py_db, cmd_id, seq, text):
                 except:
                     traceback.print_exc()
 
-            elif cmd_id == CMD_GET_ARRAY:
-                # we received some command to get an array variable
+            elif cmd_id == CMD_GET_VARIABLES:
+                # we received some command to get several variables at once
+                # the text is: thread_id(\tVAR|EXPR\tfield_count\tfield*)*
+                # VAR fields are the ones of CMD_GET_VARIABLE after the thread_id: frame_id\tFRAME|GLOBAL\tattributes*
+                # EXPR fields are: frame_id\texpression\ttrim
+                try:
+                    fields = text.split('\t')
+                    thread_id = fields[0]
+                    items = []
+                    i = 1
+                    while i < len(fields):
+                        count = int(fields[i + 1])
+                        items.append((fields[i], fields[i + 2:i + 2 + count]))
+                        i += 2 + count
+
+                    int_cmd = InternalGetVariables(seq, thread_id, items)
+                    py_db.post_internal_command(int_cmd, thread_id)
+
+                except:
+                    traceback.print_exc()
+
+            elif cmd_id == CMD_GET_ARRAY or cmd_id == CMD_GET_ARRAY_BINARY:
+                # we received some command to get an array variable, CMD_GET_ARRAY_BINARY asks for the binary format of values
                 # the text is: thread_id\tframe_id\tFRAME|GLOBAL\tname\ttemp\troffs\tcoffs\trows\tcols\tformat
                 try:
                     roffset, coffset, rows, cols, format, thread_id, frame_id, scopeattrs  = text.split('\t', 7)
@@ -197,7 +219,8 @@ def process_net_command(py_db, cmd_id, seq, text):
                     else:
                         scope, attrs = (scopeattrs, None)
 
-                    int_cmd = InternalGetArray(seq, roffset, coffset, rows, cols, format, thread_id, frame_id, scope, attrs)
+                    int_cmd = InternalGetArray(seq, roffset, coffset, rows, cols, format, thread_id, frame_id, scope, attrs,
+                                               cmd_id == CMD_GET_ARRAY_BINARY)
                     py_db.post_internal_command(int_cmd, thread_id)
 
                 except:
@@ -243,6 +266,12 @@ def process_net_command(py_db, cmd_id, seq, text):
                 int_cmd = InternalGetFrame(seq, thread_id, frame_id)
                 py_db.post_internal_command(int_cmd, thread_id)
 
+            elif cmd_id == CMD_GET_FRAME_DIFF:
+                thread_id, frame_id, scope, base_version = text.split('\t', 3)
+
+                int_cmd = InternalGetFrameDiff(seq, thread_id, frame_id, int(base_version))
+                py_db.post_internal_command(int_cmd, thread_id)
+
             elif cmd_id == CMD_SET_BREAK:
                 # func name: 'None': match anything. Empty: match global, specified: only method context.
                 # command to add some breakpoint.
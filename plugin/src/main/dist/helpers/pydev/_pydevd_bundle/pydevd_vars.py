@@ -1,11 +1,14 @@
 """ pydevd_vars deals with variables:
     resolution/conversion to XML.
 """
+import base64
 import pickle
-from _pydevd_bundle.pydevd_constants import dict_contains, get_frame, get_thread_id, xrange
+import re
+from _pydevd_bundle.pydevd_constants import dict_contains, get_frame, get_thread_id, xrange, IS_PY3K, \
+    MAXIMUM_VARIABLE_REPRESENTATION_SIZE
 
 from _pydevd_bundle.pydevd_custom_frames import get_custom_frame
-from _pydevd_bundle.pydevd_xml import ExceptionOnEvaluate, get_type, var_to_xml
+from _pydevd_bundle.pydevd_xml import ExceptionOnEvaluate, get_type, var_to_xml, make_valid_xml_value
 from _pydev_imps._pydev_saved_modules import thread
 
 try:
@@ -415,7 +418,8 @@ MAXIMUM_ARRAY_SIZE = 100
 MAX_SLICE_SIZE = 1000
 
 
-def table_like_struct_to_xml(array, name, roffset, coffset, rows, cols, format):
+def table_like_struct_to_xml(array, name, roffset, coffset, rows, cols, format, binary=False):
+    """ binary: send the values in columns of the binary format, see binary_column_to_xml """
     _, type_name, _ = get_type(array)
     if type_name == 'ndarray':
         array, metaxml, r, c, f = array_to_meta_xml(array, name, format)
@@ -424,16 +428,57 @@ def table_like_struct_to_xml(array, name, roffset, coffset, rows, cols, format):
         if rows == -1 and cols == -1:
             rows = r
             cols = c
-        xml += array_to_xml(array, roffset, coffset, rows, cols, format)
+        xml += array_to_xml(array, roffset, coffset, rows, cols, format, binary)
     elif type_name == 'DataFrame':
-        xml = dataframe_to_xml(array, name, roffset, coffset, rows, cols, format)
+        xml = dataframe_to_xml(array, name, roffset, coffset, rows, cols, format, binary)
     else:
         raise VariableError("Do not know how to convert type %s to table" % (type_name))
 
     return "<xml>%s</xml>" % xml
 
 
-def array_to_xml(array, roffset, coffset, rows, cols, format):
+# formats the Java side can apply to numbers the same way Python does
+BINARY_NUMBER_FORMAT = re.compile(r'^%[+ ]?(0?[1-9][0-9]*)?((\.[0-9]+)?[fe]|[di])$')
+
+
+def binary_column_to_xml(values, kind, format):
+    """ a column of the binary array format: numbers and booleans are base64 encoded little-endian int64, float64 or
+    byte values, other values are formatted in Python and sent as int32 indices into a dictionary of <item>s """
+    import numpy
+    if (kind == 'f' or kind == 'i' or kind == 'u' and numpy.asarray(values).dtype.itemsize < 8) and \
+            BINARY_NUMBER_FORMAT.match(format):
+        column_type = 'f' if kind == 'f' else 'i'
+        data = numpy.asarray(values, dtype='<f8' if kind == 'f' else '<i8')
+        items = ''
+    elif kind == 'b' and format == '%s':
+        column_type = 'b'
+        data = numpy.asarray(values, dtype='u1')
+        items = ''
+    else:
+        column_type = 's'
+        dictionary = {}
+        indices = []
+        for value in values:
+            text = format % value
+            if len(text) > MAXIMUM_VARIABLE_REPRESENTATION_SIZE:
+                text = text[0:MAXIMUM_VARIABLE_REPRESENTATION_SIZE] + '...'
+            indices.append(dictionary.setdefault(text, len(dictionary)))
+        data = numpy.asarray(indices, dtype='<i4')
+        items = ''.join(['<item value="%s"/>' % make_valid_xml_value(quote(_to_utf8(text), '/>_= '))
+                         for text in sorted(dictionary, key=dictionary.get)])
+    encoded = base64.b64encode(data.tobytes() if hasattr(data, 'tobytes') else data.tostring())
+    if IS_PY3K:
+        encoded = encoded.decode('ascii')
+    return '<column type="%s" format="%s" data="%s">%s</column>\n' % (column_type, quote(format, '/>_= '), encoded, items)
+
+
+def _to_utf8(text):
+    if not IS_PY3K and isinstance(text, unicode):
+        return text.encode('utf-8')
+    return text
+
+
+def array_to_xml(array, roffset, coffset, rows, cols, format, binary=False):
     xml = ""
     rows = min(rows, MAXIMUM_ARRAY_SIZE)
     cols = min(cols, MAXIMUM_ARRAY_SIZE)
@@ -455,25 +500,31 @@ def array_to_xml(array, roffset, coffset, rows, cols, format):
             array = array[roffset:]
             rows = min(rows, len(array))
 
+    def get_value(row, col):
+        if rows == 1 or cols == 1:
+            if rows == 1 and cols == 1:
+                return array[0]
+            if rows == 1:
+                dim = col
+            else:
+                dim = row
+            value = array[dim]
+            if "ndarray" in str(type(value)):
+                value = value[0]
+            return value
+        return array[row][col]
+
+    if binary:
+        xml += "<arraydata rows=\"%s\" cols=\"%s\" encoding=\"binary\"/>" % (rows, cols)
+        for col in range(cols):
+            xml += binary_column_to_xml([get_value(row, col) for row in range(rows)], array.dtype.kind, format)
+        return xml
+
     xml += "<arraydata rows=\"%s\" cols=\"%s\"/>" % (rows, cols)
     for row in range(rows):
         xml += "<row index=\"%s\"/>" % to_string(row)
         for col in range(cols):
-            value = array
-            if rows == 1 or cols == 1:
-                if rows == 1 and cols == 1:
-                    value = array[0]
-                else:
-                    if rows == 1:
-                        dim = col
-                    else:
-                        dim = row
-                    value = array[dim]
-                    if "ndarray" in str(type(value)):
-                        value = value[0]
-            else:
-                value = array[row][col]
-            value = format % value
+            value = format % get_value(row, col)
             xml += var_to_xml(value, '')
     return xml
 
@@ -549,7 +600,7 @@ def array_default_format(type):
         return 's'
 
 
-def dataframe_to_xml(df, name, roffset, coffset, rows, cols, format):
+def dataframe_to_xml(df, name, roffset, coffset, rows, cols, format, binary=False):
     """
     :type df: pandas.core.frame.DataFrame
     :type name: str
@@ -610,6 +661,11 @@ def dataframe_to_xml(df, name, roffset, coffset, rows, cols, format):
         xml += "<rowheader index=\"%s\" label = \"%s\"/>\n" % \
                (str(row), get_label(label))
     xml += "</headerdata>\n"
+    if binary:
+        xml += "<arraydata rows=\"%s\" cols=\"%s\" encoding=\"binary\"/>\n" % (rows, cols)
+        for col in range(cols):
+            xml += binary_column_to_xml(df.iloc[:, col].values, df.dtypes.iloc[col].kind, col_formats[col])
+        return xml
     xml += "<arraydata rows=\"%s\" cols=\"%s\"/>\n" % (rows, cols)
     for row in range(rows):
         xml += "<row index=\"%s\"/>\n" % str(row)
@@ -166,7 +166,14 @@ def frame_vars_to_xml(frame_f_locals, hidden_ns=None):
     """ dumps frame variables to XML
     <var name="var_name" scope="local" type="type" value="value"/>
     """
-    xml = ""
+    return ''.join([xml for _name, xml, _is_return_value in frame_vars_to_xml_items(frame_f_locals, hidden_ns)])
+
+
+def frame_vars_to_xml_items(frame_f_locals, hidden_ns=None):
+    """ dumps frame variables to XML one by one, sorted by name
+    @return: a list of (name, xml, is_return_value) tuples, return values are named after their function
+    """
+    items = []
 
     keys = dict_keys(frame_f_locals)
     if hasattr(keys, 'sort'):
@@ -178,17 +185,18 @@ def frame_vars_to_xml(frame_f_locals, hidden_ns=None):
         try:
             v = frame_f_locals[k]
             if k == RETURN_VALUES_DICT:
-                xml += return_values_from_dict_to_xml(v)
+                for name, val in dict_iter_items(v):
+                    items.append((name, var_to_xml(val, name, additionalInXml=' isRetVal="True"'), True))
             else:
                 if hidden_ns is not None and dict_contains(hidden_ns, k):
-                    xml += var_to_xml(v, str(k), additionalInXml=' isIPythonHidden="True"')
+                    items.append((str(k), var_to_xml(v, str(k), additionalInXml=' isIPythonHidden="True"'), False))
                 else:
-                    xml += var_to_xml(v, str(k))
+                    items.append((str(k), var_to_xml(v, str(k)), False))
         except Exception:
             traceback.print_exc()
             pydev_log.error("Unexpected error, recovered safely.\n")
 
-    return xml
+    return items
 
 
 def var_to_xml(val, name, doTrim=True, additionalInXml='', return_value=False, ipython_hidden=False):
@@ -0,0 +1,143 @@
+package com.jetbrains.python;
+
+import com.jetbrains.python.fixtures.PyTestCase;
+import com.jetbrains.python.impl.psi.PyStatementListElementType;
+import consulo.codeEditor.SelectionModel;
+import consulo.document.Document;
+import consulo.language.ast.ASTNode;
+import consulo.language.editor.WriteCommandAction;
+import consulo.language.psi.PsiDocumentManager;
+import consulo.language.psi.PsiFile;
+import consulo.language.psi.PsiFileFactory;
+
+/**
+ * Edits at the edges of lazily parsed statement lists: the tree after the list is reparsed alone must be the tree of
+ * the new text parsed anew.
+ */
+public abstract class PyLazyStatementListTest extends PyTestCase {
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    System.setProperty(PyStatementListElementType.LAZY_PARSING_PROPERTY, "true");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    System.clearProperty(PyStatementListElementType.LAZY_PARSING_PROPERTY);
+    super.tearDown();
+  }
+
+  public void testAppendStatement() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", "\n    z = 3");
+  }
+
+  public void testAppendNestedBlock() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", "\n    if x:\n        z = 3");
+  }
+
+  public void testAppendHeaderWithoutBody() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", "\n    if x:");
+  }
+
+  public void testDedentLastLine() {
+    doTest("def f():\n    if x:\n        y = 1\n<selection>    </selection>    z = 2\n\nw = 3\n", "");
+  }
+
+  public void testDedentLastLineInconsistently() {
+    doTest("def f():\n    if x:\n        y = 1\n<selection>  </selection>      z = 2\n\nw = 3\n", "");
+  }
+
+  public void testIndentLastLine() {
+    doTest("def f():\n    if x:\n        y = 1\n<caret>    z = 2\n\nw = 3\n", "    ");
+  }
+
+  public void testIndentSecondLine() {
+    doTest("def f():\n    x = 1\n<caret>    y = 2\n\nz = 3\n", "  ");
+  }
+
+  public void testTrailingCommentAtBlockIndent() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", "\n    # c");
+  }
+
+  public void testTrailingCommentAtColumnZero() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", "\n# c");
+  }
+
+  public void testTrailingCommentIndentedDeeper() {
+    doTest("def f():\n    if x:\n        y = 1<caret>\n    z = 2\n", "\n            # c");
+  }
+
+  public void testCommentMovedToStatementLine() {
+    doTest("class C:\n    pass<selection>\n   </selection> # c\n\n# d\ndef f():\n    pass\n", "");
+  }
+
+  public void testContinuationLine() {
+    doTest("def f():\n    x = 1<caret>\n    y = 2\n\nz = 3\n", " + \\\n        2");
+  }
+
+  public void testContinuationOfLastLine() {
+    doTest("def f():\n    if x:\n        y = 1<caret>\n    z = 2\n\nw = 3\n", " \\");
+  }
+
+  public void testBracketedLines() {
+    doTest("def f():\n    x = (1,<caret>\n         2)\n\ny = 3\n", "\n         3,");
+  }
+
+  public void testOpenBracket() {
+    doTest("def f():\n    x = 1<caret>\n\ny = 2\n", " + (");
+  }
+
+  public void testInsertDocstring() {
+    doTest("def f():\n    <caret>x = 1\n\ny = 2\n", "\"\"\"doc\"\"\"\n    ");
+  }
+
+  public void testInsertPlainStringFirst() {
+    doTest("if x:\n    <caret>y = 1\n\nz = 2\n", "'s'\n    ");
+  }
+
+  public void testUnterminatedDocstring() {
+    doTest("def f():\n    \"\"\"doc\"\"<selection>\"</selection>\n    x = 1\n\ny = 2\n", "");
+  }
+
+  public void testEditDocstring() {
+    doTest("class C:\n    \"\"\"doc<caret>\"\"\"\n\n    def f(self):\n        pass\n", " more");
+  }
+
+  private void doTest(String text, String replacement) {
+    myFixture.configureByText(PythonFileType.INSTANCE, text);
+    final PsiFile file = myFixture.getFile();
+    // the lists are parsed before the edit, as the editor would have them parsed
+    dump(file.getNode());
+    final Document document = myFixture.getEditor().getDocument();
+    final SelectionModel selection = myFixture.getEditor().getSelectionModel();
+    final int start = selection.hasSelection() ? selection.getSelectionStart() : myFixture.getEditor().getCaretModel().getOffset();
+    final int end = selection.hasSelection() ? selection.getSelectionEnd() : start;
+    new WriteCommandAction.Simple(myFixture.getProject(), file) {
+      @Override
+      protected void run() throws Throwable {
+        document.replaceString(start, end, replacement);
+        PsiDocumentManager.getInstance(myFixture.getProject()).commitDocument(document);
+      }
+    }.execute();
+    PsiFile expected = PsiFileFactory.getInstance(myFixture.getProject()).createFileFromText("a.py", PythonFileType.INSTANCE, document.getText());
+    assertEquals(dump(expected.getNode()), dump(file.getNode()));
+  }
+
+  private static String dump(ASTNode node) {
+    StringBuilder builder = new StringBuilder();
+    dump(node, "", builder);
+    return builder.toString();
+  }
+
+  private static void dump(ASTNode node, String indent, StringBuilder builder) {
+    builder.append(indent).append(node.getElementType());
+    ASTNode child = node.getFirstChildNode();
+    if (child == null) {
+      builder.append("('").append(node.getText()).append("')");
+    }
+    builder.append('\n');
+    for (; child != null; child = child.getTreeNext()) {
+      dump(child, indent + "  ", builder);
+    }
+  }
+}
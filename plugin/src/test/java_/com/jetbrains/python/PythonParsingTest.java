@@ -2,6 +2,7 @@ package com.jetbrains.python;
 
 import com.intellij.testFramework.TestDataPath;
 import com.jetbrains.python.fixtures.PyTestCase;
+import com.jetbrains.python.impl.psi.PyStatementListElementType;
 import com.jetbrains.python.psi.LanguageLevel;
 import consulo.testFramework.ParsingTestCase;
 
@@ -388,12 +389,26 @@ public abstract class PythonParsingTest extends ParsingTestCase
     myLanguageLevel = languageLevel;
     try {
       doTest(true);
+      doLazyTest();
     }
     finally {
       myLanguageLevel = prev;
     }
   }
 
+  /**
+   * The statement lists parsed on first access must make the tree the file parser makes.
+   */
+  private void doLazyTest() {
+    System.setProperty(PyStatementListElementType.LAZY_PARSING_PROPERTY, "true");
+    try {
+      doTest(true);
+    }
+    finally {
+      System.clearProperty(PyStatementListElementType.LAZY_PARSING_PROPERTY);
+    }
+  }
+
   /*@Override
   protected PsiFile createFile(String name, String text) {
     final PsiFile file = super.createFile(name, text);
@@ -1,5 +1,7 @@
 package com.jetbrains.python.console.pydev;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.xmlrpc.XmlRpcException;
 
 
@@ -22,4 +24,10 @@ public interface IPydevXmlRpcClient
 
 	Object execute(String command, Object[] args, long timeoutMillis) throws XmlRpcException;
 
+	/**
+	 * @return the future result of executing the command in the server; errors are reported as a result
+	 * of a single-element array with the message, like {@link #execute} does
+	 */
+	CompletableFuture<Object> executeAsync(String command, Object[] args);
+
 }
@@ -1,7 +1,8 @@
 package com.jetbrains.python.console.pydev;
 
-import consulo.logging.Logger;
 import consulo.process.ProcessHandler;
+import consulo.process.event.ProcessAdapter;
+import consulo.process.event.ProcessEvent;
 import consulo.util.io.NetUtil;
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.XmlRpcRequest;
@@ -12,7 +13,13 @@ import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Subclass of XmlRpcClient that will monitor the process so that if the process is destroyed, we stop waiting
@@ -33,12 +40,13 @@ public class PydevXmlRpcClient implements IPydevXmlRpcClient
 	 */
 	private ProcessHandler process;
 
+	private static final long TIME_LIMIT = 60000;
+
+
 	/**
-	 * ItelliJ Logging
+	 * Results not received yet, completed with an error when the process ends
 	 */
-	private static final Logger LOG = Logger.getInstance(PydevXmlRpcClient.class);
-
-	private static final long TIME_LIMIT = 60000;
+	private final Set<CompletableFuture<Object>> myPendingResults = ConcurrentHashMap.newKeySet();
 
 
 	/**
@@ -57,6 +65,20 @@ public class PydevXmlRpcClient implements IPydevXmlRpcClient
 		this.impl = new XmlRpcClient();
 		this.impl.setConfig(config);
 		this.process = process;
+		if(process != null)
+		{
+			process.addProcessListener(new ProcessAdapter()
+			{
+				@Override
+				public void processTerminated(ProcessEvent event)
+				{
+					for(CompletableFuture<Object> result : myPendingResults)
+					{
+						result.complete(createExitedResult(event.getExitCode()));
+					}
+				}
+			});
+		}
 	}
 
 	@Override
@@ -66,68 +88,74 @@ public class PydevXmlRpcClient implements IPydevXmlRpcClient
 	}
 
 	/**
-	 * Executes a command in the server.
-	 * <p>
-	 * Within this method, we should be careful about being able to return if the server dies.
-	 * If we wanted to have a timeout, this would be the place to add it.
+	 * Executes a command in the server, waiting for the answer until the timeout passes or the server dies.
 	 *
 	 * @return the result from executing the given command in the server.
 	 */
+	@Override
 	public Object execute(String command, Object[] args, long timeout) throws XmlRpcException
 	{
-		final Object[] result = new Object[]{null};
-
-		//make an async call so that we can keep track of not actually having an answer.
-		this.impl.executeAsync(command, new Vector(Arrays.asList(args)), new AsyncCallback()
+		CompletableFuture<Object> result = executeAsync(command, args);
+		try
 		{
+			return result.get(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch(TimeoutException e)
+		{
+			// nobody waits for the answer anymore, cancelling also removes it from the pending results
+			result.cancel(false);
+			throw new XmlRpcException(-1, "Timeout while connecting to server");
+		}
+		catch(InterruptedException e)
+		{
+			result.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new XmlRpcException(-1, "Interrupted while waiting for an answer", e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new XmlRpcException(-1, e.getCause().getMessage(), e.getCause());
+		}
+	}
 
-			@Override
-			public void handleResult(XmlRpcRequest pRequest, Object recievedResult)
-			{
-				result[0] = recievedResult;
-			}
-
-			@Override
-			public void handleError(XmlRpcRequest pRequest, Throwable error)
-			{
-				result[0] = new Object[]{error.getMessage()};
-			}
-		});
-
-		long started = System.currentTimeMillis();
-		//busy loop waiting for the answer (or having the console die).
-		while(result[0] == null && System.currentTimeMillis() - started < TIME_LIMIT)
+	@Override
+	public CompletableFuture<Object> executeAsync(String command, Object[] args)
+	{
+		CompletableFuture<Object> result = new CompletableFuture<>();
+		myPendingResults.add(result);
+		result.whenComplete((value, error) -> myPendingResults.remove(result));
+		try
 		{
-			try
+			this.impl.executeAsync(command, new Vector(Arrays.asList(args)), new AsyncCallback()
 			{
-				if(process != null)
+				@Override
+				public void handleResult(XmlRpcRequest pRequest, Object recievedResult)
 				{
-					int exitValue = process.getExitCode() != null ? process.getExitCode() : -1;
-					result[0] = new Object[]{String.format("Console already exited with value: %s while waiting for an answer.\n", exitValue)};
-					//ok, we have an exit value!
-					break;
+					result.complete(recievedResult);
 				}
-			}
-			catch(IllegalThreadStateException e)
-			{
-				//that's ok... let's sleep a bit
-				synchronized(this)
+
+				@Override
+				public void handleError(XmlRpcRequest pRequest, Throwable error)
 				{
-					try
-					{
-						wait(10);
-					}
-					catch(InterruptedException e1)
-					{
-						LOG.error(e1);
-					}
+					result.complete(new Object[]{error.getMessage()});
 				}
-			}
+			});
 		}
-		if(result[0] == null)
+		catch(XmlRpcException e)
 		{
-			throw new XmlRpcException(-1, "Timeout while connecting to server");
+			result.complete(new Object[]{e.getMessage()});
 		}
-		return result[0];
+		// the process may have ended before the listener was added
+		if(process != null && process.isProcessTerminated())
+		{
+			Integer exitCode = process.getExitCode();
+			result.complete(createExitedResult(exitCode != null ? exitCode : -1));
+		}
+		return result;
+	}
+
+	private static Object[] createExitedResult(int exitValue)
+	{
+		return new Object[]{String.format("Console already exited with value: %s while waiting for an answer.\n", exitValue)};
 	}
 }
@@ -15,6 +15,7 @@
  */
 package com.jetbrains.python.debugger;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jspecify.annotations.Nullable;
@@ -33,6 +34,7 @@ public class ArrayChunk
 	private final String myFormat;
 	private final String myType;
 	private final Object[][] myData;
+	private final List<ArrayChunkColumn> myDataColumns;
 	private final List<String> myRowLabels;
 	private final List<ColHeader> myColHeaders;
 
@@ -48,6 +50,25 @@ public class ArrayChunk
 			@Nullable Object[][] data,
 			List<String> labels,
 			List<ColHeader> headers)
+	{
+		this(value, slicePresentation, rows, columns, max, min, format, type, data, null, labels, headers);
+	}
+
+	/**
+	 * @param dataColumns the data in the binary format, by column; if set, {@code data} is null
+	 */
+	public ArrayChunk(PyDebugValue value,
+			String slicePresentation,
+			int rows,
+			int columns,
+			String max,
+			String min,
+			String format,
+			String type,
+			@Nullable Object[][] data,
+			@Nullable List<ArrayChunkColumn> dataColumns,
+			List<String> labels,
+			List<ColHeader> headers)
 	{
 		myValue = value;
 		mySlicePresentation = slicePresentation;
@@ -58,6 +79,7 @@ public class ArrayChunk
 		myFormat = format;
 		myType = type;
 		myData = data;
+		myDataColumns = dataColumns;
 		myRowLabels = labels;
 		myColHeaders = headers;
 	}
@@ -102,11 +124,73 @@ public class ArrayChunk
 		return myType;
 	}
 
+	/**
+	 * @return the data by row, or null if the chunk was received in the binary format, see {@link #getCell}
+	 */
+	@Nullable
 	public Object[][] getData()
 	{
 		return myData;
 	}
 
+	@Nullable
+	public List<ArrayChunkColumn> getDataColumns()
+	{
+		return myDataColumns;
+	}
+
+	public int getDataRowCount()
+	{
+		if(myDataColumns != null)
+		{
+			return myDataColumns.isEmpty() ? 0 : myDataColumns.get(0).size();
+		}
+		return myData == null ? 0 : myData.length;
+	}
+
+	public int getDataColumnCount()
+	{
+		if(myDataColumns != null)
+		{
+			return myDataColumns.size();
+		}
+		return myData == null || myData.length == 0 ? 0 : myData[0].length;
+	}
+
+	/**
+	 * @return the value of the cell, either as received or an {@link ArrayChunkColumn.Cell} formatting itself when shown
+	 */
+	public Object getCell(int row, int col)
+	{
+		if(myDataColumns != null)
+		{
+			return myDataColumns.get(col).getCell(row);
+		}
+		return myData[row][col];
+	}
+
+	/**
+	 * @return a chunk with the data of the given rows and columns only, sharing the values of binary columns
+	 */
+	public ArrayChunk getDataSlice(int rowOffset, int colOffset, int rows, int cols)
+	{
+		if(myDataColumns != null)
+		{
+			List<ArrayChunkColumn> columns = new ArrayList<>(cols);
+			for(int col = colOffset; col < colOffset + cols; col++)
+			{
+				columns.add(myDataColumns.get(col).slice(rowOffset, rows));
+			}
+			return new ArrayChunkBuilder().setValue(myValue).setDataColumns(columns).createArrayChunk();
+		}
+		Object[][] data = new Object[rows][cols];
+		for(int row = 0; row < rows; row++)
+		{
+			System.arraycopy(myData[rowOffset + row], colOffset, data[row], 0, cols);
+		}
+		return new ArrayChunkBuilder().setValue(myValue).setData(data).createArrayChunk();
+	}
+
 	public List<String> getRowLabels()
 	{
 		return myRowLabels;
@@ -28,6 +28,7 @@ public class ArrayChunkBuilder
 	private String myFormat;
 	private String myType;
 	private Object[][] myData = null;
+	private List<ArrayChunkColumn> myDataColumns = null;
 	private List<String> myRowLabels = null;
 	private List<ArrayChunk.ColHeader> myColHeaders = null;
 
@@ -85,6 +86,12 @@ public class ArrayChunkBuilder
 		return this;
 	}
 
+	public ArrayChunkBuilder setDataColumns(List<ArrayChunkColumn> dataColumns)
+	{
+		myDataColumns = dataColumns;
+		return this;
+	}
+
 	public void setRowLabels(List<String> rowLabels)
 	{
 		myRowLabels = rowLabels;
@@ -97,6 +104,6 @@ public class ArrayChunkBuilder
 
 	public ArrayChunk createArrayChunk()
 	{
-		return new ArrayChunk(myValue, myPresentation, myRows, myColumns, myMax, myMin, myFormat, myType, myData, myRowLabels, myColHeaders);
+		return new ArrayChunk(myValue, myPresentation, myRows, myColumns, myMax, myMin, myFormat, myType, myData, myDataColumns, myRowLabels, myColHeaders);
 	}
 }
\ No newline at end of file
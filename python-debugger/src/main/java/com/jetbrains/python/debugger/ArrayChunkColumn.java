@@ -0,0 +1,264 @@
+package com.jetbrains.python.debugger;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A column of an {@link ArrayChunk} received in the binary format: primitive values, or indices into a dictionary
+ * of values formatted by Python for any other type. Cells are formatted with the Python format of the column
+ * only when shown, see {@link Cell}.
+ */
+public abstract class ArrayChunkColumn
+{
+	// the number formats pydevd sends in the binary format, see BINARY_NUMBER_FORMAT in pydevd_vars.py
+	private static final Pattern NUMBER_FORMAT = Pattern.compile("%([+ ]?)(0?)([1-9][0-9]*)?(?:\\.([0-9]+))?([fedi])");
+
+	private final int myOffset;
+	private final int mySize;
+
+	protected ArrayChunkColumn(int offset, int size)
+	{
+		myOffset = offset;
+		mySize = size;
+	}
+
+	public static ArrayChunkColumn ofDoubles(double[] values, String format)
+	{
+		NumberFormat numberFormat = NumberFormat.parse(format);
+		return new ArrayChunkColumn(0, values.length)
+		{
+			@Override
+			protected String doFormat(int index)
+			{
+				return numberFormat.format(values[index]);
+			}
+		};
+	}
+
+	public static ArrayChunkColumn ofLongs(long[] values, String format)
+	{
+		NumberFormat numberFormat = NumberFormat.parse(format);
+		return new ArrayChunkColumn(0, values.length)
+		{
+			@Override
+			protected String doFormat(int index)
+			{
+				return numberFormat.format(values[index]);
+			}
+		};
+	}
+
+	public static ArrayChunkColumn ofBooleans(boolean[] values)
+	{
+		return new ArrayChunkColumn(0, values.length)
+		{
+			@Override
+			protected String doFormat(int index)
+			{
+				return values[index] ? "True" : "False";
+			}
+		};
+	}
+
+	public static ArrayChunkColumn ofStrings(int[] indices, String[] dictionary)
+	{
+		return new ArrayChunkColumn(0, indices.length)
+		{
+			@Override
+			protected String doFormat(int index)
+			{
+				return dictionary[indices[index]];
+			}
+		};
+	}
+
+	public int size()
+	{
+		return mySize;
+	}
+
+	public Cell getCell(int row)
+	{
+		return new Cell(this, row);
+	}
+
+	public String format(int row)
+	{
+		if(row < 0 || row >= mySize)
+		{
+			throw new IndexOutOfBoundsException("Row " + row + " of " + mySize);
+		}
+		return doFormat(myOffset + row);
+	}
+
+	/**
+	 * @return a view of the rows of the column, sharing the values
+	 */
+	public ArrayChunkColumn slice(int offset, int size)
+	{
+		if(offset < 0 || size < 0 || offset + size > mySize)
+		{
+			throw new IndexOutOfBoundsException("Rows " + offset + ".." + (offset + size) + " of " + mySize);
+		}
+		ArrayChunkColumn column = this;
+		return new ArrayChunkColumn(myOffset + offset, size)
+		{
+			@Override
+			protected String doFormat(int index)
+			{
+				return column.doFormat(index);
+			}
+		};
+	}
+
+	/**
+	 * @param index the index of the value in the underlying array, not the row of the column
+	 */
+	protected abstract String doFormat(int index);
+
+	/**
+	 * A cell of a binary column, {@link #toString()} formats its value.
+	 */
+	public static final class Cell
+	{
+		private final ArrayChunkColumn myColumn;
+		private final int myRow;
+
+		private Cell(ArrayChunkColumn column, int row)
+		{
+			myColumn = column;
+			myRow = row;
+		}
+
+		@Override
+		public String toString()
+		{
+			return myColumn.format(myRow);
+		}
+	}
+
+	/**
+	 * Formats numbers the way Python's {@code %} operator does for the formats of {@link #NUMBER_FORMAT}:
+	 * the exact binary value is rounded half to even, and infinities and NaN are spelled like in Python.
+	 */
+	private static final class NumberFormat
+	{
+		private final char mySignFlag;
+		private final boolean myZeroPadded;
+		private final int myWidth;
+		private final int myPrecision;
+		private final char myConversion;
+
+		private NumberFormat(char signFlag, boolean zeroPadded, int width, int precision, char conversion)
+		{
+			mySignFlag = signFlag;
+			myZeroPadded = zeroPadded;
+			myWidth = width;
+			myPrecision = precision;
+			myConversion = conversion;
+		}
+
+		static NumberFormat parse(String format)
+		{
+			Matcher matcher = NUMBER_FORMAT.matcher(format);
+			if(!matcher.matches())
+			{
+				throw new IllegalArgumentException("Unsupported number format: " + format);
+			}
+			String sign = matcher.group(1);
+			String width = matcher.group(3);
+			String precision = matcher.group(4);
+			char conversion = matcher.group(5).charAt(0);
+			return new NumberFormat(sign.isEmpty() ? 0 : sign.charAt(0), !matcher.group(2).isEmpty(), width != null ? Integer.parseInt(width) : 0,
+					precision != null ? Integer.parseInt(precision) : 6, conversion == 'i' ? 'd' : conversion);
+		}
+
+		String format(double value)
+		{
+			if(Double.isNaN(value))
+			{
+				return pad("", "nan");
+			}
+			if(myConversion == 'd' && !Double.isInfinite(value))
+			{
+				return format(new BigDecimal(value).toBigInteger());
+			}
+			String sign = value < 0 || value == 0 && 1 / value < 0 ? "-" : "";
+			return pad(sign, Double.isInfinite(value) ? "inf" : formatDecimal(new BigDecimal(value).abs()));
+		}
+
+		String format(long value)
+		{
+			// like Python, which formats integers with %f or %e as floats
+			return myConversion == 'd' ? format(BigInteger.valueOf(value)) : format((double) value);
+		}
+
+		private String format(BigInteger value)
+		{
+			return pad(value.signum() < 0 ? "-" : "", value.abs().toString());
+		}
+
+		private String formatDecimal(BigDecimal value)
+		{
+			if(myConversion == 'f')
+			{
+				return value.setScale(myPrecision, RoundingMode.HALF_EVEN).toPlainString();
+			}
+			int exponent = 0;
+			String digits;
+			if(value.signum() == 0)
+			{
+				digits = "0";
+			}
+			else
+			{
+				BigDecimal rounded = value.round(new MathContext(myPrecision + 1, RoundingMode.HALF_EVEN));
+				exponent = rounded.precision() - rounded.scale() - 1;
+				digits = rounded.unscaledValue().toString();
+			}
+			StringBuilder result = new StringBuilder().append(digits.charAt(0));
+			if(myPrecision > 0)
+			{
+				result.append('.').append(digits, 1, Math.min(digits.length(), myPrecision + 1));
+				for(int i = digits.length(); i < myPrecision + 1; i++)
+				{
+					result.append('0');
+				}
+			}
+			result.append(exponent < 0 ? "e-" : "e+");
+			if(Math.abs(exponent) < 10)
+			{
+				result.append('0');
+			}
+			return result.append(Math.abs(exponent)).toString();
+		}
+
+		private String pad(String sign, String body)
+		{
+			if(sign.isEmpty() && mySignFlag != 0)
+			{
+				sign = String.valueOf(mySignFlag);
+			}
+			int padding = myWidth - sign.length() - body.length();
+			if(padding <= 0)
+			{
+				return sign + body;
+			}
+			StringBuilder result = new StringBuilder(myWidth);
+			if(!myZeroPadded)
+			{
+				result.append(" ".repeat(padding));
+			}
+			result.append(sign);
+			if(myZeroPadded)
+			{
+				result.append("0".repeat(padding));
+			}
+			return result.append(body).toString();
+		}
+	}
+}
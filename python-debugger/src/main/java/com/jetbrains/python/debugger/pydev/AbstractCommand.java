@@ -1,7 +1,11 @@
 package com.jetbrains.python.debugger.pydev;
 
 import com.jetbrains.python.debugger.PyDebuggerException;
-import consulo.application.ApplicationManager;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 
@@ -57,6 +61,10 @@ public abstract class AbstractCommand<T>
 
 	public static final int PROCESS_CREATED = 149;
 
+	public static final int GET_VARIABLES = 180;
+	public static final int GET_ARRAY_BINARY = 181;
+	public static final int GET_FRAME_DIFF = 182;
+
 	public static final int ERROR = 901;
 
 	public static final int VERSION = 501;
@@ -103,98 +111,123 @@ public abstract class AbstractCommand<T>
 
 	public void execute() throws PyDebuggerException
 	{
-		int sequence = myDebugger.getNextSequence();
-
-		ResponseProcessor<T> processor = getResponseProcessor();
-
-		if(processor != null || isResponseExpected())
+		CompletableFuture<ProtocolFrame> response = send(getResponseProcessor() != null || isResponseExpected());
+		if(response != null)
 		{
-			myDebugger.placeResponse(sequence, null);
+			processFrame(myDebugger.waitForResponse(response));
 		}
+	}
 
-		ProtocolFrame frame = new ProtocolFrame(myCommandCode, sequence, getPayload());
-		boolean frameSent = myDebugger.sendFrame(frame);
-
-		if(processor == null && !isResponseExpected())
+	public void execute(PyDebugCallback<T> callback)
+	{
+		CompletableFuture<ProtocolFrame> response;
+		try
+		{
+			response = send(getResponseProcessor() != null);
+		}
+		catch(PyDebuggerException e)
 		{
+			callback.error(e);
 			return;
 		}
-
-		if(!frameSent)
+		if(response == null)
 		{
-			throw new PyDebuggerException("Couldn't send frame " + myCommandCode);
+			return;
 		}
 
-		frame = myDebugger.waitForResponse(sequence);
-		if(frame == null)
-		{
-			if(!myDebugger.isConnected())
+		response.whenCompleteAsync((frame, error) -> {
+			try
 			{
-				throw new PyDebuggerException("No connection (command:  " + myCommandCode + " )");
+				callback.ok(processFrame(frame));
 			}
-			throw new PyDebuggerException("Timeout waiting for response on " + myCommandCode);
+			catch(PyDebuggerException e)
+			{
+				callback.error(e);
+			}
+		}, AppExecutorUtil.getAppExecutorService());
+	}
+
+	/**
+	 * Sends the command without blocking. The response is processed on a pooled thread, so the reader thread is never held
+	 * by parsing; cancelling the returned future stops waiting for the response.
+	 *
+	 * @return the future of the result of the response processor, or of null if the command has no processor
+	 */
+	public CompletableFuture<T> executeAsync()
+	{
+		CompletableFuture<ProtocolFrame> response;
+		try
+		{
+			response = send(getResponseProcessor() != null || isResponseExpected());
 		}
-		if(processor != null)
+		catch(PyDebuggerException e)
 		{
-			processor.processResponse(frame);
+			return CompletableFuture.failedFuture(e);
 		}
-		else
+		if(response == null)
 		{
-			processResponse(frame);
+			return CompletableFuture.completedFuture(null);
 		}
+
+		CompletableFuture<T> result = response.handleAsync((frame, error) -> {
+			try
+			{
+				return processFrame(frame);
+			}
+			catch(PyDebuggerException e)
+			{
+				throw new CompletionException(e);
+			}
+		}, AppExecutorUtil.getAppExecutorService());
+		result.whenComplete((value, error) -> {
+			if(result.isCancelled())
+			{
+				response.cancel(false);
+			}
+		});
+		return result;
 	}
 
-	public void execute(PyDebugCallback<T> callback)
+	/**
+	 * @return the future of the response, or null if no response is expected
+	 */
+	@Nullable
+	private CompletableFuture<ProtocolFrame> send(boolean responseExpected) throws PyDebuggerException
 	{
 		int sequence = myDebugger.getNextSequence();
+		CompletableFuture<ProtocolFrame> response = responseExpected ? myDebugger.expectResponse(sequence) : null;
 
-		ResponseProcessor<T> processor = getResponseProcessor();
+		ProtocolFrame frame = new ProtocolFrame(myCommandCode, sequence, getPayload());
+		boolean frameSent = myDebugger.sendFrame(frame);
 
-		if(processor != null)
+		if(response != null && !frameSent)
 		{
-			myDebugger.placeResponse(sequence, null);
+			response.cancel(false);
+			throw new PyDebuggerException("Couldn't send frame " + myCommandCode);
 		}
+		return response;
+	}
 
-		try
+	/**
+	 * @param frame the response, or null if it hasn't arrived
+	 */
+	private T processFrame(@Nullable ProtocolFrame frame) throws PyDebuggerException
+	{
+		if(frame == null)
 		{
-			ProtocolFrame frame = new ProtocolFrame(myCommandCode, sequence, getPayload());
-			boolean frameSent = myDebugger.sendFrame(frame);
-
-			if(processor == null)
-			{
-				return;
-			}
-
-			if(!frameSent)
+			if(!myDebugger.isConnected())
 			{
-				throw new PyDebuggerException("Couldn't send frame " + myCommandCode);
+				throw new PyDebuggerException("No connection (command:  " + myCommandCode + " )");
 			}
+			throw new PyDebuggerException("Timeout waiting for response on " + myCommandCode);
 		}
-		catch(PyDebuggerException e)
+		ResponseProcessor<T> processor = getResponseProcessor();
+		if(processor != null)
 		{
-			callback.error(e);
-			return;
+			return processor.processResponse(frame);
 		}
-
-		ApplicationManager.getApplication().executeOnPooledThread(() -> {
-			try
-			{
-				ProtocolFrame frame = myDebugger.waitForResponse(sequence);
-				if(frame == null)
-				{
-					if(!myDebugger.isConnected())
-					{
-						throw new PyDebuggerException("No connection (command:  " + myCommandCode + " )");
-					}
-					throw new PyDebuggerException("Timeout waiting for response on " + myCommandCode);
-				}
-				callback.ok(processor.processResponse(frame));
-			}
-			catch(PyDebuggerException e)
-			{
-				callback.error(e);
-			}
-		});
+		processResponse(frame);
+		return null;
 	}
 
 
@@ -251,6 +284,16 @@ public abstract class AbstractCommand<T>
 		return command == ERROR;
 	}
 
+	/**
+	 * @return whether the error is the reply of a debugger that doesn't know the command, as pydevd versions older than
+	 * the command answer it
+	 */
+	public static boolean isUnknownCommandError(PyDebuggerException e, int command)
+	{
+		String message = e.getMessage();
+		return message != null && message.trim().equals("unexpected command " + command);
+	}
+
 	public RemoteDebugger getDebugger()
 	{
 		return myDebugger;
@@ -0,0 +1,107 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import com.jetbrains.python.debugger.PyDebugValue;
+import com.jetbrains.python.debugger.PyDebuggerException;
+
+/**
+ * Evaluates the expressions requested at the same time in a thread, such as the watches after a step, with a few
+ * {@link GetVariablesCommand}s rather than a command each.
+ * <p>
+ * An expression is sent right away when no batch of its thread is waiting for a response, so a lone evaluation isn't
+ * delayed; the expressions requested while a batch is waiting are collected and sent together once it is answered.
+ */
+final class EvaluationBatcher
+{
+	private final RemoteDebugger myDebugger;
+	// by thread id, present while a batch of the thread is waiting for a response
+	private final Map<String, ThreadBatches> myThreads = new HashMap<>();
+
+	EvaluationBatcher(RemoteDebugger debugger)
+	{
+		myDebugger = debugger;
+	}
+
+	PyDebugValue evaluate(String threadId, String frameId, String expression, boolean trimResult) throws PyDebuggerException
+	{
+		CompletableFuture<PyDebugValue> value;
+		GetVariablesCommand command = null;
+		synchronized(myThreads)
+		{
+			ThreadBatches batches = myThreads.get(threadId);
+			if(batches == null)
+			{
+				command = new GetVariablesCommand(myDebugger, threadId);
+				value = command.addExpression(frameId, expression, trimResult);
+				myThreads.put(threadId, new ThreadBatches());
+			}
+			else
+			{
+				if(batches.myNext == null)
+				{
+					batches.myNext = new GetVariablesCommand(myDebugger, threadId);
+				}
+				value = batches.myNext.addExpression(frameId, expression, trimResult);
+			}
+		}
+		if(command != null)
+		{
+			send(threadId, command);
+		}
+
+		try
+		{
+			return value.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PyDebuggerException("Evaluation of " + expression + " interrupted", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			while(cause instanceof CompletionException && cause.getCause() != null)
+			{
+				cause = cause.getCause();
+			}
+			if(cause instanceof PyDebuggerException)
+			{
+				throw (PyDebuggerException) cause;
+			}
+			throw new PyDebuggerException(String.valueOf(cause.getMessage()), cause);
+		}
+	}
+
+	private void send(String threadId, GetVariablesCommand command)
+	{
+		command.executeAsync().whenComplete((result, error) -> {
+			GetVariablesCommand next;
+			synchronized(myThreads)
+			{
+				ThreadBatches batches = myThreads.get(threadId);
+				next = batches.myNext;
+				batches.myNext = null;
+				if(next == null)
+				{
+					myThreads.remove(threadId);
+				}
+			}
+			if(next != null)
+			{
+				send(threadId, next);
+			}
+		});
+	}
+
+	private static final class ThreadBatches
+	{
+		// the expressions requested while a batch is waiting for its response
+		private GetVariablesCommand myNext;
+	}
+}
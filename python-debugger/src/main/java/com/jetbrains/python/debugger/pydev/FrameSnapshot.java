@@ -0,0 +1,53 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+import com.jetbrains.python.debugger.PyDebugValue;
+
+/**
+ * The variables of a frame as loaded by {@link GetFrameDiffCommand}. pydevd remembers a hash of every variable under
+ * the version of the snapshot, so loading the frame again after a step transfers only the variables that changed.
+ * <p>
+ * The values are the parsed ones and are not shown as they are: commands hand out copies, which get temporary names
+ * of their own.
+ */
+final class FrameSnapshot
+{
+	private final int myVersion;
+	private final List<PyDebugValue> myValues;
+	private final Map<String, PyDebugValue> myValuesByName;
+
+	FrameSnapshot(int version, List<PyDebugValue> values)
+	{
+		myVersion = version;
+		myValues = values;
+		myValuesByName = new HashMap<>(values.size() * 4 / 3 + 1);
+		for(PyDebugValue value : values)
+		{
+			// return values are always sent, and may have the names of variables
+			if(!value.isReturnedVal())
+			{
+				myValuesByName.put(value.getName(), value);
+			}
+		}
+	}
+
+	int getVersion()
+	{
+		return myVersion;
+	}
+
+	List<PyDebugValue> getValues()
+	{
+		return myValues;
+	}
+
+	@Nullable
+	PyDebugValue getValue(String name)
+	{
+		return myValuesByName.get(name);
+	}
+}
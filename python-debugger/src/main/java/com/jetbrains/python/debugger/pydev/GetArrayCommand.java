@@ -21,7 +21,15 @@ public class GetArrayCommand extends GetFrameCommand
 
 	public GetArrayCommand(RemoteDebugger debugger, String threadId, String frameId, PyDebugValue var, int rowOffset, int colOffset, int rows, int cols, String format)
 	{
-		super(debugger, GET_ARRAY, threadId, frameId);
+		this(debugger, threadId, frameId, var, rowOffset, colOffset, rows, cols, format, false);
+	}
+
+	/**
+	 * @param binary whether to receive the values by column in the binary format, see {@link ArrayChunk#getDataColumns()}
+	 */
+	public GetArrayCommand(RemoteDebugger debugger, String threadId, String frameId, PyDebugValue var, int rowOffset, int colOffset, int rows, int cols, String format, boolean binary)
+	{
+		super(debugger, binary ? GET_ARRAY_BINARY : GET_ARRAY, threadId, frameId);
 		myVariableName = GetVariableCommand.composeName(var);
 		myRowOffset = rowOffset;
 		myColOffset = colOffset;
@@ -42,7 +42,7 @@ public class GetFrameCommand extends AbstractFrameCommand
 	protected void processResponse(ProtocolFrame response) throws PyDebuggerException
 	{
 		super.processResponse(response);
-		List<PyDebugValue> values = ProtocolParser.parseValues(response.getPayload(), myDebugProcess);
+		List<PyDebugValue> values = parseVariables(response);
 		myFrameVariables = new XValueChildrenList(values.size());
 		for(PyDebugValue value : values)
 		{
@@ -54,6 +54,11 @@ public class GetFrameCommand extends AbstractFrameCommand
 		}
 	}
 
+	protected List<PyDebugValue> parseVariables(ProtocolFrame response) throws PyDebuggerException
+	{
+		return ProtocolParser.parseValues(response.getPayload(), myDebugProcess);
+	}
+
 	protected PyDebugValue extend(PyDebugValue value)
 	{
 		return new PyDebugValue(value.getName(), value.getType(), value.getTypeQualifier(), value.getValue(), value.isContainer(), value.isReturnedVal(), value.isIPythonHidden(), value.isErrorOnEval
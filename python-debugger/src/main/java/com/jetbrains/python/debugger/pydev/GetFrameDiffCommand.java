@@ -0,0 +1,43 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.util.List;
+
+import org.jspecify.annotations.Nullable;
+import com.jetbrains.python.debugger.PyDebugValue;
+import com.jetbrains.python.debugger.PyDebuggerException;
+
+/**
+ * Loads the variables of a frame like {@link GetFrameCommand}, with pydevd sending only the variables that changed
+ * since the given snapshot of the frame. The unchanged ones are taken from the snapshot.
+ */
+public class GetFrameDiffCommand extends GetFrameCommand
+{
+	@Nullable
+	private final FrameSnapshot myBase;
+	private FrameSnapshot mySnapshot;
+
+	GetFrameDiffCommand(RemoteDebugger debugger, String threadId, String frameId, @Nullable FrameSnapshot base)
+	{
+		super(debugger, GET_FRAME_DIFF, threadId, frameId);
+		myBase = base;
+	}
+
+	@Override
+	protected void buildPayload(Payload payload)
+	{
+		super.buildPayload(payload);
+		payload.add(myBase != null ? myBase.getVersion() : 0);
+	}
+
+	@Override
+	protected List<PyDebugValue> parseVariables(ProtocolFrame response) throws PyDebuggerException
+	{
+		mySnapshot = ProtocolParser.parseFrameSnapshot(response.getPayload(), myBase, myDebugProcess);
+		return mySnapshot.getValues();
+	}
+
+	FrameSnapshot getSnapshot()
+	{
+		return mySnapshot;
+	}
+}
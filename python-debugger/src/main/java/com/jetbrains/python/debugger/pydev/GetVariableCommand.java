@@ -1,6 +1,10 @@
 package com.jetbrains.python.debugger.pydev;
 
+import java.util.List;
+
+import com.jetbrains.python.debugger.IPyDebugProcess;
 import com.jetbrains.python.debugger.PyDebugValue;
+import consulo.execution.debug.frame.XValueChildrenList;
 
 
 public class GetVariableCommand extends GetFrameCommand
@@ -62,8 +66,30 @@ public class GetVariableCommand extends GetFrameCommand
 
 	@Override
 	protected PyDebugValue extend(PyDebugValue value)
+	{
+		return extend(value, myParent, myDebugProcess);
+	}
+
+	/**
+	 * Creates the children of the variable from the values loaded by {@link GetVariablesCommand}.
+	 */
+	static XValueChildrenList createChildren(List<PyDebugValue> values, PyDebugValue parent, IPyDebugProcess debugProcess)
+	{
+		XValueChildrenList children = new XValueChildrenList(values.size());
+		for(PyDebugValue value : values)
+		{
+			if(!value.getName().startsWith(RemoteDebugger.TEMP_VAR_PREFIX))
+			{
+				PyDebugValue child = extend(value, parent, debugProcess);
+				children.add(child.getName(), child);
+			}
+		}
+		return children;
+	}
+
+	private static PyDebugValue extend(PyDebugValue value, PyDebugValue parent, IPyDebugProcess debugProcess)
 	{
 		return new PyDebugValue(value.getName(), value.getType(), value.getTypeQualifier(), value.getValue(), value.isContainer(), value.isReturnedVal(), value.isIPythonHidden(), value.isErrorOnEval
-				(), myParent, myDebugProcess);
+				(), parent, debugProcess);
 	}
 }
@@ -0,0 +1,179 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.jetbrains.python.debugger.IPyDebugProcess;
+import com.jetbrains.python.debugger.PyDebugValue;
+import com.jetbrains.python.debugger.PyDebuggerException;
+import consulo.util.lang.Pair;
+
+/**
+ * Loads the children of several variables and evaluates several expressions of a thread in a single frame.
+ * <p>
+ * Every item added to the command gets its own future, completed when the command's response arrives: pydevd replies
+ * with a part per item, in the order the items were added, and a failed item doesn't fail the others.
+ * The children of variables are completed as parsed, without a parent, see {@link GetVariableCommand#createChildren}.
+ */
+public class GetVariablesCommand extends AbstractThreadCommand<Void>
+{
+	private static final String VARIABLE = "VAR";
+	private static final String EXPRESSION = "EXPR";
+
+	private final IPyDebugProcess myDebugProcess;
+	private final List<Item<?>> myItems = new ArrayList<>();
+
+	public GetVariablesCommand(RemoteDebugger debugger, String threadId)
+	{
+		super(debugger, GET_VARIABLES, threadId);
+		myDebugProcess = debugger.getDebugProcess();
+	}
+
+	/**
+	 * Adds loading the children of a variable, like {@link GetVariableCommand} does. Variables with a
+	 * {@link PyVariableLocator} aren't supported.
+	 */
+	public CompletableFuture<List<PyDebugValue>> addVariable(String frameId, PyDebugValue var)
+	{
+		String name = GetVariableCommand.composeName(var);
+		String location = name.contains(GetVariableCommand.BY_ID) ? name : frameId + "\tFRAME\t" + name;
+		Item<List<PyDebugValue>> item = new Item<List<PyDebugValue>>(VARIABLE, location)
+		{
+			@Override
+			protected List<PyDebugValue> convert(List<PyDebugValue> values)
+			{
+				return values;
+			}
+		};
+		myItems.add(item);
+		return item.myResult;
+	}
+
+	/**
+	 * Adds evaluating an expression, like {@link EvaluateCommand} does.
+	 */
+	public CompletableFuture<PyDebugValue> addExpression(String frameId, final String expression, boolean trimResult)
+	{
+		String location = frameId + "\t" + expression.replaceAll("\t", TAB_CHAR) + "\t" + (trimResult ? "1" : "0");
+		Item<PyDebugValue> item = new Item<PyDebugValue>(EXPRESSION, location)
+		{
+			@Override
+			protected PyDebugValue convert(List<PyDebugValue> values) throws PyDebuggerException
+			{
+				if(values.size() != 1)
+				{
+					throw new PyDebuggerException("Expected a single value of " + expression + ", found " + values.size());
+				}
+				return values.get(0).setName(expression);
+			}
+		};
+		myItems.add(item);
+		return item.myResult;
+	}
+
+	public boolean isEmpty()
+	{
+		return myItems.isEmpty();
+	}
+
+	@Override
+	protected void buildPayload(Payload payload)
+	{
+		super.buildPayload(payload);
+		for(Item<?> item : myItems)
+		{
+			payload.add(item.myKind).add(item.myFieldCount).add(item.myFields);
+		}
+	}
+
+	@Override
+	public boolean isResponseExpected()
+	{
+		return true;
+	}
+
+	@Override
+	public void execute() throws PyDebuggerException
+	{
+		try
+		{
+			super.execute();
+		}
+		catch(PyDebuggerException e)
+		{
+			fail(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> executeAsync()
+	{
+		CompletableFuture<Void> result = super.executeAsync();
+		result.whenComplete((value, error) -> {
+			if(error != null)
+			{
+				fail(error);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	protected void processResponse(ProtocolFrame response) throws PyDebuggerException
+	{
+		super.processResponse(response);
+		List<Pair<List<PyDebugValue>, String>> parts = ProtocolParser.parseValueParts(response.getPayload(), myDebugProcess);
+		if(parts.size() != myItems.size())
+		{
+			throw new PyDebuggerException("Expected " + myItems.size() + " parts, found " + parts.size());
+		}
+		for(int i = 0; i < parts.size(); i++)
+		{
+			myItems.get(i).complete(parts.get(i));
+		}
+	}
+
+	private void fail(Throwable error)
+	{
+		for(Item<?> item : myItems)
+		{
+			item.myResult.completeExceptionally(error);
+		}
+	}
+
+	private abstract static class Item<T>
+	{
+		private final String myKind;
+		private final String myFields;
+		private final int myFieldCount;
+		private final CompletableFuture<T> myResult = new CompletableFuture<>();
+
+		private Item(String kind, String fields)
+		{
+			myKind = kind;
+			myFields = fields;
+			myFieldCount = fields.split("\t", -1).length;
+		}
+
+		private void complete(Pair<List<PyDebugValue>, String> part)
+		{
+			if(part.second != null)
+			{
+				myResult.completeExceptionally(new PyDebuggerException(part.second));
+				return;
+			}
+			try
+			{
+				myResult.complete(convert(part.first));
+			}
+			catch(PyDebuggerException e)
+			{
+				myResult.completeExceptionally(e);
+			}
+		}
+
+		protected abstract T convert(List<PyDebugValue> values) throws PyDebuggerException;
+	}
+}
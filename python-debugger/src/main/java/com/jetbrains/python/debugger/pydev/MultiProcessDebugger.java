@@ -1,12 +1,12 @@
 package com.jetbrains.python.debugger.pydev;
 
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.jetbrains.python.console.pydev.PydevCompletionVariant;
 import com.jetbrains.python.debugger.*;
 import consulo.application.Application;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.execution.debug.breakpoint.SuspendPolicy;
 import consulo.execution.debug.frame.XValueChildrenList;
 import consulo.logging.Logger;
@@ -18,6 +18,10 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * @author traff
@@ -31,12 +35,12 @@ public class MultiProcessDebugger implements ProcessDebugger
 	private final int myTimeoutInMillis;
 
 	private RemoteDebugger myMainDebugger;
-	private final List<RemoteDebugger> myOtherDebuggers = Lists.newArrayList();
+	private final List<RemoteDebugger> myOtherDebuggers = new CopyOnWriteArrayList<>();
 	private ServerSocket myDebugServerSocket;
 	private DebuggerProcessAcceptor myDebugProcessAcceptor;
 	private List<DebuggerProcessListener> myOtherDebuggerCloseListener = Lists.newArrayList();
 
-	private ThreadRegistry myThreadRegistry = new ThreadRegistry();
+	private final ThreadRegistry myThreadRegistry = new ThreadRegistry();
 
 	public MultiProcessDebugger(IPyDebugProcess debugProcess, ServerSocket serverSocket, int timeoutInMillis)
 	{
@@ -53,6 +57,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 		{
 		}
 		myMainDebugger = new RemoteDebugger(myDebugProcess, myDebugServerSocket, myTimeoutInMillis);
+		myMainDebugger.addThreadListener(myThreadRegistry);
 	}
 
 	@Override
@@ -134,14 +139,38 @@ public class MultiProcessDebugger implements ProcessDebugger
 		}
 	}
 
-	private List<RemoteDebugger> allDebuggers()
+	private Iterable<RemoteDebugger> allDebuggers()
 	{
-		List<RemoteDebugger> result = Lists.newArrayList(myMainDebugger);
-		synchronized(myOtherDebuggers)
+		return Iterables.concat(Collections.singletonList(myMainDebugger), myOtherDebuggers);
+	}
+
+	/**
+	 * Performs the action for every process in parallel, returning when it is done for all of them: the commands
+	 * sent to a process later must not overtake it.
+	 */
+	private void forAllDebuggers(Consumer<RemoteDebugger> action)
+	{
+		if(myOtherDebuggers.isEmpty())
 		{
-			result.addAll(myOtherDebuggers);
+			action.accept(myMainDebugger);
+			return;
+		}
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for(RemoteDebugger d : allDebuggers())
+		{
+			futures.add(CompletableFuture.runAsync(() -> action.accept(d), AppExecutorUtil.getAppExecutorService()));
+		}
+		for(CompletableFuture<Void> future : futures)
+		{
+			try
+			{
+				future.join();
+			}
+			catch(RuntimeException e)
+			{
+				LOG.error(e);
+			}
 		}
-		return result;
 	}
 
 	@Override
@@ -151,6 +180,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 		{
 			d.disconnect();
 		}
+		myThreadRegistry.clear();
 		disposeAcceptor();
 	}
 
@@ -214,28 +244,8 @@ public class MultiProcessDebugger implements ProcessDebugger
 	private ProcessDebugger debugger(String threadId)
 	{
 		ProcessDebugger debugger = myThreadRegistry.getDebugger(threadId);
-		if(debugger != null)
-		{
-			return debugger;
-		}
-		else
-		{
-			// thread is not found in registry - lets search for it in attached debuggers
-
-			for(ProcessDebugger d : myOtherDebuggers)
-			{
-				for(PyThreadInfo thread : d.getThreads())
-				{
-					if(threadId.equals(thread.getId()))
-					{
-						return d;
-					}
-				}
-			}
-
-			//if not found then return main debugger
-			return myMainDebugger;
-		}
+		//if not found then return main debugger
+		return debugger != null ? debugger : myMainDebugger;
 	}
 
 	@Override
@@ -251,20 +261,77 @@ public class MultiProcessDebugger implements ProcessDebugger
 	}
 
 
-	private static class ThreadRegistry
+	/**
+	 * The threads of all the processes, kept up to date from the thread events of their debuggers. Lookups don't lock,
+	 * and the list of threads is an immutable snapshot replaced on every change, so reading it doesn't copy.
+	 */
+	private static class ThreadRegistry implements RemoteDebuggerThreadListener
 	{
-		private Map<String, RemoteDebugger> myThreadIdToDebugger = Maps.newHashMap();
+		private final Map<String, RemoteDebugger> myThreadIdToDebugger = new ConcurrentHashMap<>();
+		// guarded by this, in the order the threads were created
+		private final Map<String, PyThreadInfo> myThreads = new LinkedHashMap<>();
+		private volatile List<PyThreadInfo> myThreadsSnapshot = Collections.emptyList();
+
+		@Override
+		public synchronized void threadCreated(RemoteDebugger debugger, PyThreadInfo thread)
+		{
+			myThreadIdToDebugger.put(thread.getId(), debugger);
+			myThreads.put(thread.getId(), thread);
+			updateSnapshot();
+		}
+
+		@Override
+		public synchronized void threadKilled(RemoteDebugger debugger, String threadId)
+		{
+			if(myThreadIdToDebugger.remove(threadId, debugger))
+			{
+				myThreads.remove(threadId);
+				updateSnapshot();
+			}
+		}
 
-		public void register(String id, RemoteDebugger debugger)
+		/**
+		 * @return the ids of the threads of the debugger that are no longer registered
+		 */
+		public synchronized Set<String> unregister(RemoteDebugger debugger)
 		{
-			myThreadIdToDebugger.put(id, debugger);
+			Set<String> result = new HashSet<>();
+			for(Map.Entry<String, RemoteDebugger> entry : myThreadIdToDebugger.entrySet())
+			{
+				if(entry.getValue() == debugger)
+				{
+					result.add(entry.getKey());
+				}
+			}
+			myThreadIdToDebugger.keySet().removeAll(result);
+			myThreads.keySet().removeAll(result);
+			updateSnapshot();
+			return result;
+		}
+
+		public synchronized void clear()
+		{
+			myThreadIdToDebugger.clear();
+			myThreads.clear();
+			updateSnapshot();
 		}
 
+		@Nullable
 		public RemoteDebugger getDebugger(String threadId)
 		{
 			return myThreadIdToDebugger.get(threadId);
 		}
 
+		public List<PyThreadInfo> getThreads()
+		{
+			return myThreadsSnapshot;
+		}
+
+		private void updateSnapshot()
+		{
+			myThreadsSnapshot = Collections.unmodifiableList(new ArrayList<>(myThreads.values()));
+		}
+
 		public static String threadName(String name, String id)
 		{
 			int indx = id.indexOf("_", id.indexOf("_") + 1);
@@ -280,9 +347,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 	@Override
 	public Collection<PyThreadInfo> getThreads()
 	{
-		cleanOtherDebuggers();
-
-		List<PyThreadInfo> threads = collectAllThreads();
+		List<PyThreadInfo> threads = myThreadRegistry.getThreads();
 
 		if(myOtherDebuggers.size() > 0)
 		{
@@ -296,73 +361,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 		}
 		else
 		{
-			return Collections.unmodifiableCollection(threads);
-		}
-	}
-
-	private List<PyThreadInfo> collectAllThreads()
-	{
-		List<PyThreadInfo> result = Lists.newArrayList();
-
-		result.addAll(myMainDebugger.getThreads());
-
-		//collect threads and add them to registry to faster access
-		//we don't register mainDebugger as it is default if there is no mapping
-		for(RemoteDebugger d : myOtherDebuggers)
-		{
-			result.addAll(d.getThreads());
-			for(PyThreadInfo t : d.getThreads())
-			{
-				myThreadRegistry.register(t.getId(), d);
-			}
-		}
-
-		return result;
-	}
-
-
-	private void cleanOtherDebuggers()
-	{
-		synchronized(myOtherDebuggers)
-		{
-			removeDisconnected(getOtherDebuggers());
-		}
-	}
-
-	private void removeDisconnected(ArrayList<RemoteDebugger> debuggers)
-	{
-		boolean allConnected = true;
-		for(RemoteDebugger d : debuggers)
-		{
-			if(!d.isConnected())
-			{
-				allConnected = false;
-			}
-		}
-		if(!allConnected)
-		{
-			List<RemoteDebugger> newList = Lists.newArrayList();
-			for(RemoteDebugger d : debuggers)
-			{
-				if(d.isConnected())
-				{
-					newList.add(d);
-				}
-			}
-
-			synchronized(myOtherDebuggers)
-			{
-				myOtherDebuggers.clear();
-				myOtherDebuggers.addAll(newList);
-			}
-		}
-	}
-
-	private ArrayList<RemoteDebugger> getOtherDebuggers()
-	{
-		synchronized(myOtherDebuggers)
-		{
-			return Lists.newArrayList(myOtherDebuggers);
+			return threads;
 		}
 	}
 
@@ -379,10 +378,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 	@Override
 	public void suspendAllThreads()
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.suspendAllThreads();
-		}
+		forAllDebuggers(d -> d.suspendAllThreads());
 	}
 
 	@Override
@@ -412,19 +408,13 @@ public class MultiProcessDebugger implements ProcessDebugger
 	@Override
 	public void setTempBreakpoint(String type, String file, int line)
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.setTempBreakpoint(type, file, line);
-		}
+		forAllDebuggers(d -> d.setTempBreakpoint(type, file, line));
 	}
 
 	@Override
 	public void removeTempBreakpoint(String file, int line)
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.removeTempBreakpoint(file, line);
-		}
+		forAllDebuggers(d -> d.removeTempBreakpoint(file, line));
 	}
 
 	@Override
@@ -436,28 +426,19 @@ public class MultiProcessDebugger implements ProcessDebugger
 			@Nullable String funcName,
 			SuspendPolicy policy)
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.setBreakpoint(typeId, file, line, condition, logExpression, funcName, policy);
-		}
+		forAllDebuggers(d -> d.setBreakpoint(typeId, file, line, condition, logExpression, funcName, policy));
 	}
 
 	@Override
 	public void removeBreakpoint(String typeId, String file, int line)
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.removeBreakpoint(typeId, file, line);
-		}
+		forAllDebuggers(d -> d.removeBreakpoint(typeId, file, line));
 	}
 
 	@Override
 	public void setShowReturnValues(boolean isShowReturnValues)
 	{
-		for(ProcessDebugger d : allDebuggers())
-		{
-			d.setShowReturnValues(isShowReturnValues);
-		}
+		forAllDebuggers(d -> d.setShowReturnValues(isShowReturnValues));
 	}
 
 	private static class DebuggerProcessAcceptor implements Runnable
@@ -491,6 +472,7 @@ public class MultiProcessDebugger implements ProcessDebugger
 						ServerSocket serverSocket = createServerSocket();
 						RemoteDebugger debugger = new RemoteDebugger(myMultiProcessDebugger.myDebugProcess, serverSocket, myMultiProcessDebugger.myTimeoutInMillis);
 						addCloseListener(debugger);
+						debugger.addThreadListener(myMultiProcessDebugger.myThreadRegistry);
 						sendDebuggerPort(socket, serverSocket, myMultiProcessDebugger.myDebugProcess);
 						socket.close();
 						debugger.waitForConnect();
@@ -548,25 +530,13 @@ public class MultiProcessDebugger implements ProcessDebugger
 
 		private void notifyThreadsClosed(RemoteDebugger debugger)
 		{
+			Set<String> threadIds = myMultiProcessDebugger.removeDebugger(debugger);
 			for(DebuggerProcessListener l : myMultiProcessDebugger.myOtherDebuggerCloseListener)
 			{
-				l.threadsClosed(collectThreads(debugger));
+				l.threadsClosed(threadIds);
 			}
 		}
 
-		private Set<String> collectThreads(RemoteDebugger debugger)
-		{
-			Set<String> result = Sets.newHashSet();
-			for(Map.Entry<String, RemoteDebugger> entry : myMultiProcessDebugger.myThreadRegistry.myThreadIdToDebugger.entrySet())
-			{
-				if(entry.getValue() == debugger)
-				{
-					result.add(entry.getKey());
-				}
-			}
-			return result;
-		}
-
 		public void disconnect()
 		{
 			myShouldAccept = false;
@@ -586,10 +556,16 @@ public class MultiProcessDebugger implements ProcessDebugger
 
 	private void addDebugger(RemoteDebugger debugger)
 	{
-		synchronized(myOtherDebuggers)
-		{
-			myOtherDebuggers.add(debugger);
-		}
+		myOtherDebuggers.add(debugger);
+	}
+
+	/**
+	 * @return the ids of the threads of the closed process
+	 */
+	private Set<String> removeDebugger(RemoteDebugger debugger)
+	{
+		myOtherDebuggers.remove(debugger);
+		return myThreadRegistry.unregister(debugger);
 	}
 
 	@Override
@@ -613,29 +589,20 @@ public class MultiProcessDebugger implements ProcessDebugger
 	@Override
 	public void addExceptionBreakpoint(ExceptionBreakpointCommandFactory factory)
 	{
-		for(RemoteDebugger d : allDebuggers())
-		{
-			d.execute(factory.createAddCommand(d));
-		}
+		forAllDebuggers(d -> d.execute(factory.createAddCommand(d)));
 	}
 
 	@Override
 	public void removeExceptionBreakpoint(ExceptionBreakpointCommandFactory factory)
 	{
-		for(RemoteDebugger d : allDebuggers())
-		{
-			d.execute(factory.createRemoveCommand(d));
-		}
+		forAllDebuggers(d -> d.execute(factory.createRemoveCommand(d)));
 	}
 
 	@Override
 	public void suspendOtherThreads(PyThreadInfo thread)
 	{
-		for(RemoteDebugger d : allDebuggers())
-		{
-			// we should notify the debugger in each process about suspending all threads
-			d.suspendOtherThreads(thread);
-		}
+		// we should notify the debugger in each process about suspending all threads
+		forAllDebuggers(d -> d.suspendOtherThreads(thread));
 	}
 
 	public void removeCloseListener(RemoteDebuggerCloseListener listener)
@@ -0,0 +1,137 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.jetbrains.python.debugger.PyDebuggerException;
+
+/**
+ * Decodes the percent-escapes of pydevd, like {@link java.net.URLDecoder} does for UTF-8, optionally unescaping XML entities
+ * in the same pass. Text without escapes is returned as is; the buffers are reused by subsequent calls.
+ * Not thread-safe.
+ */
+final class ProtocolDecoder
+{
+	private final StringBuilder myBuilder = new StringBuilder();
+	private byte[] myBytes = new byte[16];
+
+	String decode(CharSequence text, int start, int end, boolean unescapeXml) throws PyDebuggerException
+	{
+		int escape = findEscape(text, start, end, unescapeXml);
+		if(escape < 0)
+		{
+			return text.subSequence(start, end).toString();
+		}
+		StringBuilder builder = myBuilder;
+		builder.setLength(0);
+		builder.append(text, start, escape);
+		int i = escape;
+		while(i < end)
+		{
+			char c = text.charAt(i);
+			if(c == '%')
+			{
+				// a run of escapes is a UTF-8 sequence
+				int count = 0;
+				while(i < end && text.charAt(i) == '%')
+				{
+					if(i + 2 >= end)
+					{
+						throw new PyDebuggerException("Unable to decode: " + text.subSequence(start, end) + ", reason: incomplete escape");
+					}
+					int high = Character.digit(text.charAt(i + 1), 16);
+					int low = Character.digit(text.charAt(i + 2), 16);
+					if(high < 0 || low < 0)
+					{
+						throw new PyDebuggerException("Unable to decode: " + text.subSequence(start, end) + ", reason: illegal escape");
+					}
+					if(count == myBytes.length)
+					{
+						myBytes = Arrays.copyOf(myBytes, 2 * count);
+					}
+					myBytes[count++] = (byte) ((high << 4) + low);
+					i += 3;
+				}
+				builder.append(new String(myBytes, 0, count, StandardCharsets.UTF_8));
+			}
+			else if(c == '+')
+			{
+				builder.append(' ');
+				i++;
+			}
+			else if(c == '&' && unescapeXml)
+			{
+				i = appendEntity(text, i, end, builder);
+			}
+			else
+			{
+				builder.append(c);
+				i++;
+			}
+		}
+		return builder.toString();
+	}
+
+	private static int findEscape(CharSequence text, int start, int end, boolean unescapeXml)
+	{
+		for(int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+			if(c == '%' || c == '+' || c == '&' && unescapeXml)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the offset after the entity starting at the given offset
+	 */
+	private static int appendEntity(CharSequence text, int offset, int end, StringBuilder builder) throws PyDebuggerException
+	{
+		int semicolon = offset + 1;
+		while(semicolon < end && text.charAt(semicolon) != ';')
+		{
+			semicolon++;
+		}
+		if(semicolon == end)
+		{
+			throw new PyDebuggerException("Unterminated entity: " + text.subSequence(offset, end));
+		}
+		String entity = text.subSequence(offset + 1, semicolon).toString();
+		switch(entity)
+		{
+			case "lt":
+				builder.append('<');
+				break;
+			case "gt":
+				builder.append('>');
+				break;
+			case "amp":
+				builder.append('&');
+				break;
+			case "quot":
+				builder.append('"');
+				break;
+			case "apos":
+				builder.append('\'');
+				break;
+			default:
+				if(!entity.startsWith("#"))
+				{
+					throw new PyDebuggerException("Unknown entity: " + entity);
+				}
+				try
+				{
+					int codePoint = entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+					builder.appendCodePoint(codePoint);
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new PyDebuggerException("Unknown entity: " + entity);
+				}
+		}
+		return semicolon + 1;
+	}
+}
@@ -1,6 +1,7 @@
 package com.jetbrains.python.debugger.pydev;
 
 import com.jetbrains.python.debugger.PyDebuggerException;
+import consulo.util.lang.StringUtil;
 
 import java.io.UnsupportedEncodingException;
 
@@ -18,15 +19,22 @@ public class ProtocolFrame {
     myPayload = payload;
   }
 
-  public ProtocolFrame(String frame) throws PyDebuggerException {
-    String[] parts = frame.split("\t", 3);
-    if (parts == null || parts.length < 2) {
+  /**
+   * Parses a received frame in place: only the payload is decoded out of it, so the frame may be a view of the reader's buffer.
+   */
+  public ProtocolFrame(CharSequence frame) throws PyDebuggerException {
+    int commandEnd = StringUtil.indexOf(frame, '\t');
+    if (commandEnd < 0) {
       throw new PyDebuggerException("Bad frame: " + frame);
     }
+    int sequenceEnd = StringUtil.indexOf(frame, '\t', commandEnd + 1);
+    if (sequenceEnd < 0) {
+      sequenceEnd = frame.length();
+    }
 
-    myCommand = Integer.parseInt(parts[0]);
-    mySequence = Integer.parseInt(parts[1]);
-    myPayload = (parts.length == 3 && !"".equals(parts[2]) ? ProtocolParser.decode(parts[2]) : "");
+    myCommand = Integer.parseInt(frame, 0, commandEnd, 10);
+    mySequence = Integer.parseInt(frame, commandEnd + 1, sequenceEnd, 10);
+    myPayload = sequenceEnd + 1 < frame.length() ? new ProtocolDecoder().decode(frame, sequenceEnd + 1, frame.length(), false) : "";
   }
 
   public int getCommand() {
@@ -1,15 +1,19 @@
 package com.jetbrains.python.debugger.pydev;
 
 import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 
 
 import org.jetbrains.annotations.Contract;
+import org.jspecify.annotations.Nullable;
 import org.xmlpull.mxp1.MXParser;
 import com.google.common.collect.Lists;
+import consulo.util.lang.Pair;
 import consulo.util.lang.StringUtil;
 import com.jetbrains.python.debugger.*;
 import com.thoughtworks.xstream.io.naming.NoNameCoder;
@@ -166,14 +170,7 @@ public class ProtocolParser
 
 	public static String decode(String value) throws PyDebuggerException
 	{
-		try
-		{
-			return URLDecoder.decode(value, "UTF-8");
-		}
-		catch(UnsupportedEncodingException e)
-		{
-			throw new PyDebuggerException("Unable to decode: " + value + ", reason: " + e.getMessage());
-		}
+		return new ProtocolDecoder().decode(value, 0, value.length(), false);
 	}
 
 	public static String encodeExpression(String expression)
@@ -245,8 +242,11 @@ public class ProtocolParser
 
 	public static PyDebugValue parseValue(String text, PyFrameAccessor frameAccessor) throws PyDebuggerException
 	{
-		XppReader reader = openReader(text, true);
-		reader.moveDown();
+		ProtocolXmlReader reader = new ProtocolXmlReader(text);
+		if(!reader.next() || !reader.next() || reader.isEndTag())
+		{
+			throw new PyDebuggerException("Empty frame: " + text);
+		}
 		return parseValue(reader, frameAccessor);
 	}
 
@@ -282,19 +282,110 @@ public class ProtocolParser
 
 	public static List<PyDebugValue> parseValues(String text, PyFrameAccessor frameAccessor) throws PyDebuggerException
 	{
-		List<PyDebugValue> values = new LinkedList<>();
+		List<PyDebugValue> values = new ArrayList<>();
 
-		XppReader reader = openReader(text, false);
-		while(reader.hasMoreChildren())
+		ProtocolXmlReader reader = new ProtocolXmlReader(text);
+		if(reader.next())
 		{
-			reader.moveDown();
-			values.add(parseValue(reader, frameAccessor));
-			reader.moveUp();
+			parseChildValues(reader, frameAccessor, values);
 		}
 
 		return values;
 	}
 
+	/**
+	 * Parses the {@code <var>} children of the current element up to its end tag.
+	 */
+	private static void parseChildValues(ProtocolXmlReader reader, PyFrameAccessor frameAccessor, List<PyDebugValue> values) throws PyDebuggerException
+	{
+		while(reader.next() && !reader.isEndTag())
+		{
+			values.add(parseValue(reader, frameAccessor));
+			reader.skipElement();
+		}
+	}
+
+	/**
+	 * Parses a reply of {@link GetFrameDiffCommand}: a {@code <frame>} element with the version of the snapshot and
+	 * the version it is based on, followed by the variables, where {@code <same name="...">} stands for the variable
+	 * of the base snapshot. The base version is 0 if all the variables are sent.
+	 */
+	static FrameSnapshot parseFrameSnapshot(String text, @Nullable FrameSnapshot base, PyFrameAccessor frameAccessor) throws PyDebuggerException
+	{
+		ProtocolXmlReader reader = new ProtocolXmlReader(text);
+		if(!reader.next() || !reader.next() || !"frame".equals(reader.getName()))
+		{
+			throw new PyDebuggerException("Expected <frame>: " + text);
+		}
+		int version = readInt(reader, "version");
+		int baseVersion = readInt(reader, "base", 0);
+		if(baseVersion != 0 && (base == null || base.getVersion() != baseVersion))
+		{
+			throw new PyDebuggerException("Unexpected base version of frame: " + baseVersion);
+		}
+		reader.skipElement();
+
+		List<PyDebugValue> values = new ArrayList<>();
+		while(reader.next() && !reader.isEndTag())
+		{
+			if("same".equals(reader.getName()))
+			{
+				String name = readString(reader, "name", null);
+				PyDebugValue value = base != null ? base.getValue(name) : null;
+				if(value == null)
+				{
+					throw new PyDebuggerException("Variable not found in version " + baseVersion + " of frame: " + name);
+				}
+				values.add(value);
+			}
+			else
+			{
+				values.add(parseValue(reader, frameAccessor));
+			}
+			reader.skipElement();
+		}
+
+		return new FrameSnapshot(version, values);
+	}
+
+	/**
+	 * Parses a reply of {@link GetVariablesCommand}: {@code <part>} elements with the values of an item each,
+	 * or with an {@code error} attribute if the item failed.
+	 *
+	 * @return a pair of the values and the error of every part, only one of them is not null
+	 */
+	public static List<Pair<List<PyDebugValue>, String>> parseValueParts(String text, PyFrameAccessor frameAccessor) throws PyDebuggerException
+	{
+		List<Pair<List<PyDebugValue>, String>> parts = new ArrayList<>();
+
+		ProtocolXmlReader reader = new ProtocolXmlReader(text);
+		if(!reader.next())
+		{
+			return parts;
+		}
+		while(reader.next() && !reader.isEndTag())
+		{
+			if(!"part".equals(reader.getName()))
+			{
+				throw new PyDebuggerException("Expected <part>, found " + reader.getName());
+			}
+			String error = reader.getAttribute("error");
+			if(error != null)
+			{
+				parts.add(Pair.create(null, error));
+				reader.skipElement();
+			}
+			else
+			{
+				List<PyDebugValue> values = new ArrayList<>();
+				parseChildValues(reader, frameAccessor, values);
+				parts.add(Pair.create(values, null));
+			}
+		}
+
+		return parts;
+	}
+
 	private static PyDebugValue parseValue(XppReader reader, PyFrameAccessor frameAccessor) throws PyDebuggerException
 	{
 		if(!"var".equals(reader.getNodeName()))
@@ -312,6 +403,39 @@ public class ProtocolParser
 		String isIPythonHidden = readString(reader, "isIPythonHidden", "");
 		String isErrorOnEval = readString(reader, "isErrorOnEval", "");
 
+		return createValue(name, type, qualifier, value, isContainer, isReturnedValue, isIPythonHidden, isErrorOnEval, frameAccessor);
+	}
+
+	private static PyDebugValue parseValue(ProtocolXmlReader reader, PyFrameAccessor frameAccessor) throws PyDebuggerException
+	{
+		if(!"var".equals(reader.getName()))
+		{
+			throw new PyDebuggerException("Expected <var>, found " + reader.getName());
+		}
+
+		String name = readString(reader, "name", null);
+		String type = readString(reader, "type", null);
+		String qualifier = readString(reader, "qualifier", ""); //to be able to get the fully qualified type if necessary
+
+		String value = readString(reader, "value", null);
+		String isContainer = readString(reader, "isContainer", "");
+		String isReturnedValue = readString(reader, "isRetVal", "");
+		String isIPythonHidden = readString(reader, "isIPythonHidden", "");
+		String isErrorOnEval = readString(reader, "isErrorOnEval", "");
+
+		return createValue(name, type, qualifier, value, isContainer, isReturnedValue, isIPythonHidden, isErrorOnEval, frameAccessor);
+	}
+
+	private static PyDebugValue createValue(String name,
+			String type,
+			String qualifier,
+			String value,
+			String isContainer,
+			String isReturnedValue,
+			String isIPythonHidden,
+			String isErrorOnEval,
+			PyFrameAccessor frameAccessor)
+	{
 		if(value.startsWith(type + ": "))
 		{  // drop unneeded prefix
 			value = value.substring(type.length() + 2);
@@ -347,8 +471,34 @@ public class ProtocolParser
 			parseArrayHeaderData(reader, result);
 		}
 
-		Object[][] data = parseArrayValues(reader, frameAccessor);
-		result.setData(data);
+		int rows = -1;
+		int cols = -1;
+		boolean binary = false;
+		if(reader.hasMoreChildren())
+		{
+			reader.moveDown();
+			if(!"arraydata".equals(reader.getNodeName()))
+			{
+				throw new PyDebuggerException("Expected <arraydata> at second node, found " + reader.getNodeName());
+			}
+			rows = readInt(reader, "rows", null);
+			cols = readInt(reader, "cols", null);
+			binary = "binary".equals(reader.getAttribute("encoding"));
+			reader.moveUp();
+		}
+
+		if(rows <= 0 || cols <= 0)
+		{
+			throw new PyDebuggerException("Array xml: bad rows or columns number: (" + rows + ", " + cols + ")");
+		}
+		if(binary)
+		{
+			result.setDataColumns(parseArrayColumns(reader, rows, cols));
+		}
+		else
+		{
+			result.setData(parseArrayValues(reader, rows, cols, frameAccessor));
+		}
 		return result.createArrayChunk();
 	}
 
@@ -380,26 +530,8 @@ public class ProtocolParser
 		reader.moveUp();
 	}
 
-	public static Object[][] parseArrayValues(XppReader reader, PyFrameAccessor frameAccessor) throws PyDebuggerException
+	private static Object[][] parseArrayValues(XppReader reader, int rows, int cols, PyFrameAccessor frameAccessor) throws PyDebuggerException
 	{
-		int rows = -1;
-		int cols = -1;
-		if(reader.hasMoreChildren())
-		{
-			reader.moveDown();
-			if(!"arraydata".equals(reader.getNodeName()))
-			{
-				throw new PyDebuggerException("Expected <arraydata> at second node, found " + reader.getNodeName());
-			}
-			rows = readInt(reader, "rows", null);
-			cols = readInt(reader, "cols", null);
-			reader.moveUp();
-		}
-
-		if(rows <= 0 || cols <= 0)
-		{
-			throw new PyDebuggerException("Array xml: bad rows or columns number: (" + rows + ", " + cols + ")");
-		}
 		Object[][] values = new Object[rows][cols];
 
 		int currRow = 0;
@@ -437,6 +569,93 @@ public class ProtocolParser
 		return values;
 	}
 
+	/**
+	 * Parses the columns of the binary format written by {@code binary_column_to_xml} of pydevd: base64 encoded
+	 * little-endian float64, int64 or byte values, or int32 indices into the {@code <item>}s of the column.
+	 */
+	private static List<ArrayChunkColumn> parseArrayColumns(XppReader reader, int rows, int cols) throws PyDebuggerException
+	{
+		List<ArrayChunkColumn> columns = new ArrayList<>(cols);
+		while(reader.hasMoreChildren())
+		{
+			reader.moveDown();
+			if(!"column".equals(reader.getNodeName()))
+			{
+				throw new PyDebuggerException("Expected <column>, found " + reader.getNodeName());
+			}
+			String type = readString(reader, "type", null);
+			String format = readString(reader, "format", null);
+			// base64 has no characters escaped by pydevd, and '+' mustn't be decoded as a space
+			String data = reader.getAttribute("data");
+			if(data == null)
+			{
+				throw new PyDebuggerException("Attribute not found: data");
+			}
+			ByteBuffer buffer;
+			try
+			{
+				buffer = ByteBuffer.wrap(Base64.getDecoder().decode(data)).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			catch(IllegalArgumentException e)
+			{
+				throw new PyDebuggerException("Unable to decode column data: " + e.getMessage());
+			}
+			int size = "b".equals(type) ? buffer.remaining() : buffer.remaining() / ("s".equals(type) ? Integer.BYTES : Long.BYTES);
+			if(size != rows)
+			{
+				throw new PyDebuggerException("Array xml: expected " + rows + " rows in column " + columns.size() + ", got " + size + " instead.");
+			}
+			switch(type)
+			{
+				case "f":
+					double[] doubles = new double[size];
+					buffer.asDoubleBuffer().get(doubles);
+					columns.add(ArrayChunkColumn.ofDoubles(doubles, format));
+					break;
+				case "i":
+					long[] longs = new long[size];
+					buffer.asLongBuffer().get(longs);
+					columns.add(ArrayChunkColumn.ofLongs(longs, format));
+					break;
+				case "b":
+					boolean[] booleans = new boolean[size];
+					for(int i = 0; i < size; i++)
+					{
+						booleans[i] = buffer.get(i) != 0;
+					}
+					columns.add(ArrayChunkColumn.ofBooleans(booleans));
+					break;
+				case "s":
+					int[] indices = new int[size];
+					buffer.asIntBuffer().get(indices);
+					List<String> dictionary = new ArrayList<>();
+					while(reader.hasMoreChildren())
+					{
+						reader.moveDown();
+						dictionary.add(readString(reader, "value", null));
+						reader.moveUp();
+					}
+					for(int index : indices)
+					{
+						if(index < 0 || index >= dictionary.size())
+						{
+							throw new PyDebuggerException("Array xml: bad item index " + index + " in column " + columns.size());
+						}
+					}
+					columns.add(ArrayChunkColumn.ofStrings(indices, dictionary.toArray(new String[0])));
+					break;
+				default:
+					throw new PyDebuggerException("Array xml: unknown column type " + type);
+			}
+			reader.moveUp();
+		}
+		if(columns.size() != cols)
+		{
+			throw new PyDebuggerException("Array xml: expected " + cols + " columns, got " + columns.size() + " instead.");
+		}
+		return columns;
+	}
+
 	private static XppReader openReader(String text, boolean checkForContent) throws PyDebuggerException
 	{
 		XppReader reader = new XppReader(new StringReader(text), new MXParser(), new NoNameCoder());
@@ -453,6 +672,16 @@ public class ProtocolParser
 		return value == null ? fallback : value;
 	}
 
+	private static String readString(ProtocolXmlReader reader, String name, String fallback) throws PyDebuggerException
+	{
+		String value = reader.getAttribute(name);
+		if(value == null && fallback == null)
+		{
+			throw new PyDebuggerException("Attribute not found: " + name);
+		}
+		return value == null ? fallback : value;
+	}
+
 	private static int readInt(XppReader reader, String name, Integer fallback) throws PyDebuggerException
 	{
 		String value = read(reader, name, fallback == null);
@@ -470,6 +699,29 @@ public class ProtocolParser
 		}
 	}
 
+	private static int readInt(ProtocolXmlReader reader, String name) throws PyDebuggerException
+	{
+		return parseInt(readString(reader, name, null));
+	}
+
+	private static int readInt(ProtocolXmlReader reader, String name, int fallback) throws PyDebuggerException
+	{
+		String value = reader.getAttribute(name);
+		return value == null ? fallback : parseInt(value);
+	}
+
+	private static int parseInt(String value) throws PyDebuggerException
+	{
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new PyDebuggerException("Unable to decode " + value + ": " + e.getMessage());
+		}
+	}
+
 	@Contract("_, _, true -> !null")
 	private static String read(XppReader reader, String name, boolean isRequired) throws PyDebuggerException
 	{
@@ -0,0 +1,195 @@
+package com.jetbrains.python.debugger.pydev;
+
+import java.util.Arrays;
+
+import org.jspecify.annotations.Nullable;
+import com.jetbrains.python.debugger.PyDebuggerException;
+
+/**
+ * A pull parser of the XML written by pydevd, e.g. {@code <xml><var name="..." value="..." /></xml>}: elements with
+ * attributes only, the text between tags is skipped.
+ * <p>
+ * Attribute values are only located when a tag is read. They are decoded when asked for, unescaping XML entities
+ * and percent-escapes in one pass, so attributes nobody reads cost nothing. Not thread-safe.
+ */
+final class ProtocolXmlReader
+{
+	private final String myText;
+	private final ProtocolDecoder myDecoder = new ProtocolDecoder();
+	private int myOffset;
+
+	private String myName;
+	private boolean myEndTag;
+	private boolean myEmptyElement;
+	// name start, name end, value start and value end of every attribute of the current tag
+	private int[] myAttributes = new int[4 * 10];
+	private int myAttributeCount;
+
+	ProtocolXmlReader(String text)
+	{
+		myText = text;
+	}
+
+	/**
+	 * Moves to the next start or end tag. An empty element {@code <a/>} is a start tag followed by an end tag.
+	 *
+	 * @return false if there are no more tags
+	 */
+	boolean next() throws PyDebuggerException
+	{
+		if(myEmptyElement)
+		{
+			myEmptyElement = false;
+			myEndTag = true;
+			myAttributeCount = 0;
+			return true;
+		}
+		while(true)
+		{
+			int start = myText.indexOf('<', myOffset);
+			if(start < 0)
+			{
+				myOffset = myText.length();
+				return false;
+			}
+			char first = charAt(start + 1);
+			if(first == '?' || first == '!')
+			{
+				myOffset = indexOf('>', start) + 1;
+				continue;
+			}
+			myEndTag = first == '/';
+			myAttributeCount = 0;
+			int nameStart = myEndTag ? start + 2 : start + 1;
+			int i = nameStart;
+			while(i < myText.length() && !isNameEnd(myText.charAt(i)))
+			{
+				i++;
+			}
+			myName = myText.substring(nameStart, i);
+			myOffset = myEndTag ? indexOf('>', i) + 1 : readAttributes(i);
+			return true;
+		}
+	}
+
+	boolean isEndTag()
+	{
+		return myEndTag;
+	}
+
+	String getName()
+	{
+		return myName;
+	}
+
+	/**
+	 * @return the decoded value of the attribute of the current start tag, or null if there is no such attribute
+	 */
+	@Nullable
+	String getAttribute(String name) throws PyDebuggerException
+	{
+		for(int i = 0; i < myAttributeCount; i++)
+		{
+			int nameStart = myAttributes[4 * i];
+			int nameEnd = myAttributes[4 * i + 1];
+			if(nameEnd - nameStart == name.length() && myText.startsWith(name, nameStart))
+			{
+				return myDecoder.decode(myText, myAttributes[4 * i + 2], myAttributes[4 * i + 3], true);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Skips the children of the current start tag, moving to its end tag.
+	 */
+	void skipElement() throws PyDebuggerException
+	{
+		int depth = 1;
+		while(depth > 0 && next())
+		{
+			depth += myEndTag ? -1 : 1;
+		}
+	}
+
+	private int readAttributes(int offset) throws PyDebuggerException
+	{
+		int i = offset;
+		while(true)
+		{
+			i = skipWhitespace(i);
+			char c = charAt(i);
+			if(c == '>')
+			{
+				return i + 1;
+			}
+			if(c == '/')
+			{
+				myEmptyElement = true;
+				return indexOf('>', i) + 1;
+			}
+			int nameStart = i;
+			while(i < myText.length() && myText.charAt(i) != '=' && !isNameEnd(myText.charAt(i)))
+			{
+				i++;
+			}
+			int nameEnd = i;
+			i = skipWhitespace(i);
+			if(charAt(i) != '=')
+			{
+				throw new PyDebuggerException("Expected '=' after attribute " + myText.substring(nameStart, nameEnd) + " of <" + myName + ">");
+			}
+			i = skipWhitespace(i + 1);
+			char quote = charAt(i);
+			if(quote != '"' && quote != '\'')
+			{
+				throw new PyDebuggerException("Expected quoted value of attribute " + myText.substring(nameStart, nameEnd) + " of <" + myName + ">");
+			}
+			int valueEnd = indexOf(quote, i + 1);
+			if(4 * myAttributeCount == myAttributes.length)
+			{
+				myAttributes = Arrays.copyOf(myAttributes, 2 * myAttributes.length);
+			}
+			int index = 4 * myAttributeCount++;
+			myAttributes[index] = nameStart;
+			myAttributes[index + 1] = nameEnd;
+			myAttributes[index + 2] = i + 1;
+			myAttributes[index + 3] = valueEnd;
+			i = valueEnd + 1;
+		}
+	}
+
+	private int skipWhitespace(int offset)
+	{
+		int i = offset;
+		while(i < myText.length() && Character.isWhitespace(myText.charAt(i)))
+		{
+			i++;
+		}
+		return i;
+	}
+
+	private int indexOf(char c, int offset) throws PyDebuggerException
+	{
+		int index = myText.indexOf(c, offset);
+		if(index < 0)
+		{
+			throw new PyDebuggerException("Unexpected end of frame, expected '" + c + "': " + myText);
+		}
+		return index;
+	}
+
+	private char charAt(int offset) throws PyDebuggerException
+	{
+		if(offset >= myText.length())
+		{
+			throw new PyDebuggerException("Unexpected end of frame: " + myText);
+		}
+		return myText.charAt(offset);
+	}
+
+	private static boolean isNameEnd(char c)
+	{
+		return c == '>' || c == '/' || Character.isWhitespace(c);
+	}
+}
@@ -24,7 +24,12 @@ import org.jspecify.annotations.Nullable;
 import java.net.ServerSocket;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.jetbrains.python.debugger.pydev.transport.BaseDebuggerTransport.logFrame;
 
@@ -35,6 +40,12 @@ public class RemoteDebugger implements ProcessDebugger
 
 	private static final Logger LOG = Logger.getInstance("#com.jetbrains.python.pydev.remote.RemoteDebugger");
 
+	// the children of at most this many small containers are loaded in advance with the container itself
+	private static final int MAX_PREFETCHED_CONTAINERS = 10;
+	private static final int MAX_PREFETCHED_VALUE_LENGTH = 200;
+	// pydevd keeps as many, see FrameSnapshots in pydevd_comm.py
+	private static final int MAX_FRAME_SNAPSHOTS = 64;
+
 	private static final String LOCAL_VERSION = "0.1";
 	public static final String TEMP_VAR_PREFIX = "__py_debug_temp_var_";
 
@@ -45,15 +56,34 @@ public class RemoteDebugger implements ProcessDebugger
 	private int mySequence = -1;
 	private final Object mySequenceObject = new Object(); // for synchronization on mySequence
 	private final Map<String, PyThreadInfo> myThreads = new ConcurrentHashMap<>();
-	private final Map<Integer, ProtocolFrame> myResponseQueue = new HashMap<>();
+	private final Map<Integer, CompletableFuture<ProtocolFrame>> myPendingResponses = new ConcurrentHashMap<>();
 	private final TempVarsHolder myTempVars = new TempVarsHolder();
+	// the children of containers loaded in advance, see prefetchChildren()
+	private final Map<String, CompletableFuture<List<PyDebugValue>>> myPrefetchedChildren = new ConcurrentHashMap<>();
+	// the last loaded variables of frames by thread and frame id, kept across steps, see loadFrame()
+	private final Map<String, FrameSnapshot> myFrameSnapshots = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FrameSnapshot> eldest)
+		{
+			return size() > MAX_FRAME_SNAPSHOTS;
+		}
+	});
 
 	private Map<Pair<String, Integer>, String> myTempBreakpoints = Maps.newHashMap();
 
 
 	private final List<RemoteDebuggerCloseListener> myCloseListeners = Lists.newLockFreeCopyOnWriteList();
+	private final List<RemoteDebuggerThreadListener> myThreadListeners = Lists.newLockFreeCopyOnWriteList();
 
 	private final DebuggerTransport myDebuggerTransport;
+	// cleared once pydevd answers that it doesn't know batches of variables, then expressions are evaluated one by one
+	private volatile boolean myBatchEvaluationSupported = true;
+	// the same for the binary format of array chunks
+	private volatile boolean myBinaryArraySupported = true;
+	// and for the frame diff command, then the full frame is loaded every time
+	private volatile boolean myFrameDiffSupported = true;
+	private final EvaluationBatcher myEvaluationBatcher = new EvaluationBatcher(this);
 
 	public RemoteDebugger(IPyDebugProcess debugProcess, String host, int port)
 	{
@@ -127,8 +157,35 @@ public class RemoteDebugger implements ProcessDebugger
 	@Override
 	public PyDebugValue evaluate(String threadId, String frameId, String expression, boolean execute, boolean trimResult) throws PyDebuggerException
 	{
+		if(!execute && myBatchEvaluationSupported)
+		{
+			try
+			{
+				return myEvaluationBatcher.evaluate(threadId, frameId, expression, trimResult);
+			}
+			catch(PyDebuggerException e)
+			{
+				if(!AbstractCommand.isUnknownCommandError(e, AbstractCommand.GET_VARIABLES))
+				{
+					throw e;
+				}
+				LOG.info("The debugger doesn't support batches of variables, evaluating expressions one by one");
+				myBatchEvaluationSupported = false;
+			}
+		}
 		EvaluateCommand command = new EvaluateCommand(this, threadId, frameId, expression, execute, trimResult);
-		command.execute();
+		try
+		{
+			command.execute();
+		}
+		finally
+		{
+			if(execute)
+			{
+				// the statement may have changed the containers whose children were prefetched
+				forgetPrefetchedChildren(threadId);
+			}
+		}
 		return command.getValue();
 	}
 
@@ -136,14 +193,62 @@ public class RemoteDebugger implements ProcessDebugger
 	public void consoleExec(String threadId, String frameId, String expression, PyDebugCallback<String> callback)
 	{
 		ConsoleExecCommand command = new ConsoleExecCommand(this, threadId, frameId, expression);
-		command.execute(callback);
+		command.execute(new PyDebugCallback<String>()
+		{
+			@Override
+			public void ok(String value)
+			{
+				forgetPrefetchedChildren(threadId);
+				callback.ok(value);
+			}
+
+			@Override
+			public void error(PyDebuggerException exception)
+			{
+				forgetPrefetchedChildren(threadId);
+				callback.error(exception);
+			}
+		});
 	}
 
 	@Override
 	public XValueChildrenList loadFrame(String threadId, String frameId) throws PyDebuggerException
 	{
-		GetFrameCommand command = new GetFrameCommand(this, threadId, frameId);
-		command.execute();
+		XValueChildrenList variables = myFrameDiffSupported ? loadFrameDiff(threadId, frameId) : null;
+		if(variables == null)
+		{
+			GetFrameCommand command = new GetFrameCommand(this, threadId, frameId);
+			command.execute();
+			variables = command.getVariables();
+		}
+		prefetchChildren(threadId, frameId, variables);
+		return variables;
+	}
+
+	/**
+	 * @return null if the debugger doesn't support loading the changes of a frame
+	 */
+	@Nullable
+	private XValueChildrenList loadFrameDiff(String threadId, String frameId) throws PyDebuggerException
+	{
+		// the snapshot outlives the suspension: a frame loaded again after a step gets only the changed variables
+		String key = threadId + "\t" + frameId;
+		GetFrameDiffCommand command = new GetFrameDiffCommand(this, threadId, frameId, myFrameSnapshots.remove(key));
+		try
+		{
+			command.execute();
+		}
+		catch(PyDebuggerException e)
+		{
+			if(!AbstractCommand.isUnknownCommandError(e, AbstractCommand.GET_FRAME_DIFF))
+			{
+				throw e;
+			}
+			LOG.info("The debugger doesn't support loading frame changes, loading whole frames");
+			myFrameDiffSupported = false;
+			return null;
+		}
+		myFrameSnapshots.put(key, command.getSnapshot());
 		return command.getVariables();
 	}
 
@@ -151,15 +256,151 @@ public class RemoteDebugger implements ProcessDebugger
 	@Override
 	public XValueChildrenList loadVariable(String threadId, String frameId, PyDebugValue var) throws PyDebuggerException
 	{
-		setTempVariable(threadId, frameId, var);
-		GetVariableCommand command = new GetVariableCommand(this, threadId, frameId, var);
-		command.execute();
-		return command.getVariables();
+		XValueChildrenList children = loadPrefetchedChildren(threadId, frameId, var);
+		if(children == null)
+		{
+			setTempVariable(threadId, frameId, var);
+			GetVariableCommand command = new GetVariableCommand(this, threadId, frameId, var);
+			command.execute();
+			children = command.getVariables();
+		}
+		prefetchChildren(threadId, frameId, children);
+		return children;
+	}
+
+	/**
+	 * Loads the children of the small containers among the variables in a single batch, so expanding them doesn't cost
+	 * a round trip each. Prefetched children are used once, replaced when the frame is loaded again and forgotten when the
+	 * thread is resumed or runs code from the console or an executed expression.
+	 */
+	private void prefetchChildren(String threadId, String frameId, XValueChildrenList variables)
+	{
+		GetVariablesCommand command = null;
+		int count = 0;
+		for(int i = 0; i < variables.size() && count < MAX_PREFETCHED_CONTAINERS; i++)
+		{
+			if(!(variables.getValue(i) instanceof PyDebugValue))
+			{
+				continue;
+			}
+			PyDebugValue value = (PyDebugValue) variables.getValue(i);
+			String key = getPrefetchKey(threadId, frameId, value);
+			if(key == null || !isSmallContainer(value))
+			{
+				continue;
+			}
+			if(command == null)
+			{
+				command = new GetVariablesCommand(this, threadId);
+			}
+			// the children prefetched for an earlier load of the frame may be stale
+			CompletableFuture<List<PyDebugValue>> stale = myPrefetchedChildren.put(key, command.addVariable(frameId, value));
+			if(stale != null)
+			{
+				stale.cancel(false);
+			}
+			count++;
+		}
+		if(command != null)
+		{
+			command.executeAsync();
+		}
+	}
+
+	@Nullable
+	private XValueChildrenList loadPrefetchedChildren(String threadId, String frameId, PyDebugValue var)
+	{
+		String key = getPrefetchKey(threadId, frameId, var);
+		CompletableFuture<List<PyDebugValue>> prefetched = key != null ? myPrefetchedChildren.remove(key) : null;
+		if(prefetched == null)
+		{
+			return null;
+		}
+		List<PyDebugValue> values = waitForResponse(prefetched);
+		return values != null ? GetVariableCommand.createChildren(values, var, myDebugProcess) : null;
+	}
+
+	private static boolean isSmallContainer(PyDebugValue value)
+	{
+		if(!value.isContainer() || value.isReturnedVal() || value.isErrorOnEval())
+		{
+			return false;
+		}
+		String type = value.getType();
+		if("ndarray".equals(type) || "matrix".equals(type) || "DataFrame".equals(type) || "Series".equals(type))
+		{
+			return false;
+		}
+		return value.getValue() != null && value.getValue().length() <= MAX_PREFETCHED_VALUE_LENGTH;
+	}
+
+	/**
+	 * The key of prefetched children is the path of names of the variable: the values the debug process asks to load
+	 * are copies of the loaded ones, renamed and with temporary names of their own.
+	 *
+	 * @return null if the variable is not located by names in a frame
+	 */
+	@Nullable
+	private static String getPrefetchKey(String threadId, String frameId, PyDebugValue var)
+	{
+		StringBuilder key = new StringBuilder();
+		for(PyDebugValue v = var; v != null; v = v.getParent())
+		{
+			if(v.getId() != null || v.getVariableLocator() != null || v.isReturnedVal())
+			{
+				return null;
+			}
+			key.insert(0, v.getName()).insert(0, '\t');
+		}
+		return key.insert(0, frameId).insert(0, '\t').insert(0, threadId).toString();
+	}
+
+	private void forgetFrameSnapshots(@Nullable String threadId)
+	{
+		String prefix = threadId + "\t";
+		synchronized(myFrameSnapshots)
+		{
+			myFrameSnapshots.keySet().removeIf(key -> threadId == null || key.startsWith(prefix));
+		}
+	}
+
+	private void forgetPrefetchedChildren(@Nullable String threadId)
+	{
+		String prefix = threadId + "\t";
+		for(String key : new ArrayList<>(myPrefetchedChildren.keySet()))
+		{
+			if(threadId == null || key.startsWith(prefix))
+			{
+				CompletableFuture<List<PyDebugValue>> prefetched = myPrefetchedChildren.remove(key);
+				if(prefetched != null)
+				{
+					prefetched.cancel(false);
+				}
+			}
+		}
 	}
 
 	@Override
 	public ArrayChunk loadArrayItems(String threadId, String frameId, PyDebugValue var, int rowOffset, int colOffset, int rows, int cols, String format) throws PyDebuggerException
 	{
+		if(myBinaryArraySupported)
+		{
+			GetArrayCommand command = new GetArrayCommand(this, threadId, frameId, var, rowOffset, colOffset, rows, cols, format, true);
+			try
+			{
+				command.execute();
+				return command.getArray();
+			}
+			catch(PyDebuggerException e)
+			{
+				if(!AbstractCommand.isUnknownCommandError(e, AbstractCommand.GET_ARRAY_BINARY))
+				{
+					throw e;
+				}
+				LOG.info("The debugger doesn't support the binary array format, loading arrays as text");
+				myBinaryArraySupported = false;
+			}
+		}
 		GetArrayCommand command = new GetArrayCommand(this, threadId, frameId, var, rowOffset, colOffset, rows, cols, format);
 		command.execute();
 		return command.getArray();
@@ -195,6 +436,7 @@ public class RemoteDebugger implements ProcessDebugger
 	@Override
 	public PyDebugValue changeVariable(String threadId, String frameId, PyDebugValue var, String value) throws PyDebuggerException
 	{
+		forgetPrefetchedChildren(threadId);
 		setTempVariable(threadId, frameId, var);
 		return doChangeVariable(threadId, frameId, var.getEvaluationExpression(), value);
 	}
@@ -225,7 +467,9 @@ public class RemoteDebugger implements ProcessDebugger
 	private void cleanUp()
 	{
 		myThreads.clear();
-		myResponseQueue.clear();
+		failPendingResponses();
+		forgetPrefetchedChildren(null);
+		forgetFrameSnapshots(null);
 		synchronized(mySequenceObject)
 		{
 			mySequence = -1;
@@ -316,45 +560,59 @@ public class RemoteDebugger implements ProcessDebugger
 		}
 	}
 
+	/**
+	 * Registers a command waiting for the response with the given sequence. The returned future is completed by the reader thread
+	 * when the response arrives, fails on timeout or when the connection is lost, and may be cancelled if the response is no longer needed.
+	 */
+	CompletableFuture<ProtocolFrame> expectResponse(int sequence)
+	{
+		CompletableFuture<ProtocolFrame> response = new CompletableFuture<ProtocolFrame>().orTimeout(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		myPendingResponses.put(sequence, response);
+		response.whenComplete((frame, error) -> myPendingResponses.remove(sequence, response));
+		return response;
+	}
+
 	void placeResponse(int sequence, ProtocolFrame response)
 	{
-		synchronized(myResponseQueue)
+		CompletableFuture<ProtocolFrame> future = myPendingResponses.remove(sequence);
+		if(future != null)
 		{
-			if(response == null || myResponseQueue.containsKey(sequence))
-			{
-				myResponseQueue.put(sequence, response);
-			}
-			if(response != null)
-			{
-				myResponseQueue.notifyAll();
-			}
+			future.complete(response);
 		}
 	}
 
+	/**
+	 * @return the response, or null if it didn't arrive in time, the connection was lost or the wait was cancelled
+	 */
 	@Nullable
-	ProtocolFrame waitForResponse(int sequence)
+	<T> T waitForResponse(Future<T> response)
 	{
-		ProtocolFrame response;
-		long until = System.currentTimeMillis() + RESPONSE_TIMEOUT;
+		try
+		{
+			return response.get();
+		}
+		catch(InterruptedException e)
+		{
+			response.cancel(false);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch(ExecutionException | CancellationException e)
+		{
+			return null;
+		}
+	}
 
-		synchronized(myResponseQueue)
+	private void failPendingResponses()
+	{
+		for(Integer sequence : new ArrayList<>(myPendingResponses.keySet()))
 		{
-			do
+			CompletableFuture<ProtocolFrame> response = myPendingResponses.remove(sequence);
+			if(response != null)
 			{
-				try
-				{
-					myResponseQueue.wait(1000);
-				}
-				catch(InterruptedException ignore)
-				{
-				}
-				response = myResponseQueue.get(sequence);
+				response.completeExceptionally(new PyDebuggerException("No connection"));
 			}
-			while(response == null && isConnected() && System.currentTimeMillis() < until);
-			myResponseQueue.remove(sequence);
 		}
-
-		return response;
 	}
 
 	@Override
@@ -363,6 +621,7 @@ public class RemoteDebugger implements ProcessDebugger
 		if(command instanceof ResumeOrStepCommand)
 		{
 			String threadId = ((ResumeOrStepCommand) command).getThreadId();
+			forgetPrefetchedChildren(threadId);
 			clearTempVariables(threadId);
 		}
 
@@ -485,7 +744,7 @@ public class RemoteDebugger implements ProcessDebugger
 	}
 
 	// for DebuggerReader only
-	public void processResponse(String line)
+	public void processResponse(CharSequence line)
 	{
 		try
 		{
@@ -544,6 +803,23 @@ public class RemoteDebugger implements ProcessDebugger
 		myDebugProcess.recordLogEvent(event);
 	}
 
+	private void addThread(PyThreadInfo thread)
+	{
+		myThreads.put(thread.getId(), thread);
+		for(RemoteDebuggerThreadListener listener : myThreadListeners)
+		{
+			listener.threadCreated(this, thread);
+		}
+	}
+
+	private void fireThreadKilled(String threadId)
+	{
+		for(RemoteDebuggerThreadListener listener : myThreadListeners)
+		{
+			listener.threadKilled(this, threadId);
+		}
+	}
+
 	// todo: extract response processing
 	private void processThreadEvent(ProtocolFrame frame) throws PyDebuggerException
 	{
@@ -554,7 +830,7 @@ public class RemoteDebugger implements ProcessDebugger
 				PyThreadInfo thread = parseThreadEvent(frame);
 				if(!thread.isPydevThread())
 				{  // ignore pydevd threads
-					myThreads.put(thread.getId(), thread);
+					addThread(thread);
 					if(myDebugProcess.getSession().isSuspended() && myDebugProcess.isSuspendedOnAllThreadsPolicy())
 					{
 						// Sometimes the notification about new threads may come slow from the Python side. We should check if
@@ -571,7 +847,7 @@ public class RemoteDebugger implements ProcessDebugger
 				if(thread == null)
 				{
 					LOG.error("Trying to stop on non-existent thread: " + event.getId() + ", " + event.getStopReason() + ", " + event.getMessage());
-					myThreads.put(event.getId(), event);
+					addThread(event);
 					thread = event;
 				}
 				thread.updateState(PyThreadInfo.State.SUSPENDED, event.getFrames());
@@ -590,6 +866,7 @@ public class RemoteDebugger implements ProcessDebugger
 			case AbstractCommand.RESUME_THREAD:
 			{
 				String id = ProtocolParser.getThreadId(frame.getPayload());
+				forgetPrefetchedChildren(id);
 				PyThreadInfo thread = myThreads.get(id);
 				if(thread != null)
 				{
@@ -606,7 +883,9 @@ public class RemoteDebugger implements ProcessDebugger
 				{
 					thread.updateState(PyThreadInfo.State.KILLED, null);
 					myThreads.remove(id);
+					fireThreadKilled(id);
 				}
+				forgetFrameSnapshots(id);
 				if(myDebugProcess.getSession().getCurrentPosition() == null)
 				{
 					for(PyThreadInfo threadInfo : myThreads.values())
@@ -627,7 +906,7 @@ public class RemoteDebugger implements ProcessDebugger
 				PyThreadInfo thread = myThreads.get(event.getId());
 				if(thread == null)
 				{
-					myThreads.put(event.getId(), event);
+					addThread(event);
 					thread = event;
 				}
 				thread.updateState(PyThreadInfo.State.SUSPENDED, event.getFrames());
@@ -712,6 +991,16 @@ public class RemoteDebugger implements ProcessDebugger
 		myCloseListeners.remove(listener);
 	}
 
+	public void addThreadListener(RemoteDebuggerThreadListener listener)
+	{
+		myThreadListeners.add(listener);
+	}
+
+	public void removeThreadListener(RemoteDebuggerThreadListener listener)
+	{
+		myThreadListeners.remove(listener);
+	}
+
 	@Override
 	public List<PydevCompletionVariant> getCompletions(String threadId, String frameId, String prefix)
 	{
@@ -780,6 +1069,8 @@ public class RemoteDebugger implements ProcessDebugger
 	// for DebuggerReader only
 	public void fireExitEvent()
 	{
+		// no more responses can arrive
+		failPendingResponses();
 		for(RemoteDebuggerCloseListener listener : myCloseListeners)
 		{
 			listener.detached();
@@ -0,0 +1,20 @@
+package com.jetbrains.python.debugger.pydev;
+
+import com.jetbrains.python.debugger.PyThreadInfo;
+
+/**
+ * Is notified of the threads a {@link RemoteDebugger} learns about and loses, from the thread events of pydevd.
+ * Called on the thread reading the events of the debugger.
+ */
+public interface RemoteDebuggerThreadListener
+{
+	/**
+	 * this event means that the thread is known to the debugger, it may replace a thread with the same id
+	 */
+	void threadCreated(RemoteDebugger debugger, PyThreadInfo thread);
+
+	/**
+	 * this event means that the thread finished
+	 */
+	void threadKilled(RemoteDebugger debugger, String threadId);
+}
@@ -9,7 +9,6 @@ import consulo.util.lang.TimeoutUtil;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 import java.util.concurrent.Future;
 
 /**
@@ -20,7 +19,7 @@ public abstract class BaseDebuggerReader extends BaseOutputReader
 	private static final Logger LOG = Logger.getInstance(BaseDebuggerReader.class);
 
 	private final RemoteDebugger myDebugger;
-	private StringBuilder myTextBuilder = new StringBuilder();
+	private final DebuggerFrameSplitter myFrameSplitter = new DebuggerFrameSplitter();
 
 	public BaseDebuggerReader(InputStream inputStream, Charset charset, RemoteDebugger debugger)
 	{
@@ -99,22 +98,11 @@ public abstract class BaseDebuggerReader extends BaseOutputReader
 	@Override
 	protected void onTextAvailable(String text)
 	{
-		myTextBuilder.append(text);
-		if(text.contains("\n"))
+		myFrameSplitter.append(text);
+		CharSequence frame;
+		while((frame = myFrameSplitter.nextFrame()) != null)
 		{
-			String[] lines = myTextBuilder.toString().split("\n");
-			myTextBuilder = new StringBuilder();
-
-			if(!text.endsWith("\n"))
-			{
-				myTextBuilder.append(lines[lines.length - 1]);
-				lines = Arrays.copyOfRange(lines, 0, lines.length - 1);
-			}
-
-			for(String line : lines)
-			{
-				myDebugger.processResponse(line + "\n");
-			}
+			myDebugger.processResponse(frame);
 		}
 	}
 }
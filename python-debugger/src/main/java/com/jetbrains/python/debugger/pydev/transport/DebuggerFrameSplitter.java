@@ -0,0 +1,67 @@
+package com.jetbrains.python.debugger.pydev.transport;
+
+import org.jspecify.annotations.Nullable;
+
+import java.nio.CharBuffer;
+
+/**
+ * Splits the text received from pydevd into newline-terminated frames.
+ * <p>
+ * The received text is kept in a single buffer which is scanned for line ends only once. Frames are handed out
+ * as views of the buffer, so a big frame arriving in many pieces is neither rebuilt nor copied per piece;
+ * the unfinished tail is moved to the start of the buffer only when more text is appended.
+ * Not thread-safe: used by the reader thread only.
+ */
+class DebuggerFrameSplitter
+{
+	private static final int INITIAL_CAPACITY = 8192;
+
+	private char[] myBuffer = new char[INITIAL_CAPACITY];
+	// text of the first unfinished frame starts here
+	private int myStart;
+	// text up to this offset has been scanned for line ends
+	private int myScanned;
+	private int myEnd;
+
+	void append(String text)
+	{
+		int length = text.length();
+		if(myEnd + length > myBuffer.length)
+		{
+			int pending = myEnd - myStart;
+			char[] buffer = pending + length > myBuffer.length ? new char[Math.max(2 * myBuffer.length, pending + length)] : myBuffer;
+			System.arraycopy(myBuffer, myStart, buffer, 0, pending);
+			myBuffer = buffer;
+			myScanned -= myStart;
+			myEnd = pending;
+			myStart = 0;
+		}
+		text.getChars(0, length, myBuffer, myEnd);
+		myEnd += length;
+	}
+
+	/**
+	 * @return the next complete frame including its line end, or null if there is none yet.
+	 * The returned view is only valid until the next {@link #append}.
+	 */
+	@Nullable
+	CharSequence nextFrame()
+	{
+		for(int i = myScanned; i < myEnd; i++)
+		{
+			if(myBuffer[i] == '\n')
+			{
+				CharBuffer frame = CharBuffer.wrap(myBuffer, myStart, i + 1 - myStart);
+				myStart = i + 1;
+				myScanned = myStart;
+				if(myStart == myEnd)
+				{
+					myStart = myScanned = myEnd = 0;
+				}
+				return frame;
+			}
+		}
+		myScanned = myEnd;
+		return null;
+	}
+}
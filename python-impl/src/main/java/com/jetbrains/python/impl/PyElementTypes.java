@@ -16,6 +16,7 @@
 package com.jetbrains.python.impl;
 
 import com.jetbrains.python.PyTokenTypes;
+import com.jetbrains.python.impl.psi.PyStatementListElementType;
 import com.jetbrains.python.impl.psi.impl.*;
 import com.jetbrains.python.impl.psi.impl.stubs.*;
 import com.jetbrains.python.psi.*;
@@ -77,7 +78,7 @@ public interface PyElementTypes {
   PyElementType TRY_EXCEPT_STATEMENT = new PyElementType("TRY_EXCEPT_STATEMENT", PyTryExceptStatementImpl.class);
   PyElementType WITH_STATEMENT = new PyElementType("WITH_STATEMENT", PyWithStatementImpl.class);
   PyElementType WHILE_STATEMENT = new PyElementType("WHILE_STATEMENT", PyWhileStatementImpl.class);
-  PyElementType STATEMENT_LIST = new PyElementType("STATEMENT_LIST", PyStatementListImpl.class);
+  PyStatementListElementType STATEMENT_LIST = new PyStatementListElementType();
 
   PyElementType NONLOCAL_STATEMENT = new PyElementType("NONLOCAL_STATEMENT", PyNonlocalStatementImpl.class);
 
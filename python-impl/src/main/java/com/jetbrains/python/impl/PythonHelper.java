@@ -72,6 +72,7 @@ public enum PythonHelper implements HelperPackage
 	SYSPATH("syspath.py"),
 
 	PYCODESTYLE("pycodestyle.py"),
+	PYCODESTYLE_DAEMON("pycodestyle_daemon.py"),
 
 	REST_RUNNER("rest_runners/rst2smth.py"),
 
@@ -22,6 +22,7 @@ import com.jetbrains.python.impl.lexer.PythonIndentingLexer;
 import com.jetbrains.python.impl.parsing.PyParser;
 import com.jetbrains.python.psi.PyElementType;
 import com.jetbrains.python.impl.psi.PyFileElementType;
+import com.jetbrains.python.impl.psi.PyStatementListElementType;
 import com.jetbrains.python.psi.PyStubElementType;
 import com.jetbrains.python.impl.psi.impl.PyFileImpl;
 import consulo.annotation.component.ExtensionImpl;
@@ -94,6 +95,9 @@ public class PythonParserDefinition implements ParserDefinition {
     else if (type instanceof PyStubElementType) {
       return ((PyStubElementType)type).createElement(node);
     }
+    else if (type instanceof PyStatementListElementType) {
+      return ((PyStatementListElementType)type).createElement(node);
+    }
     return new ASTWrapperPsiElement(node);
   }
 
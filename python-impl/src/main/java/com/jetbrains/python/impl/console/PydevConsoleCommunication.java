@@ -22,8 +22,6 @@ import com.jetbrains.python.debugger.pydev.ProtocolParser;
 import com.jetbrains.python.impl.console.parsing.PythonConsoleData;
 import consulo.application.ApplicationManager;
 import consulo.application.progress.ProgressIndicator;
-import consulo.application.progress.ProgressManager;
-
 import consulo.application.progress.Task;
 import consulo.execution.debug.XSourcePosition;
 import consulo.execution.debug.frame.XValueChildrenList;
@@ -45,6 +43,11 @@ import org.apache.xmlrpc.webserver.WebServer;
 import org.jspecify.annotations.Nullable;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 /**
@@ -66,6 +69,9 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
   private static final String EVALUATE = "evaluate";
   private static final String GET_ARRAY = "getArray";
   private static final String PYDEVD_EXTRA_ENVS = "PYDEVD_EXTRA_ENVS";
+  // Was "refused", but it didn't work on non English system (in Spanish localized systems it is "rechazada").
+  // This string always works, because it is hard-coded in the XML-RPC library.
+  private static final String REFUSED_CONNECTION_PATTERN = "Failed to read servers response";
 
   /**
    * XML-RPC client for sending messages to the server.
@@ -80,17 +86,17 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
   private static final Logger LOG = Logger.getInstance(PydevConsoleCommunication.class);
 
   /**
-   * Input that should be sent to the server (waiting for raw_input)
+   * Input requested by raw_input(), completed with the next command given to the console.
    */
-  protected volatile String inputReceived;
+  private volatile CompletableFuture<String> myInputRequest;
   /**
-   * Response that should be sent back to the shell.
+   * Response to the command being sent to the server, completed early if the command requests input.
    */
-  protected volatile InterpreterResponse nextResponse;
+  private volatile CompletableFuture<InterpreterResponse> myPendingResponse;
   /**
-   * Helper to keep on busy loop.
+   * When the last command was sent, to log how long it took to execute.
    */
-  private volatile Object lock2 = new Object();
+  private volatile long myExecStartTime;
   /**
    * Keeps a flag indicating that we were able to communicate successfully with the shell at least once
    * (if we haven't we may retry more than once the first time, as jython can take a while to initialize
@@ -155,23 +161,17 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
       }.queue();
     }
 
+    CompletableFuture<String> inputRequest = myInputRequest;
+    if (inputRequest != null) {
+      inputRequest.cancel(false);
+    }
+
     if (myWebServer != null) {
       myWebServer.shutdown();
       myWebServer = null;
     }
   }
 
-  /**
-   * Variables that control when we're expecting to give some input to the server or when we're
-   * adding some line to be executed
-   */
-
-  /**
-   * Helper to keep on busy loop.
-   */
-  private volatile Object lock = new Object();
-
-
   /**
    * Called when the server is requesting some input from this class.
    */
@@ -232,6 +232,9 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
   }
 
   private Object execNotifyFinished(boolean more) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Command executed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - myExecStartTime) + " ms");
+    }
     myNeedsMore = more;
     setExecuting(false);
     notifyCommandExecuted(more);
@@ -243,57 +246,73 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
   }
 
   private Object execRequestInput() {
+    CompletableFuture<String> inputRequest = new CompletableFuture<>();
+    myInputRequest = inputRequest;
     waitingForInput = true;
-    inputReceived = null;
-    boolean needInput = true;
 
-    //let the busy loop from execInterpreter free and enter a busy loop
-    //in this function until execInterpreter gives us an input
-    nextResponse = new InterpreterResponse(false, needInput);
+    //let the command sent by execInterpreter get its response, the input is given by the next command
+    CompletableFuture<InterpreterResponse> response = myPendingResponse;
+    if (response != null) {
+      response.complete(new InterpreterResponse(false, true));
+    }
 
     notifyInputRequested();
 
-    //busy loop until we have an input
-    while (inputReceived == null) {
-      synchronized (lock) {
-        try {
-          lock.wait(10);
-        }
-        catch (InterruptedException e) {
-          //pass
-        }
-      }
+    //the server waits for the answer, so does this thread until execInterpreter gives us an input
+    try {
+      return inputRequest.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "";
+    }
+    catch (ExecutionException | CancellationException e) {
+      return "";
     }
-    return inputReceived;
   }
 
   /**
    * Executes the needed command
    *
    * @param command
-   * @return a Pair with (null, more) or (error, false)
-   * @throws XmlRpcException
+   * @return the future Pair with (null, more) or (error, false)
    */
-  protected Pair<String, Boolean> exec(ConsoleCodeFragment command) throws XmlRpcException {
+  protected CompletableFuture<Pair<String, Boolean>> exec(ConsoleCodeFragment command) {
     setExecuting(true);
-    Object execute = myClient.execute(command.isSingleLine() ? EXEC_LINE : EXEC_MULTILINE, new Object[]{command.getText()});
+    return myClient.executeAsync(command.isSingleLine() ? EXEC_LINE : EXEC_MULTILINE, new Object[]{command.getText()}).thenApply(execute -> {
+      Object object;
+      if (execute instanceof Vector) {
+        object = ((Vector)execute).get(0);
+      }
+      else if (execute.getClass().isArray()) {
+        object = ((Object[])execute)[0];
+      }
+      else {
+        object = execute;
+      }
+      Pair<String, Boolean> result = parseResult(object);
+      if (result.second) {
+        setExecuting(false);
+      }
 
-    Object object;
-    if (execute instanceof Vector) {
-      object = ((Vector)execute).get(0);
-    }
-    else if (execute.getClass().isArray()) {
-      object = ((Object[])execute)[0];
-    }
-    else {
-      object = execute;
-    }
-    Pair<String, Boolean> result = parseResult(object);
-    if (result.second) {
-      setExecuting(false);
-    }
+      return result;
+    });
+  }
 
-    return result;
+  /**
+   * The 1st time we do a connection attempt, we can try to connect n times (until the 1st time the connection
+   * is accepted) -- that's mostly because the server may take a while to get started.
+   */
+  private CompletableFuture<Pair<String, Boolean>> execWithRetries(ConsoleCodeFragment command, int attempt) {
+    return exec(command).thenCompose(executed -> {
+      //executed.first is not null only if we had an error
+      if (executed.first != null && executed.first.contains(REFUSED_CONNECTION_PATTERN) && !firstCommWorked && attempt < MAX_ATTEMPTS) {
+        Executor delayed = CompletableFuture.delayedExecutor(250, TimeUnit.MILLISECONDS);
+        return CompletableFuture.runAsync(() -> {
+        }, delayed).thenCompose(ignored -> execWithRetries(command, attempt + 1));
+      }
+      return CompletableFuture.completedFuture(executed);
+    });
   }
 
   private Pair<String, Boolean> parseResult(Object object) {
@@ -338,7 +357,8 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
   }
 
   /**
-   * Executes a given line in the interpreter.
+   * Executes a given line in the interpreter. The response comes from the server asynchronously, and so does
+   * the notification of the command being executed, see {@link #execNotifyFinished}.
    *
    * @param command the command to be executed in the client
    */
@@ -347,112 +367,38 @@ public class PydevConsoleCommunication extends AbstractConsoleCommunication impl
       myDebugCommunication.execInterpreter(command, onResponseReceived);
       return; //TODO: handle text input and other cases
     }
-    nextResponse = null;
     if (waitingForInput) {
-      inputReceived = command.getText();
       waitingForInput = false;
-      //the thread that we started in the last exec is still alive if we were waiting for an input.
+      //the server thread which requested the input is still waiting for it.
+      CompletableFuture<String> inputRequest = myInputRequest;
+      if (inputRequest != null) {
+        inputRequest.complete(command.getText());
+      }
+      return;
     }
-    else {
-      //create a thread that'll keep locked until an answer is received from the server.
-      new Task.Backgroundable(myProject, "REPL Communication", true) {
-
-        @Override
-        public void run(ProgressIndicator indicator) {
-          boolean needInput = false;
-          try {
-
-            Pair<String, Boolean> executed = null;
-
-            //the 1st time we'll do a connection attempt, we can try to connect n times (until the 1st time the connection
-            //is accepted) -- that's mostly because the server may take a while to get started.
-            int commAttempts = 0;
-            while (true) {
-              if (indicator.isCanceled()) {
-                return;
-              }
-
-              executed = exec(command);
-
-              //executed.o1 is not null only if we had an error
-
-              String refusedConnPattern = "Failed to read servers response";
-              // Was "refused", but it didn't
-              // work on non English system
-              // (in Spanish localized systems
-              // it is "rechazada")
-              // This string always works,
-              // because it is hard-coded in
-              // the XML-RPC library)
-              if (executed.first != null && executed.first.indexOf(refusedConnPattern) != -1) {
-                if (firstCommWorked) {
-                  break;
-                }
-                else {
-                  if (commAttempts < MAX_ATTEMPTS) {
-                    commAttempts += 1;
-                    Thread.sleep(250);
-                    executed = Pair.create("", executed.second);
-                  }
-                  else {
-                    break;
-                  }
-                }
-              }
-              else {
-                break;
-              }
-
-              //unreachable code!! -- commented because eclipse will complain about it
-              //throw new RuntimeException("Can never get here!");
-            }
-
-            firstCommWorked = true;
-
-            boolean more = executed.second;
-
-            nextResponse = new InterpreterResponse(more, needInput);
-          }
-          catch (Exception e) {
-            nextResponse = new InterpreterResponse(false, needInput);
-          }
-        }
-      }.queue();
 
+    CompletableFuture<InterpreterResponse> response = new CompletableFuture<>();
+    myPendingResponse = response;
+    myExecStartTime = System.nanoTime();
+    execWithRetries(command, 0).whenComplete((executed, error) -> {
+      if (error != null) {
+        response.complete(new InterpreterResponse(false, false));
+        return;
+      }
+      firstCommWorked = true;
+      response.complete(new InterpreterResponse(executed.second, false));
+    });
 
-      //busy loop waiting for the answer (or having the console die).
-      ProgressManager.getInstance().runProcessWithProgressSynchronously(() -> {
-        ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
-        progressIndicator.setText("Waiting for REPL response with " + (int)(TIMEOUT / 10e8) + "s timeout");
-        long startTime = System.nanoTime();
-        while (nextResponse == null) {
-          if (progressIndicator.isCanceled()) {
-            LOG.debug("Canceled");
-            nextResponse = new InterpreterResponse(false, false);
-          }
-
-          long time = System.nanoTime() - startTime;
-          progressIndicator.setFraction(((double)time) / TIMEOUT);
-          if (time > TIMEOUT) {
-            LOG.debug("Timeout exceeded");
-            nextResponse = new InterpreterResponse(false, false);
-          }
-          synchronized (lock2) {
-            try {
-              lock2.wait(20);
-            }
-            catch (InterruptedException e) {
-              LOG.error(e);
-            }
-          }
-        }
-        if (nextResponse.more) {
-          myNeedsMore = true;
-          notifyCommandExecuted(true);
-        }
-        onResponseReceived.apply(nextResponse);
-      }, "Waiting for REPL response", true, myProject);
-    }
+    response.completeOnTimeout(new InterpreterResponse(false, false), TIMEOUT, TimeUnit.NANOSECONDS).thenAccept(interpreterResponse -> {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("REPL response received in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - myExecStartTime) + " ms");
+      }
+      if (interpreterResponse.more) {
+        myNeedsMore = true;
+        notifyCommandExecuted(true);
+      }
+      onResponseReceived.apply(interpreterResponse);
+    });
   }
 
   @Override
@@ -1,38 +1,21 @@
 package com.jetbrains.python.impl.debugger;
 
 import com.jetbrains.python.debugger.PyConcurrencyEvent;
+import consulo.annotation.component.ComponentScope;
+import consulo.annotation.component.ServiceAPI;
 import consulo.execution.debug.XDebugSession;
+import consulo.ide.ServiceManager;
 import consulo.project.Project;
 
 /**
  * @author traff
  */
+@ServiceAPI(ComponentScope.PROJECT)
 public abstract class PyConcurrencyService
 {
-	private static final PyConcurrencyService ourDummy = new PyConcurrencyService()
-	{
-		@Override
-		public void recordEvent(XDebugSession session, PyConcurrencyEvent event, boolean isAsyncIo)
-		{
-
-		}
-
-		@Override
-		public void initSession(XDebugSession session)
-		{
-
-		}
-
-		@Override
-		public void removeSession(XDebugSession session)
-		{
-
-		}
-	};
-
 	public static PyConcurrencyService getInstance(Project project)
 	{
-		return ourDummy;
+		return ServiceManager.getService(project, PyConcurrencyService.class);
 	}
 
 	public abstract void recordEvent(XDebugSession session, PyConcurrencyEvent event, boolean isAsyncIo);
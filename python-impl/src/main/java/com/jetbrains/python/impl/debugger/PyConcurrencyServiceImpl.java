@@ -0,0 +1,84 @@
+package com.jetbrains.python.impl.debugger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.jetbrains.python.debugger.PyConcurrencyEvent;
+import com.jetbrains.python.impl.debugger.concurrency.PyConcurrencyEventRecorder;
+import consulo.annotation.component.ServiceImpl;
+import consulo.disposer.Disposable;
+import consulo.execution.debug.XDebugSession;
+import consulo.logging.Logger;
+import jakarta.inject.Singleton;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Keeps a {@link PyConcurrencyEventRecorder} per debug session, from its first event until the session stops.
+ */
+@ServiceImpl
+@Singleton
+public class PyConcurrencyServiceImpl extends PyConcurrencyService implements Disposable
+{
+	private static final Logger LOG = Logger.getInstance(PyConcurrencyServiceImpl.class);
+
+	private final Map<XDebugSession, PyConcurrencyEventRecorder> myRecorders = new ConcurrentHashMap<>();
+
+	@Override
+	public void recordEvent(XDebugSession session, PyConcurrencyEvent event, boolean isAsyncIo)
+	{
+		PyConcurrencyEventRecorder recorder = myRecorders.get(session);
+		if(recorder == null)
+		{
+			recorder = myRecorders.computeIfAbsent(session, PyConcurrencyServiceImpl::createRecorder);
+		}
+		if(recorder != null)
+		{
+			recorder.record(event);
+		}
+	}
+
+	@Override
+	public void initSession(XDebugSession session)
+	{
+		myRecorders.computeIfAbsent(session, PyConcurrencyServiceImpl::createRecorder);
+	}
+
+	@Override
+	public void removeSession(XDebugSession session)
+	{
+		PyConcurrencyEventRecorder recorder = myRecorders.remove(session);
+		if(recorder != null)
+		{
+			recorder.close();
+		}
+	}
+
+	@Override
+	public void dispose()
+	{
+		for(XDebugSession session : myRecorders.keySet())
+		{
+			removeSession(session);
+		}
+	}
+
+	@Nullable
+	private static PyConcurrencyEventRecorder createRecorder(XDebugSession session)
+	{
+		// runs under the map lock: the session is stopped before it is removed, a recorder put after that would never be closed
+		if(session.isStopped())
+		{
+			return null;
+		}
+		try
+		{
+			return new PyConcurrencyEventRecorder();
+		}
+		catch(IOException e)
+		{
+			LOG.warn("Can't record concurrency events", e);
+			return null;
+		}
+	}
+}
@@ -220,6 +220,11 @@ public class PyDebugProcess extends XDebugProcess implements IPyDebugProcess, Pr
           }
         }
       }
+
+      @Override
+      public void sessionStopped() {
+        PyConcurrencyService.getInstance(session.getProject()).removeSession(session);
+      }
     });
   }
 
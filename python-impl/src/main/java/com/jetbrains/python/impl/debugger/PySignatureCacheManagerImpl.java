@@ -19,13 +19,15 @@ package com.jetbrains.python.impl.debugger;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Lists;
+import com.google.common.cache.RemovalListener;
 import com.jetbrains.python.debugger.PySignature;
 import com.jetbrains.python.psi.PyClass;
 import com.jetbrains.python.psi.PyFunction;
 import consulo.annotation.component.ServiceImpl;
 import consulo.application.progress.ProgressManager;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.content.ContentIterator;
+import consulo.disposer.Disposable;
 import consulo.language.psi.PsiFile;
 import consulo.language.psi.scope.GlobalSearchScope;
 import consulo.logging.Logger;
@@ -33,8 +35,6 @@ import consulo.module.content.ProjectFileIndex;
 import consulo.project.Project;
 import consulo.project.content.scope.ProjectScopes;
 import consulo.ui.ex.awt.Messages;
-import consulo.util.collection.ArrayUtil;
-import consulo.util.lang.StringUtil;
 import consulo.util.lang.ref.Ref;
 import consulo.virtualFileSystem.FileAttribute;
 import consulo.virtualFileSystem.LocalFileSystem;
@@ -43,36 +43,54 @@ import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
 import org.jspecify.annotations.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Keeps the signatures collected by the debugger in a {@link PySignatureTable} per file, stored in a file attribute.
+ * Recorded signatures are written behind: changed tables are flushed a few seconds after the first change, when
+ * evicted from the cache and when the project is closed.
+ *
  * @author traff
  */
 @ServiceImpl
 @Singleton
-public class PySignatureCacheManagerImpl extends PySignatureCacheManager {
+public class PySignatureCacheManagerImpl extends PySignatureCacheManager implements Disposable {
   protected static final Logger LOG = Logger.getInstance(PySignatureCacheManagerImpl.class);
 
   private final static boolean SHOULD_OVERWRITE_TYPES = false;
 
-  public static final FileAttribute CALL_SIGNATURES_ATTRIBUTE = new FileAttribute("call.signatures.attribute", 1, true);
+  private static final int FLUSH_DELAY_SECONDS = 5;
+
+  public static final FileAttribute CALL_SIGNATURES_ATTRIBUTE = new FileAttribute("call.signatures.attribute", 2, false);
 
   private final Project myProject;
 
-  private final LoadingCache<VirtualFile, String> mySignatureCache = CacheBuilder.newBuilder()
+  private final LoadingCache<VirtualFile, PySignatureTable> mySignatureCache = CacheBuilder.newBuilder()
     .maximumSize(1000)
     .expireAfterAccess(10, TimeUnit.MINUTES)
+    .removalListener((RemovalListener<VirtualFile, PySignatureTable>)notification -> {
+      if (notification.getKey() != null && notification.getValue() != null && notification.getValue().isDirty()) {
+        writeTable(notification.getKey(), notification.getValue());
+      }
+    })
     .build(
-      new CacheLoader<VirtualFile, String>() {
+      new CacheLoader<VirtualFile, PySignatureTable>() {
         @Override
-        public String load(VirtualFile key) throws Exception {
-          return readAttributeFromFile(key);
+        public PySignatureTable load(VirtualFile key) throws Exception {
+          return readTable(key);
         }
       });
 
+  private final Set<VirtualFile> myDirtyFiles = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean myFlushScheduled = new AtomicBoolean();
+
   @Inject
   public PySignatureCacheManagerImpl(Project project) {
     myProject = project;
@@ -89,73 +107,54 @@ public class PySignatureCacheManagerImpl extends PySignatureCacheManager {
   }
 
   private void recordSignature(VirtualFile file, PySignature signature) {
-    String dataString = readAttribute(file);
-
-    String[] lines;
-    if (dataString != null) {
-      lines = dataString.split("\n");
-    }
-    else {
-      lines = ArrayUtil.EMPTY_STRING_ARRAY;
-    }
-
-    boolean found = false;
-    int i = 0;
-    for (String sign : lines) {
-      String[] parts = sign.split("\t");
-      if (parts.length > 0 && parts[0].equals(signature.getFunctionName())) {
-        found = true;
-        if (SHOULD_OVERWRITE_TYPES) {
-          lines[i] = signatureToString(signature);
-        }
-        else {
-          //noinspection ConstantConditions
-          lines[i] = signatureToString(stringToSignature(file.
-            getCanonicalPath(), lines[i]).addAllArgs(signature));
-        }
+    if (mySignatureCache.getUnchecked(file).record(signature, SHOULD_OVERWRITE_TYPES)) {
+      myDirtyFiles.add(file);
+      if (myFlushScheduled.compareAndSet(false, true)) {
+        AppExecutorUtil.getAppScheduledExecutorService().schedule(this::flush, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
       }
-      i++;
     }
-    if (!found) {
-      String[] lines2 = new String[lines.length + 1];
-      System.arraycopy(lines, 0, lines2, 0, lines.length);
+  }
 
-      lines2[lines2.length - 1] = signatureToString(signature);
-      lines = lines2;
+  private void flush() {
+    myFlushScheduled.set(false);
+    for (Iterator<VirtualFile> iterator = myDirtyFiles.iterator(); iterator.hasNext(); ) {
+      VirtualFile file = iterator.next();
+      iterator.remove();
+      // an evicted table was written by the removal listener
+      PySignatureTable table = mySignatureCache.getIfPresent(file);
+      if (table != null && table.isDirty()) {
+        writeTable(file, table);
+      }
     }
-
-    String attrString = StringUtil.join(lines, "\n");
-
-    writeAttribute(file, attrString);
   }
 
-  private void writeAttribute(VirtualFile file, String attrString) {
-    String cachedValue = mySignatureCache.asMap().get(file);
-    if (!attrString.equals(cachedValue)) {
-      mySignatureCache.put(file, attrString);
-      writeAttributeToAFile(file, attrString);
-    }
+  @Override
+  public void dispose() {
+    flush();
   }
 
-  private static void writeAttributeToAFile(VirtualFile file, String attrString) {
-    try {
-      CALL_SIGNATURES_ATTRIBUTE.writeAttributeBytes(file, attrString.getBytes());
+  private static PySignatureTable readTable(VirtualFile file) {
+    try (DataInputStream in = CALL_SIGNATURES_ATTRIBUTE.readAttribute(file)) {
+      if (in != null) {
+        return PySignatureTable.read(file.getCanonicalPath(), in);
+      }
     }
     catch (IOException e) {
-      LOG.warn("Can't write attribute " + file.getCanonicalPath() + " " + attrString);
+      LOG.warn("Can't read attribute " + file.getCanonicalPath(), e);
     }
+    return new PySignatureTable();
   }
 
-  private static String signatureToString(PySignature signature) {
-    return signature.getFunctionName() + "\t" + StringUtil.join(arguments(signature), "\t");
-  }
-
-  private static List<String> arguments(PySignature signature) {
-    List<String> res = Lists.newArrayList();
-    for (PySignature.NamedParameter param : signature.getArgs()) {
-      res.add(param.getName() + ":" + param.getTypeQualifiedName());
+  private static void writeTable(VirtualFile file, PySignatureTable table) {
+    if (!file.isValid()) {
+      return;
+    }
+    try (DataOutputStream out = CALL_SIGNATURES_ATTRIBUTE.writeAttribute(file)) {
+      table.write(out);
+    }
+    catch (IOException e) {
+      LOG.warn("Can't write attribute " + file.getCanonicalPath(), e);
     }
-    return res;
   }
 
   @Nullable
@@ -195,72 +194,7 @@ public class PySignatureCacheManagerImpl extends PySignatureCacheManager {
 
   @Nullable
   private PySignature readSignatureAttributeFromFile(VirtualFile file, String name) {
-    String content = readAttribute(file);
-
-    if (content != null) {
-      String[] lines = content.split("\n");
-      for (String sign : lines) {
-        String[] parts = sign.split("\t");
-        if (parts.length > 0 && parts[0].equals(name)) {
-          return stringToSignature(file.getCanonicalPath(), sign);
-        }
-      }
-    }
-
-    return null;
-  }
-
-  @Nullable
-  private String readAttribute(VirtualFile file) {
-    try {
-      String attrContent = mySignatureCache.get(file);
-      if (!StringUtil.isEmpty(attrContent)) {
-        return attrContent;
-      }
-    }
-    catch (ExecutionException e) {
-      //pass
-    }
-    return null;
-  }
-
-  private static String readAttributeFromFile(VirtualFile file) {
-    byte[] data;
-    try {
-      data = CALL_SIGNATURES_ATTRIBUTE.readAttributeBytes(file);
-    }
-    catch (Exception e) {
-      data = null;
-    }
-
-    String content;
-    if (data != null && data.length > 0) {
-      content = new String(data);
-    }
-    else {
-      content = null;
-    }
-    return content != null ? content : "";
-  }
-
-
-  @Nullable
-  private static PySignature stringToSignature(String path, String string) {
-    String[] parts = string.split("\t");
-    if (parts.length > 0) {
-      PySignature signature = new PySignature(path, parts[0]);
-      for (int i = 1; i < parts.length; i++) {
-        String[] var = parts[i].split(":");
-        if (var.length == 2) {
-          signature = signature.addArgument(var[0], var[1]);
-        }
-        else {
-          throw new IllegalStateException("Should be <name>:<type> format. " + parts[i] + " instead.");
-        }
-      }
-      return signature;
-    }
-    return null;
+    return mySignatureCache.getUnchecked(file).find(file.getCanonicalPath(), name);
   }
 
   @Nullable
@@ -286,8 +220,10 @@ public class PySignatureCacheManagerImpl extends PySignatureCacheManager {
         ProjectFileIndex.SERVICE.getInstance(myProject).iterateContent(new ContentIterator() {
           @Override
           public boolean processFile(VirtualFile fileOrDir) {
-            if (readAttribute(fileOrDir) != null) {
-              writeAttribute(fileOrDir, "");
+            PySignatureTable table = mySignatureCache.getUnchecked(fileOrDir);
+            if (table.clear()) {
+              myDirtyFiles.remove(fileOrDir);
+              writeTable(fileOrDir, table);
               deleted.set(true);
             }
             if (ProgressManager.getInstance().getProgressIndicator().isCanceled()) {
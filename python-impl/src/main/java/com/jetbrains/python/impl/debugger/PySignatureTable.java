@@ -0,0 +1,142 @@
+package com.jetbrains.python.impl.debugger;
+
+import com.jetbrains.python.debugger.PySignature;
+import consulo.index.io.data.DataInputOutputUtil;
+
+import org.jspecify.annotations.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The call signatures collected for a file, by qualified function name.
+ * <p>
+ * The binary form is the number of functions followed, for every function, by its name, the number of arguments
+ * and the name and types of every argument. The signatures handed out are copies. Thread-safe.
+ */
+final class PySignatureTable {
+  private final Map<String, PySignature> mySignatures = new LinkedHashMap<>();
+  private boolean myDirty;
+
+  /**
+   * Adds the types of the arguments of the signature to the recorded ones, or replaces them.
+   *
+   * @return true if the table changed
+   */
+  synchronized boolean record(PySignature signature, boolean overwriteTypes) {
+    PySignature recorded = mySignatures.get(signature.getFunctionName());
+    if (recorded == null || overwriteTypes) {
+      mySignatures.put(signature.getFunctionName(), copy(signature.getFile(), signature));
+      myDirty = true;
+      return true;
+    }
+    boolean changed = false;
+    for (PySignature.NamedParameter param : signature.getArgs()) {
+      PySignature.NamedParameter recordedParam = findArgument(recorded, param.getName());
+      if (recordedParam == null) {
+        addArgument(recorded, param.getName(), param.getTypesList());
+        changed = true;
+      }
+      else {
+        for (String type : param.getTypesList()) {
+          if (!recordedParam.getTypesList().contains(type)) {
+            recordedParam.addType(type);
+            changed = true;
+          }
+        }
+      }
+    }
+    myDirty |= changed;
+    return changed;
+  }
+
+  @Nullable
+  synchronized PySignature find(String path, String functionName) {
+    PySignature recorded = mySignatures.get(functionName);
+    return recorded != null ? copy(path, recorded) : null;
+  }
+
+  /**
+   * @return false if the table was empty
+   */
+  synchronized boolean clear() {
+    if (mySignatures.isEmpty()) {
+      return false;
+    }
+    mySignatures.clear();
+    myDirty = true;
+    return true;
+  }
+
+  synchronized boolean isDirty() {
+    return myDirty;
+  }
+
+  synchronized void write(DataOutput out) throws IOException {
+    DataInputOutputUtil.writeINT(out, mySignatures.size());
+    for (PySignature signature : mySignatures.values()) {
+      out.writeUTF(signature.getFunctionName());
+      DataInputOutputUtil.writeINT(out, signature.getArgs().size());
+      for (PySignature.NamedParameter param : signature.getArgs()) {
+        out.writeUTF(param.getName());
+        DataInputOutputUtil.writeINT(out, param.getTypesList().size());
+        for (String type : param.getTypesList()) {
+          out.writeUTF(type);
+        }
+      }
+    }
+    myDirty = false;
+  }
+
+  static PySignatureTable read(String path, DataInput in) throws IOException {
+    PySignatureTable table = new PySignatureTable();
+    int functionCount = DataInputOutputUtil.readINT(in);
+    for (int i = 0; i < functionCount; i++) {
+      PySignature signature = new PySignature(path, in.readUTF());
+      int argCount = DataInputOutputUtil.readINT(in);
+      for (int j = 0; j < argCount; j++) {
+        String name = in.readUTF();
+        int typeCount = DataInputOutputUtil.readINT(in);
+        List<String> types = new ArrayList<>(typeCount);
+        for (int k = 0; k < typeCount; k++) {
+          types.add(in.readUTF());
+        }
+        addArgument(signature, name, types);
+      }
+      table.mySignatures.put(signature.getFunctionName(), signature);
+    }
+    return table;
+  }
+
+  private static PySignature copy(String path, PySignature signature) {
+    PySignature result = new PySignature(path, signature.getFunctionName());
+    for (PySignature.NamedParameter param : signature.getArgs()) {
+      addArgument(result, param.getName(), param.getTypesList());
+    }
+    return result;
+  }
+
+  private static void addArgument(PySignature signature, String name, List<String> types) {
+    if (types.isEmpty()) {
+      return;
+    }
+    signature.addArgument(name, types.get(0));
+    findArgument(signature, name).addTypes(types.subList(1, types.size()));
+  }
+
+  @Nullable
+  private static PySignature.NamedParameter findArgument(PySignature signature, String name) {
+    List<PySignature.NamedParameter> args = signature.getArgs();
+    // arguments are looked up right after being added, search from the end
+    for (int i = args.size() - 1; i >= 0; i--) {
+      if (args.get(i).getName().equals(name)) {
+        return args.get(i);
+      }
+    }
+    return null;
+  }
+}
@@ -64,10 +64,12 @@ class ArrayTableCellRenderer extends DefaultTableCellRenderer implements Colored
 	@Override
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int col)
 	{
-		super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, col);
-		if(value != null)
+		// cells of binary chunks format their value on every toString()
+		String text = value != null ? value.toString() : null;
+		super.getTableCellRendererComponent(table, text, isSelected, hasFocus, row, col);
+		if(text != null)
 		{
-			setText(value.toString());
+			setText(text);
 		}
 
 		if(hasFocus)
@@ -77,11 +79,11 @@ class ArrayTableCellRenderer extends DefaultTableCellRenderer implements Colored
 
 		if(myMax != myMin)
 		{
-			if(myColored && value != null)
+			if(myColored && text != null)
 			{
 				try
 				{
-					double rangedValue = PyNumericViewUtil.getRangedValue(value.toString(), myType, myMin, myMax, myComplexMax, myComplexMin);
+					double rangedValue = PyNumericViewUtil.getRangedValue(text, myType, myMin, myMax, myComplexMax, myComplexMin);
 					this.setBackground(PyNumericViewUtil.rangedValueToColor(rangedValue));
 				}
 				catch(NumberFormatException ignored)
@@ -15,34 +15,46 @@
  */
 package com.jetbrains.python.impl.debugger.array;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableModel;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
 import consulo.util.lang.Pair;
 import consulo.util.concurrent.ConcurrencyUtil;
 import consulo.ui.ex.awt.UIUtil;
 import com.jetbrains.python.debugger.ArrayChunk;
-import com.jetbrains.python.debugger.ArrayChunkBuilder;
+import com.jetbrains.python.debugger.ArrayChunkColumn;
 
 /**
+ * Loads the values of an array from the debugger on demand, in chunks of {@link #CHUNK_ROW_SIZE} x {@link #CHUNK_COL_SIZE}
+ * cells.
+ * <p>
+ * A request loads a block of several chunks, sized by the visible part of the table and by how long the previous
+ * requests took. While the table is scrolled, the block beyond the visible part is prefetched in the scroll direction,
+ * and requests which haven't started yet are cancelled once their block is out of sight, see {@link #setViewport}.
+ * The loaded chunks are kept in an LRU cache bounded by the number of cells.
+ *
  * @author traff
  */
 public class AsyncArrayTableModel extends AbstractTableModel
 {
 	private static final int CHUNK_COL_SIZE = 30;
 	private static final int CHUNK_ROW_SIZE = 30;
+	// pydevd sends at most MAXIMUM_ARRAY_SIZE (100) rows and columns of an array at once
+	private static final int MAX_REQUEST_CHUNKS = 3;
+	private static final int TARGET_REQUEST_MILLIS = 300;
+	private static final long MAX_CACHED_CELLS = 200_000;
 	public static final String EMPTY_CELL_VALUE = "";
 
 	private int myRows;
@@ -52,24 +64,22 @@ public class AsyncArrayTableModel extends AbstractTableModel
 
 	private final ExecutorService myExecutorService = ConcurrencyUtil.newSingleThreadExecutor("Python async table");
 
+	private final Cache<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>> myChunkCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_CACHED_CELLS)
+			.weigher((Pair<Integer, Integer> key, ListenableFuture<ArrayChunk> chunk) -> getChunkRows(key.first) * getChunkColumns(key.second))
+			.build();
+	private final Set<ChunkRequest> myRequests = ConcurrentHashMap.newKeySet();
 
-	private LoadingCache<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>> myChunkCache = CacheBuilder.newBuilder().build(new CacheLoader<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>>()
-	{
-		@Override
-		public ListenableFuture<ArrayChunk> load(Pair<Integer, Integer> key) throws Exception
-		{
-
-			ListenableFutureTask<ArrayChunk> task = ListenableFutureTask.create(() -> {
-				ArrayChunk chunk = myProvider.getChunk(key.first, key.second, Math.min(CHUNK_ROW_SIZE, getRowCount() - key.first), Math.min(CHUNK_COL_SIZE, getColumnCount() - key.second));
-				handleChunkAdded(key.first, key.second, chunk);
-				return chunk;
-			});
-
-			myExecutorService.execute(task);
+	// the visible cells and the direction of the last scroll, changed in the EDT
+	private int myFirstVisibleRow;
+	private int myLastVisibleRow = CHUNK_ROW_SIZE - 1;
+	private int myFirstVisibleCol;
+	private int myLastVisibleCol = CHUNK_COL_SIZE - 1;
+	private boolean myScrolledUp;
+	private boolean myScrolledLeft;
 
-			return task;
-		}
-	});
+	// exponential moving average of the time a request takes per cell, 0 until the first request completes
+	private volatile double myMillisPerCell;
 
 	public AsyncArrayTableModel(int rows, int columns, TableChunkDatasource provider)
 	{
@@ -91,26 +101,27 @@ public class AsyncArrayTableModel extends AbstractTableModel
 
 		try
 		{
-			ListenableFuture<ArrayChunk> chunk = myChunkCache.get(key);
-
-			if(chunk.isDone())
+			ListenableFuture<ArrayChunk> chunk = myChunkCache.getIfPresent(key);
+			if(chunk == null || chunk.isCancelled())
 			{
-				Object[][] data = chunk.get().getData();
+				requestChunks(key.first, key.second, myScrolledUp, myScrolledLeft);
+			}
+			else if(chunk.isDone())
+			{
+				ArrayChunk data = chunk.get();
 				int r = row % CHUNK_ROW_SIZE;
 				int c = col % CHUNK_COL_SIZE;
 
-				if(r < data.length)
+				if(r < data.getDataRowCount())
 				{
-					if(c < data[r].length)
+					if(c < data.getDataColumnCount())
 					{
-						return myProvider.correctStringValue(data[r][c]);
+						Object value = data.getCell(r, c);
+						// cells of binary chunks are formatted when rendered
+						return value instanceof ArrayChunkColumn.Cell ? value : myProvider.correctStringValue(value);
 					}
 				}
 			}
-			else
-			{
-				chunk.addListener(() -> UIUtil.invokeLaterIfNeeded(() -> fireTableCellUpdated(row, col)), myExecutorService);
-			}
 			return EMPTY_CELL_VALUE;
 		}
 		catch(Exception e)
@@ -120,6 +131,154 @@ public class AsyncArrayTableModel extends AbstractTableModel
 		}
 	}
 
+	/**
+	 * Tells which cells are visible, to size and prefetch the requests. Should be called in the EDT whenever the table
+	 * is scrolled or resized.
+	 */
+	public void setViewport(int firstRow, int lastRow, int firstCol, int lastCol)
+	{
+		boolean scrolledRows = firstRow != myFirstVisibleRow;
+		boolean scrolledColumns = firstCol != myFirstVisibleCol;
+		if(scrolledRows)
+		{
+			myScrolledUp = firstRow < myFirstVisibleRow;
+		}
+		if(scrolledColumns)
+		{
+			myScrolledLeft = firstCol < myFirstVisibleCol;
+		}
+		myFirstVisibleRow = firstRow;
+		myLastVisibleRow = lastRow;
+		myFirstVisibleCol = firstCol;
+		myLastVisibleCol = lastCol;
+
+		// keep the requests of the visible cells and of a block around them
+		int rowMargin = getRequestRowChunks() * CHUNK_ROW_SIZE;
+		int colMargin = getRequestColChunks() * CHUNK_COL_SIZE;
+		for(ChunkRequest request : myRequests)
+		{
+			if(!request.intersects(firstRow - rowMargin, lastRow + rowMargin, firstCol - colMargin, lastCol + colMargin))
+			{
+				request.cancel();
+			}
+		}
+
+		// the visible chunks go first, the requests are executed in order
+		for(int row = getPageRowStart(firstRow); row <= lastRow; row += CHUNK_ROW_SIZE)
+		{
+			for(int col = getPageColStart(firstCol); col <= lastCol; col += CHUNK_COL_SIZE)
+			{
+				if(isMissing(row, col))
+				{
+					requestChunks(row, col, myScrolledUp, myScrolledLeft);
+				}
+			}
+		}
+
+		if(scrolledRows || !scrolledColumns)
+		{
+			int rowStart = myScrolledUp ? getPageRowStart(firstRow) - CHUNK_ROW_SIZE : getPageRowStart(lastRow) + CHUNK_ROW_SIZE;
+			if(rowStart >= 0 && rowStart < myRows && isMissing(rowStart, firstCol))
+			{
+				requestChunks(rowStart, getPageColStart(firstCol), myScrolledUp, false);
+			}
+		}
+		if(scrolledColumns)
+		{
+			int colStart = myScrolledLeft ? getPageColStart(firstCol) - CHUNK_COL_SIZE : getPageColStart(lastCol) + CHUNK_COL_SIZE;
+			if(colStart >= 0 && colStart < myColumns && isMissing(firstRow, colStart))
+			{
+				requestChunks(getPageRowStart(firstRow), colStart, false, myScrolledLeft);
+			}
+		}
+	}
+
+	private boolean isMissing(int row, int col)
+	{
+		ListenableFuture<ArrayChunk> chunk = myChunkCache.getIfPresent(itemToChunkKey(row, col));
+		return chunk == null || chunk.isCancelled();
+	}
+
+	/**
+	 * Requests the block of chunks starting with the given chunk and extending up or down and left or right of it.
+	 * Chunks of the block which are already cached or requested aren't replaced.
+	 */
+	private void requestChunks(int chunkRowStart, int chunkColStart, boolean up, boolean left)
+	{
+		int rowChunks = getRequestRowChunks();
+		int colChunks = getRequestColChunks();
+		int rowStart = up ? Math.max(0, chunkRowStart - (rowChunks - 1) * CHUNK_ROW_SIZE) : chunkRowStart;
+		int colStart = left ? Math.max(0, chunkColStart - (colChunks - 1) * CHUNK_COL_SIZE) : chunkColStart;
+		int rows = Math.min(rowChunks * CHUNK_ROW_SIZE, myRows - rowStart);
+		int cols = Math.min(colChunks * CHUNK_COL_SIZE, myColumns - colStart);
+
+		ChunkRequest request = new ChunkRequest(rowStart, colStart, rows, cols);
+		Map<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>> cache = myChunkCache.asMap();
+		for(int r = rowStart; r < rowStart + rows; r += CHUNK_ROW_SIZE)
+		{
+			for(int c = colStart; c < colStart + cols; c += CHUNK_COL_SIZE)
+			{
+				Pair<Integer, Integer> key = itemToChunkKey(r, c);
+				ListenableFuture<ArrayChunk> cached = cache.get(key);
+				if(cached != null && !cached.isCancelled())
+				{
+					continue;
+				}
+				ListenableFuture<ArrayChunk> chunk = request.getChunk(r - rowStart, c - colStart);
+				if(cached == null ? cache.putIfAbsent(key, chunk) == null : cache.replace(key, cached, chunk))
+				{
+					request.myChunks.put(key, chunk);
+				}
+			}
+		}
+		if(request.myChunks.isEmpty())
+		{
+			return;
+		}
+		myRequests.add(request);
+		myExecutorService.execute(request.myTask);
+	}
+
+	private int getRequestRowChunks()
+	{
+		int visibleChunks = (myLastVisibleRow - myFirstVisibleRow) / CHUNK_ROW_SIZE + 1;
+		// a chunk more than visible, to have the next one prefetched while the first ones are shown
+		return Math.max(1, Math.min(Math.min(visibleChunks + 1, MAX_REQUEST_CHUNKS), getChunksWithinTargetTime() / getRequestColChunks()));
+	}
+
+	private int getRequestColChunks()
+	{
+		int visibleChunks = (myLastVisibleCol - myFirstVisibleCol) / CHUNK_COL_SIZE + 1;
+		return Math.max(1, Math.min(visibleChunks, MAX_REQUEST_CHUNKS));
+	}
+
+	private int getChunksWithinTargetTime()
+	{
+		double millisPerCell = myMillisPerCell;
+		if(millisPerCell == 0)
+		{
+			return MAX_REQUEST_CHUNKS * MAX_REQUEST_CHUNKS;
+		}
+		return (int) Math.min(MAX_REQUEST_CHUNKS * MAX_REQUEST_CHUNKS, TARGET_REQUEST_MILLIS / (millisPerCell * CHUNK_ROW_SIZE * CHUNK_COL_SIZE));
+	}
+
+	private void recordRequestTime(long millis, int cells)
+	{
+		double millisPerCell = (double) millis / Math.max(1, cells);
+		double average = myMillisPerCell;
+		myMillisPerCell = average == 0 ? millisPerCell : 0.7 * average + 0.3 * millisPerCell;
+	}
+
+	private int getChunkRows(int rowStart)
+	{
+		return Math.max(1, Math.min(CHUNK_ROW_SIZE, myRows - rowStart));
+	}
+
+	private int getChunkColumns(int colStart)
+	{
+		return Math.max(1, Math.min(CHUNK_COL_SIZE, myColumns - colStart));
+	}
+
 	private static Pair<Integer, Integer> itemToChunkKey(int row, int col)
 	{
 		return Pair.create(getPageRowStart(row), getPageColStart(col));
@@ -160,7 +319,12 @@ public class AsyncArrayTableModel extends AbstractTableModel
 		{
 			try
 			{
-				chunk.get().getData()[row - getPageRowStart(row)][col - getPageColStart(col)] = value;
+				Object[][] data = chunk.get().getData();
+				if(data == null)
+				{
+					throw new IllegalArgumentException("Forced to change a cell of a binary chunk in " + row + " row and " + col + " column.");
+				}
+				data[row - getPageRowStart(row)][col - getPageColStart(col)] = value;
 			}
 			catch(Exception e)
 			{
@@ -175,59 +339,14 @@ public class AsyncArrayTableModel extends AbstractTableModel
 
 	public void addToCache(final ArrayChunk chunk)
 	{
-		Object[][] data = chunk.getData();
-		int cols = data.length;
-		int rows = data[0].length;
-		for(int roffset = 0; roffset < rows / CHUNK_ROW_SIZE; roffset++)
+		int rows = chunk.getDataRowCount();
+		int cols = chunk.getDataColumnCount();
+		for(int rowStart = 0; rowStart < rows; rowStart += CHUNK_ROW_SIZE)
 		{
-			for(int coffset = 0; coffset < cols / CHUNK_COL_SIZE; coffset++)
+			for(int colStart = 0; colStart < cols; colStart += CHUNK_COL_SIZE)
 			{
-				Pair<Integer, Integer> key = itemToChunkKey(roffset * CHUNK_ROW_SIZE, coffset * CHUNK_COL_SIZE);
-				final Object[][] chunkData = new Object[CHUNK_ROW_SIZE][CHUNK_COL_SIZE];
-				for(int r = 0; r < CHUNK_ROW_SIZE; r++)
-				{
-					System.arraycopy(data[roffset * CHUNK_ROW_SIZE + r], coffset * 30, chunkData[r], 0, CHUNK_COL_SIZE);
-				}
-				myChunkCache.put(key, new ListenableFuture<ArrayChunk>()
-				{
-					@Override
-					public void addListener(Runnable listener, Executor executor)
-					{
-
-					}
-
-					@Override
-					public boolean cancel(boolean mayInterruptIfRunning)
-					{
-						return false;
-					}
-
-					@Override
-					public boolean isCancelled()
-					{
-						return false;
-					}
-
-					@Override
-					public boolean isDone()
-					{
-						return true;
-					}
-
-					@Override
-					public ArrayChunk get() throws InterruptedException, ExecutionException
-					{
-						return new ArrayChunkBuilder().setValue(chunk.getValue()).setSlicePresentation(null).setRows(0).setColumns(0).setMax(null).setMin(null).setFormat(null).setType(null).setData
-								(chunkData).createArrayChunk();
-					}
-
-					@Override
-					public ArrayChunk get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
-					{
-						return new ArrayChunkBuilder().setValue(chunk.getValue()).setSlicePresentation(null).setRows(0).setColumns(0).setMax(null).setMin(null).setFormat(null).setType(null).setData
-								(chunkData).createArrayChunk();
-					}
-				});
+				ArrayChunk chunkData = chunk.getDataSlice(rowStart, colStart, Math.min(CHUNK_ROW_SIZE, rows - rowStart), Math.min(CHUNK_COL_SIZE, cols - colStart));
+				myChunkCache.put(itemToChunkKey(rowStart, colStart), Futures.immediateFuture(chunkData));
 			}
 		}
 		handleChunkAdded(0, 0, chunk);
@@ -238,6 +357,71 @@ public class AsyncArrayTableModel extends AbstractTableModel
 
 	}
 
+	/**
+	 * A block of chunks loaded by a single request to the debugger.
+	 */
+	private class ChunkRequest
+	{
+		private final int myRowStart;
+		private final int myColStart;
+		private final int myRowCount;
+		private final int myColCount;
+		private final ListenableFutureTask<ArrayChunk> myTask;
+		private final Map<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>> myChunks = new ConcurrentHashMap<>();
+		private volatile boolean myStarted;
+
+		private ChunkRequest(int rowStart, int colStart, int rows, int cols)
+		{
+			myRowStart = rowStart;
+			myColStart = colStart;
+			myRowCount = rows;
+			myColCount = cols;
+			myTask = ListenableFutureTask.create(() -> {
+				myStarted = true;
+				long start = System.currentTimeMillis();
+				ArrayChunk chunk = myProvider.getChunk(myRowStart, myColStart, myRowCount, myColCount);
+				recordRequestTime(System.currentTimeMillis() - start, myRowCount * myColCount);
+				handleChunkAdded(myRowStart, myColStart, chunk);
+				return chunk;
+			});
+			myTask.addListener(() -> {
+				myRequests.remove(this);
+				if(!myTask.isCancelled())
+				{
+					UIUtil.invokeLaterIfNeeded(() -> fireTableRowsUpdated(myRowStart, myRowStart + myRowCount - 1));
+				}
+			}, MoreExecutors.directExecutor());
+		}
+
+		private ListenableFuture<ArrayChunk> getChunk(int rowOffset, int colOffset)
+		{
+			// cancelling a chunk mustn't cancel the whole request
+			ListenableFuture<ArrayChunk> task = Futures.nonCancellationPropagating(myTask);
+			return Futures.transform(task, chunk -> {
+				int rows = Math.max(0, Math.min(CHUNK_ROW_SIZE, chunk.getDataRowCount() - rowOffset));
+				int cols = Math.max(0, Math.min(CHUNK_COL_SIZE, chunk.getDataColumnCount() - colOffset));
+				return chunk.getDataSlice(rowOffset, colOffset, rows, cols);
+			}, MoreExecutors.directExecutor());
+		}
+
+		private boolean intersects(int firstRow, int lastRow, int firstCol, int lastCol)
+		{
+			return myRowStart <= lastRow && firstRow < myRowStart + myRowCount && myColStart <= lastCol && firstCol < myColStart + myColCount;
+		}
+
+		/**
+		 * Cancels the request unless it has started, so that the chunks are requested again once they are visible.
+		 */
+		private void cancel()
+		{
+			if(!myStarted && myTask.cancel(false))
+			{
+				Map<Pair<Integer, Integer>, ListenableFuture<ArrayChunk>> cache = myChunkCache.asMap();
+				myChunks.forEach(cache::remove);
+			}
+		}
+	}
+
 	public TableModel getRowHeaderModel()
 	{
 		return new RowNumberHeaderModel();
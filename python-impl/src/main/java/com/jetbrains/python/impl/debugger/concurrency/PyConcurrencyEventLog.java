@@ -0,0 +1,249 @@
+package com.jetbrains.python.impl.debugger.concurrency;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jetbrains.python.debugger.PyConcurrencyEvent;
+import com.jetbrains.python.debugger.PyLockEvent;
+import com.jetbrains.python.debugger.PySourcePosition;
+import com.jetbrains.python.debugger.PyStackFrameInfo;
+import com.jetbrains.python.debugger.PyThreadEvent;
+import consulo.index.io.data.DataInputOutputUtil;
+
+/**
+ * The events of a session appended to a memory-mapped temporary file, to be read back by index.
+ * <p>
+ * The file is mapped in segments, an event is a record of its length and its encoding, never split between segments:
+ * a zero length marks the unused end of a segment. Strings are stored once, the records refer to them by number.
+ * The offset of every {@link #INDEX_INTERVAL}th event is kept to find events without reading the file from the start.
+ * Thread-safe.
+ */
+final class PyConcurrencyEventLog implements Closeable
+{
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int INDEX_INTERVAL = 256;
+
+	private static final byte THREAD_EVENT = 0;
+	private static final byte LOCK_EVENT = 1;
+
+	private final Path myFile;
+	private final FileChannel myChannel;
+	private final List<MappedByteBuffer> mySegments = new ArrayList<>();
+	// the offset after the last event
+	private long myEnd;
+	private int myEventCount;
+	private long[] myIndex = new long[64];
+
+	private final Map<String, Integer> myStringIds = new HashMap<>();
+	private final List<String> myStrings = new ArrayList<>();
+
+	private final ByteArrayOutputStream myRecordBytes = new ByteArrayOutputStream();
+	private final DataOutputStream myRecordOutput = new DataOutputStream(myRecordBytes);
+
+	PyConcurrencyEventLog() throws IOException
+	{
+		myFile = Files.createTempFile("python-concurrency-events", ".log");
+		myFile.toFile().deleteOnExit();
+		myChannel = FileChannel.open(myFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	synchronized int getEventCount()
+	{
+		return myEventCount;
+	}
+
+	/**
+	 * @return false if the event is too big to be stored
+	 */
+	synchronized boolean append(PyConcurrencyEvent event) throws IOException
+	{
+		myRecordBytes.reset();
+		writeEvent(myRecordOutput, event);
+		int length = myRecordBytes.size();
+		if(length + 2 * Integer.BYTES > SEGMENT_SIZE)
+		{
+			return false;
+		}
+		int position = (int) (myEnd % SEGMENT_SIZE);
+		// leave room for the zero length marking the end of the segment
+		if(position + Integer.BYTES + length + Integer.BYTES > SEGMENT_SIZE)
+		{
+			getSegment(myEnd).putInt(position, 0);
+			myEnd += SEGMENT_SIZE - position;
+			position = 0;
+		}
+		MappedByteBuffer segment = getSegment(myEnd);
+		segment.putInt(position, length);
+		segment.put(position + Integer.BYTES, myRecordBytes.toByteArray(), 0, length);
+
+		if(myEventCount % INDEX_INTERVAL == 0)
+		{
+			int entry = myEventCount / INDEX_INTERVAL;
+			if(entry == myIndex.length)
+			{
+				myIndex = Arrays.copyOf(myIndex, 2 * entry);
+			}
+			myIndex[entry] = myEnd;
+		}
+		myEnd += Integer.BYTES + length;
+		myEventCount++;
+		return true;
+	}
+
+	/**
+	 * @return the events from the given index on, fewer than asked for at the end of the log
+	 */
+	synchronized List<PyConcurrencyEvent> read(int from, int count) throws IOException
+	{
+		if(from < 0 || count < 0)
+		{
+			throw new IndexOutOfBoundsException("Events " + from + ".." + (from + count));
+		}
+		if(from >= myEventCount)
+		{
+			return new ArrayList<>();
+		}
+		int end = count > myEventCount - from ? myEventCount : from + count;
+		List<PyConcurrencyEvent> events = new ArrayList<>(end - from);
+		long offset = myIndex[from / INDEX_INTERVAL];
+		for(int i = from - from % INDEX_INTERVAL; i < end; i++)
+		{
+			MappedByteBuffer segment = getSegment(offset);
+			int position = (int) (offset % SEGMENT_SIZE);
+			int length = position + Integer.BYTES <= SEGMENT_SIZE ? segment.getInt(position) : 0;
+			if(length == 0)
+			{
+				// the rest of the segment is unused
+				offset += SEGMENT_SIZE - position;
+				i--;
+				continue;
+			}
+			if(i >= from)
+			{
+				byte[] record = new byte[length];
+				segment.get(position + Integer.BYTES, record);
+				events.add(readEvent(new DataInputStream(new ByteArrayInputStream(record))));
+			}
+			offset += Integer.BYTES + length;
+		}
+		return events;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		mySegments.clear();
+		myChannel.close();
+		// a mapped file can't be deleted on Windows until the mapping is collected, it is deleted on exit then
+		Files.deleteIfExists(myFile);
+	}
+
+	private MappedByteBuffer getSegment(long offset) throws IOException
+	{
+		int index = (int) (offset / SEGMENT_SIZE);
+		while(mySegments.size() <= index)
+		{
+			mySegments.add(myChannel.map(FileChannel.MapMode.READ_WRITE, (long) mySegments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+		}
+		return mySegments.get(index);
+	}
+
+	private void writeEvent(DataOutput out, PyConcurrencyEvent event) throws IOException
+	{
+		boolean isLock = event instanceof PyLockEvent;
+		out.writeByte(isLock ? LOCK_EVENT : THREAD_EVENT);
+		out.writeBoolean(event.isAsyncio());
+		out.writeByte(event.getType().ordinal());
+		out.writeLong(event.getTime());
+		writeString(out, event.getThreadId());
+		writeString(out, event.getThreadName());
+		writeString(out, isLock ? ((PyLockEvent) event).getLockId() : ((PyThreadEvent) event).getParentThreadId());
+		writeString(out, event.getFileName());
+		Integer line = event.getLine();
+		DataInputOutputUtil.writeINT(out, line != null ? line : 0);
+		List<PyStackFrameInfo> frames = event.getFrames() != null ? event.getFrames() : List.of();
+		DataInputOutputUtil.writeINT(out, frames.size());
+		for(PyStackFrameInfo frame : frames)
+		{
+			writeString(out, frame.getId());
+			writeString(out, frame.getName());
+			PySourcePosition position = frame.getPosition();
+			writeString(out, position != null ? position.getFile() : null);
+			DataInputOutputUtil.writeINT(out, position != null ? position.getLine() : 0);
+		}
+	}
+
+	private PyConcurrencyEvent readEvent(DataInput in) throws IOException
+	{
+		boolean isLock = in.readByte() == LOCK_EVENT;
+		boolean isAsyncio = in.readBoolean();
+		PyConcurrencyEvent.EventType type = PyConcurrencyEvent.EventType.values()[in.readByte()];
+		long time = in.readLong();
+		String threadId = readString(in);
+		String name = readString(in);
+		String id = readString(in);
+		PyConcurrencyEvent event = isLock ? new PyLockEvent(time, threadId, name, id, isAsyncio) : new PyThreadEvent(time, threadId, name, id, isAsyncio);
+		event.setType(type);
+		event.setFileName(readString(in));
+		event.setLine(DataInputOutputUtil.readINT(in));
+		int frameCount = DataInputOutputUtil.readINT(in);
+		List<PyStackFrameInfo> frames = new ArrayList<>(frameCount);
+		for(int i = 0; i < frameCount; i++)
+		{
+			String frameId = readString(in);
+			String frameName = readString(in);
+			String file = readString(in);
+			int line = DataInputOutputUtil.readINT(in);
+			frames.add(new PyStackFrameInfo(threadId, frameId, frameName, file != null ? new LoggedSourcePosition(file, line) : null));
+		}
+		event.setFrames(frames);
+		return event;
+	}
+
+	private void writeString(DataOutput out, String value) throws IOException
+	{
+		if(value == null)
+		{
+			DataInputOutputUtil.writeINT(out, 0);
+			return;
+		}
+		Integer id = myStringIds.get(value);
+		if(id == null)
+		{
+			myStrings.add(value);
+			id = myStrings.size();
+			myStringIds.put(value, id);
+		}
+		DataInputOutputUtil.writeINT(out, id);
+	}
+
+	private String readString(DataInput in) throws IOException
+	{
+		int id = DataInputOutputUtil.readINT(in);
+		return id == 0 ? null : myStrings.get(id - 1);
+	}
+
+	private static final class LoggedSourcePosition extends PySourcePosition
+	{
+		private LoggedSourcePosition(String file, int line)
+		{
+			super(file, line);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.jetbrains.python.impl.debugger.concurrency;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jetbrains.python.debugger.PyConcurrencyEvent;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.logging.Logger;
+
+/**
+ * Records the concurrency events of a debug session.
+ * <p>
+ * The debugger thread only puts an event into a {@link PyConcurrencyEventRing}, a single pooled thread moves the
+ * events to a {@link PyConcurrencyEventLog} on disk, from which they are read back by index. When the events come in
+ * faster than they are written and the ring is full, the new ones are dropped and counted rather than blocking the
+ * debugger.
+ */
+public final class PyConcurrencyEventRecorder
+{
+	private static final Logger LOG = Logger.getInstance(PyConcurrencyEventRecorder.class);
+
+	private static final int RING_CAPACITY = 1 << 16;
+
+	private final PyConcurrencyEventRing myRing = new PyConcurrencyEventRing(RING_CAPACITY);
+	private final PyConcurrencyEventLog myLog;
+	private final ExecutorService myWriter = AppExecutorUtil.createBoundedApplicationPoolExecutor("PyConcurrencyEventRecorder writer", 1);
+	private final AtomicBoolean myWriteScheduled = new AtomicBoolean();
+	private volatile boolean myClosed;
+
+	private final LongAdder myReceivedCount = new LongAdder();
+	private final LongAdder myDroppedCount = new LongAdder();
+
+	// the rate is measured by the writer thread over the events written in a second
+	private long myRateWindowStart = System.nanoTime();
+	private long myRateWindowCount;
+	private volatile long myEventsPerSecond;
+
+	public PyConcurrencyEventRecorder() throws IOException
+	{
+		myLog = new PyConcurrencyEventLog();
+	}
+
+	/**
+	 * Never blocks, can be called from any thread.
+	 */
+	public void record(PyConcurrencyEvent event)
+	{
+		if(myClosed)
+		{
+			return;
+		}
+		myReceivedCount.increment();
+		if(!myRing.offer(event))
+		{
+			myDroppedCount.increment();
+			return;
+		}
+		if(myWriteScheduled.compareAndSet(false, true))
+		{
+			myWriter.execute(this::write);
+		}
+	}
+
+	/**
+	 * @return the number of events that can be read, the events still waiting to be written are not counted
+	 */
+	public int getEventCount()
+	{
+		return myLog.getEventCount();
+	}
+
+	/**
+	 * @return the recorded events from the given index on, in the order they came in
+	 */
+	public List<PyConcurrencyEvent> getEvents(int from, int count)
+	{
+		try
+		{
+			return myLog.read(from, count);
+		}
+		catch(IOException e)
+		{
+			if(!myClosed)
+			{
+				LOG.warn("Can't read concurrency events", e);
+			}
+			return Collections.emptyList();
+		}
+	}
+
+	public long getReceivedCount()
+	{
+		return myReceivedCount.sum();
+	}
+
+	public long getDroppedCount()
+	{
+		return myDroppedCount.sum();
+	}
+
+	public long getEventsPerSecond()
+	{
+		return myEventsPerSecond;
+	}
+
+	public void close()
+	{
+		myClosed = true;
+		myWriter.shutdownNow();
+		try
+		{
+			myLog.close();
+		}
+		catch(IOException e)
+		{
+			LOG.warn("Can't delete the concurrency event log", e);
+		}
+	}
+
+	private void write()
+	{
+		do
+		{
+			PyConcurrencyEvent event;
+			while(!myClosed && (event = myRing.poll()) != null)
+			{
+				try
+				{
+					if(!myLog.append(event))
+					{
+						myDroppedCount.increment();
+						continue;
+					}
+				}
+				catch(IOException e)
+				{
+					if(!myClosed)
+					{
+						LOG.warn("Can't write concurrency events, recording stopped", e);
+						myClosed = true;
+					}
+					return;
+				}
+				myRateWindowCount++;
+			}
+			updateRate();
+			myWriteScheduled.set(false);
+			// an event put after the ring was seen empty but before the flag was reset has no write scheduled for it
+		}
+		while(!myClosed && !myRing.isEmpty() && myWriteScheduled.compareAndSet(false, true));
+	}
+
+	private void updateRate()
+	{
+		long elapsed = System.nanoTime() - myRateWindowStart;
+		if(elapsed >= TimeUnit.SECONDS.toNanos(1))
+		{
+			myEventsPerSecond = myRateWindowCount * TimeUnit.SECONDS.toNanos(1) / elapsed;
+			myRateWindowStart += elapsed;
+			myRateWindowCount = 0;
+		}
+	}
+}
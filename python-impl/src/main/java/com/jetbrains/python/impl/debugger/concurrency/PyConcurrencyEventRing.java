@@ -0,0 +1,101 @@
+package com.jetbrains.python.impl.debugger.concurrency;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jspecify.annotations.Nullable;
+import com.jetbrains.python.debugger.PyConcurrencyEvent;
+
+/**
+ * A bounded lock-free queue of events: any number of producers, a single consumer.
+ * <p>
+ * Every slot has a sequence number telling whose turn it is: a producer claims the slot of position {@code p} when
+ * its sequence is {@code p}, and publishes the event by setting it to {@code p + 1}; the consumer takes the event
+ * and sets the sequence to {@code p + capacity}, handing the slot to the producer of the next round.
+ */
+final class PyConcurrencyEventRing
+{
+	private final AtomicReferenceArray<PyConcurrencyEvent> myEvents;
+	private final AtomicLongArray mySequences;
+	private final int myMask;
+	private final AtomicLong myTail = new AtomicLong();
+	// the consumer's position, only used by the consumer
+	private long myHead;
+
+	/**
+	 * @param capacity a power of two
+	 */
+	PyConcurrencyEventRing(int capacity)
+	{
+		if(Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("Capacity is not a power of two: " + capacity);
+		}
+		myEvents = new AtomicReferenceArray<>(capacity);
+		mySequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++)
+		{
+			mySequences.set(i, i);
+		}
+		myMask = capacity - 1;
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	boolean offer(PyConcurrencyEvent event)
+	{
+		long tail = myTail.get();
+		while(true)
+		{
+			int index = (int) (tail & myMask);
+			long difference = mySequences.get(index) - tail;
+			if(difference == 0)
+			{
+				if(myTail.compareAndSet(tail, tail + 1))
+				{
+					myEvents.set(index, event);
+					mySequences.set(index, tail + 1);
+					return true;
+				}
+				tail = myTail.get();
+			}
+			else if(difference < 0)
+			{
+				// the consumer hasn't taken the event of the previous round yet
+				return false;
+			}
+			else
+			{
+				// another producer claimed the slot
+				tail = myTail.get();
+			}
+		}
+	}
+
+	/**
+	 * Must be called by one thread at a time.
+	 *
+	 * @return null if the queue is empty
+	 */
+	@Nullable
+	PyConcurrencyEvent poll()
+	{
+		int index = (int) (myHead & myMask);
+		if(mySequences.get(index) != myHead + 1)
+		{
+			return null;
+		}
+		PyConcurrencyEvent event = myEvents.get(index);
+		myEvents.set(index, null);
+		mySequences.set(index, myHead + myMask + 1);
+		myHead++;
+		return event;
+	}
+
+	boolean isEmpty()
+	{
+		return mySequences.get((int) (myHead & myMask)) != myHead + 1;
+	}
+}
@@ -16,6 +16,7 @@
 package com.jetbrains.python.impl.debugger.containerview;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyAdapter;
@@ -80,6 +81,22 @@ public abstract class NumericContainerViewTable implements TableChunkDatasource
 		);
 		myValue = value;
 		myTable = myComponent.getTable();
+		myComponent.getScrollPane().getViewport().addChangeListener(e -> updateViewport());
+	}
+
+	private void updateViewport()
+	{
+		if(!(myTable.getModel() instanceof AsyncArrayTableModel) || myTable.getRowCount() == 0 || myTable.getColumnCount() == 0)
+		{
+			return;
+		}
+		Rectangle rect = myComponent.getScrollPane().getViewport().getViewRect();
+		int firstRow = Math.max(0, myTable.rowAtPoint(rect.getLocation()));
+		int lastRow = myTable.rowAtPoint(new Point(rect.x, rect.y + rect.height - 1));
+		int firstCol = Math.max(0, myTable.columnAtPoint(rect.getLocation()));
+		int lastCol = myTable.columnAtPoint(new Point(rect.x + rect.width - 1, rect.y));
+		((AsyncArrayTableModel) myTable.getModel()).setViewport(firstRow, lastRow < 0 ? myTable.getRowCount() - 1 : lastRow, firstCol,
+				lastCol < 0 ? myTable.getColumnCount() - 1 : lastCol);
 	}
 
 
@@ -64,7 +64,7 @@ public class DataFrameTableModel extends AsyncArrayTableModel
 			return null;
 		}
 
-		return new TableValueDescriptor(value.toString(), header);
+		return new TableValueDescriptor(value, header);
 	}
 
 
@@ -24,10 +24,14 @@ import com.jetbrains.python.impl.debugger.containerview.PyNumericViewUtil;
  */
 public class TableValueDescriptor
 {
-	private final String myValue;
+	private final Object myValue;
 	private final ArrayChunk.ColHeader myHeader;
+	private String myText;
 
-	public TableValueDescriptor(String value, ArrayChunk.ColHeader header)
+	/**
+	 * @param value the value of the cell, formatted by its {@code toString()} when first asked for
+	 */
+	public TableValueDescriptor(Object value, ArrayChunk.ColHeader header)
 	{
 		myValue = value;
 		myHeader = header;
@@ -35,7 +39,11 @@ public class TableValueDescriptor
 
 	public String getValue()
 	{
-		return myValue;
+		if(myText == null && myValue != null)
+		{
+			myText = myValue.toString();
+		}
+		return myText;
 	}
 
 	public double getRangedValue()
@@ -70,7 +78,7 @@ public class TableValueDescriptor
 			max = Double.parseDouble(maxValue);
 		}
 
-		return (min == max) ? 0 : PyNumericViewUtil.getRangedValue(myValue, dataType, min, max, minValue, maxValue);
+		return (min == max) ? 0 : PyNumericViewUtil.getRangedValue(getValue(), dataType, min, max, minValue, maxValue);
 	}
 
 	@Override
@@ -82,7 +90,7 @@ public class TableValueDescriptor
 		}
 		else
 		{
-			return myValue;
+			return getValue();
 		}
 	}
 }
\ No newline at end of file
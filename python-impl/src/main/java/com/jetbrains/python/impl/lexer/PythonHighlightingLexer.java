@@ -21,77 +21,114 @@ import com.jetbrains.python.PyNames;
 import com.jetbrains.python.PyTokenTypes;
 import com.jetbrains.python.psi.LanguageLevel;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author yole
  */
 public class PythonHighlightingLexer extends PythonLexer {
   private final LanguageLevel myLanguageLevel;
+  // identifiers highlighted as keywords at the language level, looked up in the buffer without taking the token text
+  private final String[] myKeywords;
+  private final IElementType[] myKeywordTypes;
+
+  // the type of the current token once converted, valid until the lexer advances
+  private int myConvertedTokenStart = -1;
+  private IElementType myConvertedTokenType;
 
   public PythonHighlightingLexer(LanguageLevel languageLevel) {
     myLanguageLevel = languageLevel;
     hasUnicodeImport = false;
+
+    Map<String, IElementType> keywords = new LinkedHashMap<>();
+    if (languageLevel.hasWithStatement()) {
+      keywords.put("with", PyTokenTypes.WITH_KEYWORD);
+      keywords.put("as", PyTokenTypes.AS_KEYWORD);
+    }
+    if (languageLevel.hasPrintStatement()) {
+      keywords.put("print", PyTokenTypes.PRINT_KEYWORD);
+    }
+    if (languageLevel.isPy3K()) {
+      keywords.put("None", PyTokenTypes.NONE_KEYWORD);
+      keywords.put("True", PyTokenTypes.TRUE_KEYWORD);
+      keywords.put("False", PyTokenTypes.FALSE_KEYWORD);
+      keywords.put("nonlocal", PyTokenTypes.NONLOCAL_KEYWORD);
+      keywords.put("__debug__", PyTokenTypes.DEBUG_KEYWORD);
+    }
+    else {
+      keywords.put("exec", PyTokenTypes.EXEC_KEYWORD);
+    }
+    myKeywords = keywords.keySet().toArray(new String[0]);
+    myKeywordTypes = keywords.values().toArray(new IElementType[0]);
   }
 
-  static public IElementType convertStringType(IElementType tokenType, String tokenText,
+  static public IElementType convertStringType(IElementType tokenType, CharSequence tokenText,
                                         LanguageLevel languageLevel, boolean unicodeImport) {
-    if (tokenType == PyTokenTypes.SINGLE_QUOTED_STRING) {
-      if (languageLevel.isPy3K()) {
-        if (!tokenText.toLowerCase().startsWith("b")) return PyTokenTypes.SINGLE_QUOTED_UNICODE;
-      }
-      else {
-        if ((unicodeImport && !tokenText.toLowerCase().startsWith("b"))
-            || tokenText.toLowerCase().startsWith("u")) return PyTokenTypes.SINGLE_QUOTED_UNICODE;
-      }
-    }
-    if (tokenType == PyTokenTypes.TRIPLE_QUOTED_STRING) {
-      if (languageLevel.isPy3K()) {
-        if (!tokenText.toLowerCase().startsWith("b")) return PyTokenTypes.TRIPLE_QUOTED_UNICODE;
-      }
-      else {
-        if ((unicodeImport && !tokenText.toLowerCase().startsWith("b"))
-            || tokenText.toLowerCase().startsWith("u")) return PyTokenTypes.TRIPLE_QUOTED_UNICODE;
+    return convertStringType(tokenType, tokenText.length() > 0 ? tokenText.charAt(0) : 0, languageLevel, unicodeImport);
+  }
+
+  private static IElementType convertStringType(IElementType tokenType, char prefix,
+                                                LanguageLevel languageLevel, boolean unicodeImport) {
+    if (tokenType == PyTokenTypes.SINGLE_QUOTED_STRING || tokenType == PyTokenTypes.TRIPLE_QUOTED_STRING) {
+      boolean bytes = prefix == 'b' || prefix == 'B';
+      boolean unicode = languageLevel.isPy3K() ? !bytes : (unicodeImport && !bytes) || prefix == 'u' || prefix == 'U';
+      if (unicode) {
+        return tokenType == PyTokenTypes.SINGLE_QUOTED_STRING ? PyTokenTypes.SINGLE_QUOTED_UNICODE : PyTokenTypes.TRIPLE_QUOTED_UNICODE;
       }
     }
     return tokenType;
   }
 
-  public IElementType convertStringType(IElementType tokenType, String tokenText) {
+  public IElementType convertStringType(IElementType tokenType, CharSequence tokenText) {
     return convertStringType(tokenType, tokenText, myLanguageLevel, hasUnicodeImport);
   }
 
   @Override
   public IElementType getTokenType() {
     IElementType tokenType = super.getTokenType();
+    if (tokenType == null) {
+      return null;
+    }
+    int start = getTokenStart();
+    if (start != myConvertedTokenStart) {
+      myConvertedTokenType = convertTokenType(tokenType, start, getTokenEnd());
+      myConvertedTokenStart = start;
+    }
+    return myConvertedTokenType;
+  }
 
+  private IElementType convertTokenType(IElementType tokenType, int start, int end) {
+    CharSequence buffer = getBufferSequence();
     if (PyTokenTypes.STRING_NODES.contains(tokenType)) {
-      return convertStringType(tokenType, getTokenText());
+      return convertStringType(tokenType, start < end ? buffer.charAt(start) : 0, myLanguageLevel, hasUnicodeImport);
     }
-
     if (tokenType == PyTokenTypes.IDENTIFIER) {
-      String tokenText = getTokenText();
-
-      if (myLanguageLevel.hasWithStatement()) {
-        if (tokenText.equals("with")) return PyTokenTypes.WITH_KEYWORD;
-        if (tokenText.equals("as")) return PyTokenTypes.AS_KEYWORD;
-      }
-
-      if (myLanguageLevel.hasPrintStatement()) {
-        if (tokenText.equals("print")) return PyTokenTypes.PRINT_KEYWORD;
+      for (int i = 0; i < myKeywords.length; i++) {
+        if (regionEquals(buffer, start, end, myKeywords[i])) {
+          return myKeywordTypes[i];
+        }
       }
+    }
+    return tokenType;
+  }
 
-      if (myLanguageLevel.isPy3K()) {
-        if (tokenText.equals("None")) return PyTokenTypes.NONE_KEYWORD;
-        if (tokenText.equals("True")) return PyTokenTypes.TRUE_KEYWORD;
-        if (tokenText.equals("False")) return PyTokenTypes.FALSE_KEYWORD;
-        if (tokenText.equals("nonlocal")) return PyTokenTypes.NONLOCAL_KEYWORD;
-        if (tokenText.equals("__debug__")) return PyTokenTypes.DEBUG_KEYWORD;
-      }
-      else if (tokenText.equals("exec")) {
-        return PyTokenTypes.EXEC_KEYWORD;
+  private static boolean regionEquals(CharSequence buffer, int start, int end, String text) {
+    if (end - start != text.length()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      if (buffer.charAt(start + i) != text.charAt(i)) {
+        return false;
       }
     }
+    return true;
+  }
 
-    return tokenType;
+  @Override
+  public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
+    myConvertedTokenStart = -1;
+    super.start(buffer, startOffset, endOffset, initialState);
   }
 
   private enum state {
@@ -164,6 +201,7 @@ public class PythonHighlightingLexer extends PythonLexer {
       case stop:
         break;
     }
+    myConvertedTokenStart = -1;
     super.advance();
   }
 
@@ -173,6 +211,7 @@ public class PythonHighlightingLexer extends PythonLexer {
   }
 
   public void clearState(int position) {
+    myConvertedTokenStart = -1;
     myState = state.init;
     myImportOffset = position;
     hasUnicodeImport = false;
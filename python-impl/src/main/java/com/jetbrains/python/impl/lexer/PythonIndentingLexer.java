@@ -29,12 +29,30 @@ public class PythonIndentingLexer extends PythonIndentingProcessor {
     super(new _PythonLexer((Reader)null), TokenSet.EMPTY);
   }
 
+  /**
+   * Creates a lexer for the contents of an indented block.
+   *
+   * @param indent            the indentation of the block
+   * @param docstringExpected whether the block follows the header of a function or a class, so that a string
+   *                          starting it is a docstring
+   * @param closed            whether a line follows the block in the file, false if the block ends the file
+   */
+  public PythonIndentingLexer(int indent, boolean docstringExpected, boolean closed) {
+    this();
+    setBlockStart(indent, docstringExpected ? _PythonLexer.PENDING_DOCSTRING : _PythonLexer.YYINITIAL, closed);
+  }
+
   boolean addFinalBreak = true;
   protected void processSpecialTokens() {
     super.processSpecialTokens();
     int tokenStart = getBaseTokenStart();
     if (getBaseTokenType() == null && addFinalBreak) {
+      // the blocks close after the break of a statement ending the text, before the break following comments
+      if (!myLineHasSignificantTokens) {
+        closeBlocks(tokenStart);
+      }
       pushToken(PyTokenTypes.STATEMENT_BREAK, tokenStart, tokenStart);
+      closeBlocks(tokenStart);
       addFinalBreak = false;
     }
   }
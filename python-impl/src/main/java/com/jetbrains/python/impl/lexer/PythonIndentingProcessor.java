@@ -27,15 +27,15 @@ import consulo.util.collection.primitive.ints.IntStack;
 
 import org.jspecify.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class PythonIndentingProcessor extends MergingLexerAdapter {
   protected final IntStack myIndentStack = new IntStack();
   protected int myBraceLevel;
   protected boolean myLineHasSignificantTokens;
   protected int myLastNewLineIndent = -1;
   private int myCurrentNewLineIndent = 0;
+  private int myStartIndent = 0;
+  private int myStartState = 0;
+  private boolean myBlockClosed;
 
   private static final boolean DUMP_TOKENS = false;
   private final TokenSet RECOVERY_TOKENS = PythonDialectsTokenSetProvider.INSTANCE.getUnbalancedBracesRecoveryTokens();
@@ -44,53 +44,121 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
     super(new FlexAdapter(lexer), tokens);
   }
 
-  protected static class PendingToken {
-    private IElementType _type;
-    private final int _start;
-    private final int _end;
+  /**
+   * The tokens produced ahead of the base lexer, the first one being the current token. A ring of parallel arrays
+   * grown on demand, so that queuing a token doesn't allocate. Comments starting a line also keep the indent of the line.
+   */
+  private static final class TokenQueue {
+    private IElementType[] myTypes = new IElementType[16];
+    private int[] myStarts = new int[16];
+    private int[] myEnds = new int[16];
+    private int[] myCommentIndents = new int[16];
+    private boolean[] myComments = new boolean[16];
+    private int myHead;
+    private int mySize;
 
-    public PendingToken(IElementType type, int start, int end) {
-      _type = type;
-      _start = start;
-      _end = end;
+    public int size() {
+      return mySize;
     }
 
-    public IElementType getType() {
-      return _type;
+    public boolean isEmpty() {
+      return mySize == 0;
     }
 
-    public int getStart() {
-      return _start;
+    public IElementType getType(int index) {
+      return myTypes[slot(index)];
     }
 
-    public int getEnd() {
-      return _end;
+    public int getStart(int index) {
+      return myStarts[slot(index)];
     }
 
-    public void setType(IElementType type) {
-      _type = type;
+    public int getEnd(int index) {
+      return myEnds[slot(index)];
     }
 
-    @Override
-    public String toString() {
-      return _type + ":" + _start + "-" + _end;
+    public boolean isComment(int index) {
+      return myComments[slot(index)];
+    }
+
+    public int getCommentIndent(int index) {
+      return myCommentIndents[slot(index)];
+    }
+
+    public void setType(int index, IElementType type) {
+      myTypes[slot(index)] = type;
+    }
+
+    public void add(IElementType type, int start, int end) {
+      insert(mySize, type, start, end, false, 0);
+    }
+
+    public void addComment(IElementType type, int start, int end, int indent) {
+      insert(mySize, type, start, end, true, indent);
     }
-  }
 
-  private static class PendingCommentToken extends PendingToken {
-    private final int myIndent;
+    public void insert(int index, IElementType type, int start, int end) {
+      insert(index, type, start, end, false, 0);
+    }
 
-    public PendingCommentToken(IElementType type, int start, int end, int indent) {
-      super(type, start, end);
-      myIndent = indent;
+    public void removeFirst() {
+      myTypes[myHead] = null;
+      myHead = (myHead + 1) & (myTypes.length - 1);
+      mySize--;
     }
 
-    public int getIndent() {
-      return myIndent;
+    private void insert(int index, IElementType type, int start, int end, boolean comment, int commentIndent) {
+      if (mySize == myTypes.length) {
+        grow();
+      }
+      // the tokens are only inserted a few positions before the end
+      for (int i = mySize; i > index; i--) {
+        int to = slot(i);
+        int from = slot(i - 1);
+        myTypes[to] = myTypes[from];
+        myStarts[to] = myStarts[from];
+        myEnds[to] = myEnds[from];
+        myComments[to] = myComments[from];
+        myCommentIndents[to] = myCommentIndents[from];
+      }
+      int slot = slot(index);
+      myTypes[slot] = type;
+      myStarts[slot] = start;
+      myEnds[slot] = end;
+      myComments[slot] = comment;
+      myCommentIndents[slot] = commentIndent;
+      mySize++;
+    }
+
+    private int slot(int index) {
+      return (myHead + index) & (myTypes.length - 1);
+    }
+
+    private void grow() {
+      int capacity = myTypes.length * 2;
+      IElementType[] types = new IElementType[capacity];
+      int[] starts = new int[capacity];
+      int[] ends = new int[capacity];
+      int[] commentIndents = new int[capacity];
+      boolean[] comments = new boolean[capacity];
+      for (int i = 0; i < mySize; i++) {
+        int slot = slot(i);
+        types[i] = myTypes[slot];
+        starts[i] = myStarts[slot];
+        ends[i] = myEnds[slot];
+        commentIndents[i] = myCommentIndents[slot];
+        comments[i] = myComments[slot];
+      }
+      myTypes = types;
+      myStarts = starts;
+      myEnds = ends;
+      myCommentIndents = commentIndents;
+      myComments = comments;
+      myHead = 0;
     }
   }
 
-  protected List<PendingToken> myTokenQueue = new ArrayList<PendingToken>();
+  private final TokenQueue myTokenQueue = new TokenQueue();
 
   protected boolean myProcessSpecialTokensPending = false;
 
@@ -113,24 +181,24 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
 
   @Override
   public IElementType getTokenType() {
-    if (myTokenQueue.size() > 0) {
-      return myTokenQueue.get(0).getType();
+    if (!myTokenQueue.isEmpty()) {
+      return myTokenQueue.getType(0);
     }
     return super.getTokenType();
   }
 
   @Override
   public int getTokenStart() {
-    if (myTokenQueue.size() > 0) {
-      return myTokenQueue.get(0).getStart();
+    if (!myTokenQueue.isEmpty()) {
+      return myTokenQueue.getStart(0);
     }
     return super.getTokenStart();
   }
 
   @Override
   public int getTokenEnd() {
-    if (myTokenQueue.size() > 0) {
-      return myTokenQueue.get(0).getEnd();
+    if (!myTokenQueue.isEmpty()) {
+      return myTokenQueue.getEnd(0);
     }
     return super.getTokenEnd();
   }
@@ -138,10 +206,10 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
   @Override
   public void advance() {
     if (getTokenType() == PyTokenTypes.LINE_BREAK) {
-      String text = getTokenText();
+      CharSequence buffer = getBufferSequence();
       int spaces = 0;
-      for (int i = text.length() - 1; i >= 0; i--) {
-        if (text.charAt(i) == ' ') {
+      for (int i = getTokenEnd() - 1; i >= getTokenStart(); i--) {
+        if (buffer.charAt(i) == ' ') {
           spaces++;
         }
       }
@@ -150,8 +218,8 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
     else if (getTokenType() == PyTokenTypes.TAB) {
       myCurrentNewLineIndent += 8;
     }
-    if (myTokenQueue.size() > 0) {
-      myTokenQueue.remove(0);
+    if (!myTokenQueue.isEmpty()) {
+      myTokenQueue.removeFirst();
       if (myProcessSpecialTokensPending) {
         myProcessSpecialTokensPending = false;
         processSpecialTokens();
@@ -180,14 +248,53 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
     checkSignificantTokens();
   }
 
+  /**
+   * Makes the lexer start inside an indented block rather than at the start of a file: the first line of the buffer
+   * is taken to be indented by the given number of columns, and the base lexer starts in the given state.
+   *
+   * @param closed whether a line follows the block in the file, closing the block with its dedents
+   */
+  protected void setBlockStart(int indent, int baseState, boolean closed) {
+    myStartIndent = indent;
+    myStartState = baseState;
+    myBlockClosed = closed && indent > 0;
+  }
+
+  /**
+   * At the end of the contents of a closed block, closes the block and the blocks opened in it, as the dedents of the
+   * line following the block close them in the file.
+   */
+  protected void closeBlocks(int offset) {
+    if (myBlockClosed) {
+      while (myIndentStack.size() > 1) {
+        myIndentStack.pop();
+        pushToken(PyTokenTypes.DEDENT, offset, offset);
+      }
+    }
+  }
+
+  /**
+   * @return true if the last token queued is a comment on a line of its own
+   */
+  protected boolean isAfterLineComment() {
+    return !myTokenQueue.isEmpty() && myTokenQueue.isComment(myTokenQueue.size() - 1);
+  }
+
+  /**
+   * @return the number of brackets open after the current token, negative if more brackets were closed than opened
+   */
+  public int getBraceLevel() {
+    return myBraceLevel;
+  }
+
   protected void pushToken(IElementType type, int start, int end) {
-    myTokenQueue.add(new PendingToken(type, start, end));
+    myTokenQueue.add(type, start, end);
   }
 
   @Override
   public void start(CharSequence buffer, int startOffset, int endOffset, int initialState) {
     checkStartState(startOffset, initialState);
-    super.start(buffer, startOffset, endOffset, initialState);
+    super.start(buffer, startOffset, endOffset, myStartState);
     setStartState();
   }
 
@@ -203,6 +310,10 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
   private void setStartState() {
     myIndentStack.clear();
     myIndentStack.push(0);
+    if (myStartIndent > 0) {
+      myIndentStack.push(myStartIndent);
+    }
+    myCurrentNewLineIndent = myStartIndent;
     myBraceLevel = 0;
     adjustBraceLevel();
     myLineHasSignificantTokens = false;
@@ -241,7 +352,7 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
 
   protected void checkSignificantTokens() {
     IElementType tokenType = getBaseTokenType();
-    if (!PyTokenTypes.WHITESPACE_OR_LINEBREAK.contains(tokenType) && tokenType != getCommentTokenType()) {
+    if (tokenType != null && !PyTokenTypes.WHITESPACE_OR_LINEBREAK.contains(tokenType) && tokenType != getCommentTokenType()) {
       myLineHasSignificantTokens = true;
     }
   }
@@ -252,7 +363,7 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
       processLineBreak(tokenStart);
       while (isBaseAt(getCommentTokenType())) {
         // comment at start of line; maybe we need to generate dedent before the comments
-        myTokenQueue.add(new PendingCommentToken(getBaseTokenType(), getBaseTokenStart(), getBaseTokenEnd(), myLastNewLineIndent));
+        myTokenQueue.addComment(getBaseTokenType(), getBaseTokenStart(), getBaseTokenEnd(), myLastNewLineIndent);
         advanceBase();
         if (!isBaseAt(PyTokenTypes.LINE_BREAK)) {
           break;
@@ -282,20 +393,20 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
       processBackslash(start);
     }
     else {
-      myTokenQueue.add(new PendingToken(PyTokenTypes.SPACE, start, end));
+      myTokenQueue.add(PyTokenTypes.SPACE, start, end);
     }
   }
 
   private void processBackslash(int tokenStart) {
-    PendingToken backslashToken = new PendingToken(getBaseTokenType(), tokenStart, getBaseTokenEnd());
-    myTokenQueue.add(backslashToken);
+    int backslashIndex = myTokenQueue.size();
+    myTokenQueue.add(getBaseTokenType(), tokenStart, getBaseTokenEnd());
     advanceBase();
     while (PyTokenTypes.WHITESPACE.contains(getBaseTokenType())) {
       pushCurrentToken();
       advanceBase();
     }
     if (getBaseTokenType() == PyTokenTypes.LINE_BREAK) {
-      backslashToken.setType(PyTokenTypes.SPACE);
+      myTokenQueue.setType(backslashIndex, PyTokenTypes.SPACE);
       processInsignificantLineBreak(getBaseTokenStart(), true);
     }
     myProcessSpecialTokensPending = true;
@@ -325,7 +436,7 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
       end = getBaseTokenEnd();
       advanceBase();
     }
-    myTokenQueue.add(new PendingToken(PyTokenTypes.LINE_BREAK, startPos, end));
+    myTokenQueue.add(PyTokenTypes.LINE_BREAK, startPos, end);
     myProcessSpecialTokensPending = true;
   }
 
@@ -340,10 +451,21 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
     int whiteSpaceEnd = (getBaseTokenType() == null) ? super.getBufferEnd() : getBaseTokenStart();
     if (indent > lastIndent) {
       myIndentStack.push(indent);
-      myTokenQueue.add(new PendingToken(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd));
+      myTokenQueue.add(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd);
       int insertIndex = skipPrecedingCommentsWithIndent(indent, myTokenQueue.size() - 1);
-      int indentOffset = insertIndex == myTokenQueue.size() ? whiteSpaceEnd : myTokenQueue.get(insertIndex).getStart();
-      myTokenQueue.add(insertIndex, new PendingToken(PyTokenTypes.INDENT, indentOffset, indentOffset));
+      int indentOffset = insertIndex == myTokenQueue.size() ? whiteSpaceEnd : myTokenQueue.getStart(insertIndex);
+      myTokenQueue.insert(insertIndex, PyTokenTypes.INDENT, indentOffset, indentOffset);
+    }
+    else if (indent < lastIndent && getBaseTokenType() == null && myBlockClosed) {
+      // a block ends with a line break only if the file lexer put it before the dedent closing the block, the comments
+      // after it having the indent of the line following the block: the dedents are placed as the file lexer places
+      // them then, the first dedent of a nested block going before the line break if a comment precedes it
+      if (lastIndent > myStartIndent && isAfterLineComment()) {
+        myIndentStack.pop();
+        myTokenQueue.add(PyTokenTypes.DEDENT, whiteSpaceStart, whiteSpaceStart);
+      }
+      myTokenQueue.add(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd);
+      closeBlocks(whiteSpaceEnd);
     }
     else if (indent < lastIndent) {
       while (indent < lastIndent) {
@@ -352,37 +474,36 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
         int insertIndex = myTokenQueue.size();
         int dedentOffset = whiteSpaceStart;
         if (indent > lastIndent) {
-          myTokenQueue.add(new PendingToken(PyTokenTypes.INCONSISTENT_DEDENT, whiteSpaceStart, whiteSpaceStart));
+          myTokenQueue.add(PyTokenTypes.INCONSISTENT_DEDENT, whiteSpaceStart, whiteSpaceStart);
           insertIndex++;
         }
         else {
           insertIndex = skipPrecedingCommentsWithIndent(indent, insertIndex);
         }
         if (insertIndex != myTokenQueue.size()) {
-          dedentOffset = myTokenQueue.get(insertIndex).getStart();
+          dedentOffset = myTokenQueue.getStart(insertIndex);
         }
-        myTokenQueue.add(insertIndex, new PendingToken(PyTokenTypes.DEDENT, dedentOffset, dedentOffset));
+        myTokenQueue.insert(insertIndex, PyTokenTypes.DEDENT, dedentOffset, dedentOffset);
       }
-      myTokenQueue.add(new PendingToken(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd));
+      myTokenQueue.add(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd);
     }
     else {
-      myTokenQueue.add(new PendingToken(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd));
+      myTokenQueue.add(whitespaceTokenType, whiteSpaceStart, whiteSpaceEnd);
     }
   }
 
   protected int skipPrecedingCommentsWithIndent(int indent, int index) {
     // insert the DEDENT before previous comments that have the same indent as the current token indent
     boolean foundComment = false;
-    while(index > 0 && myTokenQueue.get(index-1) instanceof PendingCommentToken) {
-      PendingCommentToken commentToken = (PendingCommentToken)myTokenQueue.get(index - 1);
-      if (commentToken.getIndent() != indent) {
+    while(index > 0 && myTokenQueue.isComment(index - 1)) {
+      if (myTokenQueue.getCommentIndent(index - 1) != indent) {
         break;
       }
       foundComment = true;
       index--;
       if (index > 1 &&
-          myTokenQueue.get(index - 1).getType() == PyTokenTypes.LINE_BREAK &&
-          myTokenQueue.get(index - 2) instanceof PendingCommentToken) {
+          myTokenQueue.getType(index - 1) == PyTokenTypes.LINE_BREAK &&
+          myTokenQueue.isComment(index - 2)) {
         index--;
       }
     }
@@ -410,7 +531,7 @@ public class PythonIndentingProcessor extends MergingLexerAdapter {
   }
 
   private void pushCurrentToken() {
-    myTokenQueue.add(new PendingToken(getBaseTokenType(), getBaseTokenStart(), getBaseTokenEnd()));
+    myTokenQueue.add(getBaseTokenType(), getBaseTokenStart(), getBaseTokenEnd());
   }
 
 
@@ -29,6 +29,7 @@ public class ParsingContext
 	private final PsiBuilder myBuilder;
 	private final LanguageLevel myLanguageLevel;
 	private final Deque<ParsingScope> myScopes;
+	private boolean myLazyStatementLists;
 
 	public ParsingContext(PsiBuilder builder, LanguageLevel languageLevel, StatementParsing.FUTURE futureFlag)
 	{
@@ -81,6 +82,19 @@ public class ParsingContext
 		return myLanguageLevel;
 	}
 
+	/**
+	 * @return true if indented statement lists are left unparsed, to be parsed on first access
+	 */
+	public boolean isLazyStatementLists()
+	{
+		return myLazyStatementLists;
+	}
+
+	public void setLazyStatementLists(boolean lazyStatementLists)
+	{
+		myLazyStatementLists = lazyStatementLists;
+	}
+
 	public ParsingScope emptyParsingScope()
 	{
 		return new ParsingScope();
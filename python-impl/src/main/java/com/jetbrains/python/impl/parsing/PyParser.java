@@ -16,6 +16,7 @@
 package com.jetbrains.python.impl.parsing;
 
 
+import com.jetbrains.python.PyTokenTypes;
 import consulo.language.ast.ASTNode;
 import consulo.language.parser.PsiBuilder;
 import consulo.language.parser.PsiParser;
@@ -33,6 +34,7 @@ public class PyParser implements PsiParser
 
 	protected LanguageLevel myLanguageLevel;
 	private StatementParsing.FUTURE myFutureFlag;
+	private boolean myLazyStatementLists;
 
 	public PyParser()
 	{
@@ -49,6 +51,7 @@ public class PyParser implements PsiParser
 		long start = System.currentTimeMillis();
 		PsiBuilder.Marker rootMarker = builder.mark();
 		ParsingContext context = createParsingContext(builder, myLanguageLevel, myFutureFlag);
+		context.setLazyStatementLists(myLazyStatementLists);
 		StatementParsing statementParser = context.getStatementParser();
 		builder.setTokenTypeRemapper(statementParser); // must be done before touching the caching lexer with eof() call.
 		boolean lastAfterSemicolon = false;
@@ -74,6 +77,51 @@ public class PyParser implements PsiParser
 		return ast;
 	}
 
+	/**
+	 * Parses the contents of a lazily parsed statement list, as the statements of a block in the given function or
+	 * class.
+	 *
+	 * @param async whether the innermost function or class the list is in is an async function
+	 */
+	public ASTNode parseStatementList(IElementType root, PsiBuilder builder, boolean inFunction, boolean inClass, boolean async)
+	{
+		PsiBuilder.Marker rootMarker = builder.mark();
+		ParsingContext context = createParsingContext(builder, myLanguageLevel, myFutureFlag);
+		context.setLazyStatementLists(myLazyStatementLists);
+		StatementParsing statementParser = context.getStatementParser();
+		builder.setTokenTypeRemapper(statementParser);
+		ParsingScope scope = context.emptyParsingScope();
+		if(inClass)
+		{
+			scope = scope.withClass();
+		}
+		if(inFunction)
+		{
+			scope = scope.withFunction(async);
+		}
+		context.pushScope(scope);
+		while(!builder.eof())
+		{
+			if(builder.getTokenType() == PyTokenTypes.DEDENT)
+			{
+				// closes the list at the end of its contents
+				builder.advanceLexer();
+			}
+			else if(builder.getTokenType() == PyTokenTypes.STATEMENT_BREAK)
+			{
+				// left behind by a statement in error, it must not take the dedent after it for a statement
+				builder.advanceLexer();
+			}
+			else
+			{
+				statementParser.parseStatement();
+			}
+		}
+		context.popScope();
+		rootMarker.done(root);
+		return builder.getTreeBuilt();
+	}
+
 	protected ParsingContext createParsingContext(PsiBuilder builder, LanguageLevel languageLevel, StatementParsing.FUTURE futureFlag)
 	{
 		return new ParsingContext(builder, languageLevel, futureFlag);
@@ -83,4 +131,12 @@ public class PyParser implements PsiParser
 	{
 		myFutureFlag = future;
 	}
+
+	/**
+	 * Makes the parser leave indented statement lists unparsed, see {@link com.jetbrains.python.impl.psi.PyStatementListElementType}.
+	 */
+	public void setLazyStatementLists(boolean lazyStatementLists)
+	{
+		myLazyStatementLists = lazyStatementLists;
+	}
 }
@@ -321,6 +321,18 @@ public class StatementParsing extends Parsing implements ITokenTypeRemapper
 
 		builder.advanceLexer();
 		reportParseStatementError(builder, firstToken);
+		if(firstToken == PyTokenTypes.INDENT)
+		{
+			// the lines indented are taken for statements of the enclosing block, up to the dedent closing the indent
+			while(!atBlockEnd())
+			{
+				parseStatement();
+			}
+			if(!builder.eof())
+			{
+				builder.advanceLexer();
+			}
+		}
 	}
 
 	protected void reportParseStatementError(PsiBuilder builder, IElementType firstToken)
@@ -1030,6 +1042,7 @@ public class StatementParsing extends Parsing implements ITokenTypeRemapper
 
 			PsiBuilder.Marker marker = myBuilder.mark();
 			boolean indentFound = myBuilder.getTokenType() == PyTokenTypes.INDENT;
+			boolean lazy = false;
 			if(indentFound)
 			{
 				myBuilder.advanceLexer();
@@ -1039,9 +1052,27 @@ public class StatementParsing extends Parsing implements ITokenTypeRemapper
 				}
 				else
 				{
-					while(!myBuilder.eof() && myBuilder.getTokenType() != PyTokenTypes.DEDENT)
+					if(myContext.isLazyStatementLists() && canParseLazily())
 					{
-						parseStatement();
+						PsiBuilder.Marker blockStart = myBuilder.mark();
+						lazy = skipIndentedBlock();
+						if(lazy)
+						{
+							blockStart.drop();
+						}
+						else
+						{
+							blockStart.rollbackTo();
+						}
+					}
+					if(!lazy)
+					{
+						while(!atBlockEnd())
+						{
+							parseStatement();
+						}
+						// a statement in error ending with a semicolon must not make the one after the block a simple statement
+						getParsingContext().getScope().setAfterSemicolon(false);
 					}
 				}
 			}
@@ -1050,7 +1081,14 @@ public class StatementParsing extends Parsing implements ITokenTypeRemapper
 				myBuilder.error("Indent expected");
 			}
 
-			marker.done(PyElementTypes.STATEMENT_LIST);
+			if(lazy)
+			{
+				marker.collapse(PyElementTypes.STATEMENT_LIST);
+			}
+			else
+			{
+				marker.done(PyElementTypes.STATEMENT_LIST);
+			}
 			marker.setCustomEdgeTokenBinders(LeadingCommentsBinder.INSTANCE, FollowingCommentBinder.INSTANCE);
 			if(endMarker != null)
 			{
@@ -1093,6 +1131,58 @@ public class StatementParsing extends Parsing implements ITokenTypeRemapper
 		}
 	}
 
+	/**
+	 * Skips the statement breaks a statement in error leaves behind, so that the dedent after them closes the block
+	 * rather than being reported as a statement and taking the statements after the block into it.
+	 */
+	private boolean atBlockEnd()
+	{
+		while(myBuilder.getTokenType() == PyTokenTypes.STATEMENT_BREAK)
+		{
+			myBuilder.advanceLexer();
+		}
+		return myBuilder.eof() || myBuilder.getTokenType() == PyTokenTypes.DEDENT;
+	}
+
+	/**
+	 * A block starting with a string the file lexer didn't take for a docstring is parsed right away: relexed alone,
+	 * the string could be taken for one.
+	 */
+	private boolean canParseLazily()
+	{
+		IElementType tokenType = myBuilder.getTokenType();
+		return tokenType == PyTokenTypes.DOCSTRING || !PyTokenTypes.STRING_NODES.contains(tokenType);
+	}
+
+	/**
+	 * Skips the tokens of an indented block up to the dedent closing it, the indent opening it being consumed.
+	 *
+	 * @return false if an inconsistent dedent was met: it closes a block within the one skipped or this one, and lexed
+	 * alone, the block it closes would lose it and its error
+	 */
+	private boolean skipIndentedBlock()
+	{
+		int depth = 1;
+		while(!myBuilder.eof())
+		{
+			IElementType tokenType = myBuilder.getTokenType();
+			if(tokenType == PyTokenTypes.INCONSISTENT_DEDENT)
+			{
+				return false;
+			}
+			if(tokenType == PyTokenTypes.INDENT)
+			{
+				depth++;
+			}
+			else if(tokenType == PyTokenTypes.DEDENT && --depth == 0)
+			{
+				break;
+			}
+			myBuilder.advanceLexer();
+		}
+		return true;
+	}
+
 	public IElementType filter(IElementType source, int start, int end, CharSequence text)
 	{
 		if((myExpectAsKeyword || myContext.getLanguageLevel().hasWithStatement()) &&
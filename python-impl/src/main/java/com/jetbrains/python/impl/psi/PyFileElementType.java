@@ -93,6 +93,8 @@ public class PyFileElementType extends IStubFileElementType<PyFileStub> {
         if (parser instanceof PyParser) {
           PyParser pythonParser = (PyParser)parser;
           pythonParser.setLanguageLevel(languageLevel);
+          // the lists of the dialects extending the type would be parsed as Python
+          pythonParser.setLazyStatementLists(this == INSTANCE && PyStatementListElementType.isLazyParsingEnabled());
           if (languageLevel == LanguageLevel.PYTHON26 && psi.getContainingFile().getName().equals("__builtin__.py")) {
             pythonParser.setFutureFlag(StatementParsing.FUTURE.PRINT_FUNCTION);
           }
@@ -0,0 +1,76 @@
+package com.jetbrains.python.impl.psi;
+
+import consulo.language.psi.PsiElement;
+import consulo.util.dataholder.Key;
+import org.jspecify.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Values computed for parameters, kept on a PSI element.
+ * <p>
+ * The values of an element depend on the modification count of one dependency: they are all dropped once the count
+ * changes, so no stale value or invalid PSI is kept past the next request.
+ * Thread safe and bounded: the least recently used values are dropped beyond {@link #MAX_SIZE} parameters.
+ * A value may be computed more than once when requested concurrently, the computation may request other values,
+ * the same one included.
+ *
+ * @see PyUtil#getParameterizedCachedValue(PsiElement, Object, Function, LongSupplier)
+ */
+public final class PyParameterizedCache<P, T> {
+    private static final Key<PyParameterizedCache<?, ?>> KEY = Key.create("PyParameterizedCache");
+    private static final int MAX_SIZE = 64;
+
+    // guarded by this
+    private final Map<P, T> myValues = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<P, T> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    // the modification count the values were computed with
+    private long myStamp;
+
+    private PyParameterizedCache() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <P, T> PyParameterizedCache<P, T> getInstance(PsiElement element) {
+        PyParameterizedCache<?, ?> cache = element.getUserData(KEY);
+        if (cache == null) {
+            synchronized (KEY) {
+                cache = element.getUserData(KEY);
+                if (cache == null) {
+                    cache = new PyParameterizedCache<>();
+                    element.putUserData(KEY, cache);
+                }
+            }
+        }
+        return (PyParameterizedCache<P, T>)cache;
+    }
+
+    @Nullable
+    public T getValue(P param, Function<P, T> provider, LongSupplier dependency) {
+        long stamp = dependency.getAsLong();
+        synchronized (this) {
+            if (myStamp != stamp) {
+                myValues.clear();
+                myStamp = stamp;
+            }
+            else if (myValues.containsKey(param)) {
+                return myValues.get(param);
+            }
+        }
+        // computed outside of the lock: the provider may request other values of this element
+        T value = provider.apply(param);
+        synchronized (this) {
+            if (myStamp == stamp) {
+                myValues.put(param, value);
+            }
+        }
+        return value;
+    }
+}
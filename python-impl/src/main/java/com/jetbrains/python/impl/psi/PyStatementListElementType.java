@@ -0,0 +1,449 @@
+package com.jetbrains.python.impl.psi;
+
+import com.jetbrains.python.PyTokenTypes;
+import com.jetbrains.python.PythonLanguage;
+import com.jetbrains.python.impl.PyElementTypes;
+import com.jetbrains.python.impl.console.PydevConsoleRunner;
+import com.jetbrains.python.impl.lexer.PythonIndentingLexer;
+import com.jetbrains.python.impl.parsing.PyParser;
+import com.jetbrains.python.impl.parsing.StatementParsing;
+import com.jetbrains.python.impl.psi.impl.PyStatementListImpl;
+import com.jetbrains.python.psi.FutureFeature;
+import com.jetbrains.python.psi.LanguageLevel;
+import com.jetbrains.python.psi.PyFile;
+import consulo.language.Language;
+import consulo.language.ast.ASTNode;
+import consulo.language.ast.IElementType;
+import consulo.language.ast.ILazyParseableElementType;
+import consulo.language.ast.IReparseableElementType;
+import consulo.language.ast.TokenType;
+import consulo.language.parser.PsiBuilder;
+import consulo.language.parser.PsiBuilderFactory;
+import consulo.language.psi.PsiElement;
+import consulo.language.psi.PsiFile;
+import consulo.language.version.LanguageVersion;
+import consulo.language.version.LanguageVersionUtil;
+import consulo.project.Project;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The type of indented statement lists, the bodies of functions, classes and compound statements.
+ * <p>
+ * The file parser leaves the lists unparsed, they are parsed on first access and reparsed alone when their text
+ * changes. The contents of a list are lexed starting at the indentation of the block, in the lexer state the file
+ * lexer is in at the start of the block, and parsed in the scope of the function or class the list is in.
+ * <p>
+ * The lists are parsed with the file unless the {@code python.lazy.statement.lists} system property is true.
+ *
+ * @see PyParser#setLazyStatementLists(boolean)
+ */
+public class PyStatementListElementType extends IReparseableElementType {
+  public static final String LAZY_PARSING_PROPERTY = "python.lazy.statement.lists";
+
+  public PyStatementListElementType() {
+    super("STATEMENT_LIST", PythonLanguage.getInstance());
+  }
+
+  /**
+   * @return whether the file parser leaves the lists unparsed, and a list changed is reparsed alone
+   */
+  public static boolean isLazyParsingEnabled() {
+    return Boolean.getBoolean(LAZY_PARSING_PROPERTY);
+  }
+
+  public PsiElement createElement(ASTNode node) {
+    return new PyStatementListImpl(node);
+  }
+
+  @Nullable
+  @Override
+  public ASTNode parseContents(ASTNode chameleon) {
+    PsiElement parent = chameleon.getTreeParent().getPsi();
+    ASTNode list = getOriginalList(chameleon);
+    CharSequence text = chameleon.getChars();
+    int lineIndent = getLineIndent(list);
+    int blockIndent = getBlockIndent(text, Math.max(lineIndent, 0));
+    PythonIndentingLexer lexer = new PythonIndentingLexer(blockIndent, isDocstringExpected(list), isFollowed(list));
+
+    PyFile file = getPyFile(parent);
+    LanguageLevel languageLevel = file != null ? file.getLanguageLevel() : LanguageLevel.getDefault();
+    PyParser parser = new PyParser();
+    parser.setLanguageLevel(languageLevel);
+    parser.setLazyStatementLists(true);
+    // set by the file parser when it meets the import; importing with_statement matters to no level supported now
+    if (file != null && languageLevel.hasPrintStatement() &&
+        (languageLevel == LanguageLevel.PYTHON26 && file.getName().equals("__builtin__.py") ||
+         file.hasImportFromFuture(FutureFeature.PRINT_FUNCTION))) {
+      parser.setFutureFlag(StatementParsing.FUTURE.PRINT_FUNCTION);
+    }
+
+    boolean inFunction = false;
+    boolean inClass = false;
+    boolean async = false;
+    for (ASTNode node = list.getTreeParent(); node != null; node = node.getTreeParent()) {
+      IElementType type = node.getElementType();
+      if (type == PyElementTypes.FUNCTION_DECLARATION) {
+        async |= !inFunction && !inClass && node.findChildByType(PyTokenTypes.ASYNC_KEYWORD) != null;
+        inFunction = true;
+      }
+      else if (type == PyElementTypes.CLASS_DECLARATION) {
+        inClass = true;
+      }
+    }
+
+    LanguageVersion languageVersion = LanguageVersionUtil.findDefaultVersion(PythonLanguage.getInstance());
+    PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parent.getProject(), chameleon, lexer, getLanguage(), languageVersion, text);
+    return parser.parseStatementList(this, builder, inFunction, inClass, async).getFirstChildNode();
+  }
+
+  /**
+   * A list is reparsed alone if the new text lexes into a block of the same indentation that ends where the old one
+   * did: it must not dedent below the indentation of the block, nor leave a bracket, a string or a line continuation
+   * open at its end, nor end with comments the file parser would leave out of the block. Text the file parser recovers
+   * from in ways of the file, as an unexpected indent or a header without a body, and a list ending with an error are
+   * left to the file parser.
+   */
+  @Override
+  public boolean isParsable(@Nullable ASTNode parent, CharSequence buffer, Language fileLanguage, Project project) {
+    if (!isLazyParsingEnabled() || parent == null || !isInPlainPythonFile(parent, fileLanguage)) {
+      return false;
+    }
+    ASTNode[] lists = parent.getChildren(PyElementTypes.STATEMENT_LISTS);
+    if (lists.length != 1) {
+      return false;
+    }
+    int length = buffer.length();
+    if (length == 0 || isWhitespace(buffer.charAt(0)) || isWhitespace(buffer.charAt(length - 1)) || buffer.charAt(length - 1) == '\\') {
+      return false;
+    }
+    ASTNode list = lists[0];
+    if (endsWithError(list)) {
+      return false;
+    }
+    int lineIndent = getLineIndent(list);
+    if (lineIndent < 0) {
+      return false;
+    }
+    int blockIndent = getBlockIndent(buffer, lineIndent);
+    if (blockIndent <= 0 || blockIndent != getBlockIndent(list.getChars(), lineIndent)) {
+      return false;
+    }
+
+    boolean docstringExpected = isDocstringExpected(list);
+    // lexed as if ending the file, so that a dedent is one below the block
+    PythonIndentingLexer lexer = new PythonIndentingLexer(blockIndent, docstringExpected, false);
+    lexer.start(buffer);
+    int depth = 0;
+    boolean statementFound = false;
+    boolean commentsBound = true;
+    IElementType lastType = null;
+    IElementType lastSignificantType = null;
+    int lastStart = 0;
+    boolean bodyExpected = false;
+    boolean lastLineContinued = false;
+    for (IElementType type = lexer.getTokenType(); type != null; lexer.advance(), type = lexer.getTokenType()) {
+      if (bodyExpected && type != PyTokenTypes.INDENT && type != PyTokenTypes.STATEMENT_BREAK && type != PyTokenTypes.END_OF_LINE_COMMENT &&
+          !PyTokenTypes.WHITESPACE_OR_LINEBREAK.contains(type)) {
+        // the comments after a header without a body are bound apart from the file
+        return false;
+      }
+      if (type == PyTokenTypes.STATEMENT_BREAK) {
+        bodyExpected = lastSignificantType == PyTokenTypes.COLON;
+      }
+      if (type == PyTokenTypes.INDENT) {
+        if (!bodyExpected) {
+          // an unexpected indent is closed apart from the file too
+          return false;
+        }
+        bodyExpected = false;
+        depth++;
+      }
+      else if (type == PyTokenTypes.DEDENT) {
+        if (depth == 0) {
+          return false;
+        }
+        depth--;
+      }
+      if (lexer.getTokenStart() == lexer.getTokenEnd()) {
+        continue;
+      }
+      if (type == PyTokenTypes.LINE_BREAK) {
+        lastLineContinued = buffer.charAt(lexer.getTokenStart() - 1) == '\\';
+      }
+      if (type == PyTokenTypes.END_OF_LINE_COMMENT) {
+        // a comment on a line of its own stays in the block if it is indented with spaces at least as deep as the block
+        if (lastType == PyTokenTypes.LINE_BREAK &&
+            (buffer.charAt(lexer.getTokenStart() - 1) != ' ' ||
+             getIndent(buffer, lastStart, lexer.getTokenStart()) < blockIndent)) {
+          commentsBound = false;
+        }
+      }
+      else if (!PyTokenTypes.WHITESPACE_OR_LINEBREAK.contains(type)) {
+        if (PyTokenTypes.STRING_NODES.contains(type)) {
+          // the file lexer takes a leading string for a plain string, and an unterminated one swallows what follows
+          if (!statementFound && !docstringExpected || !isTerminated(buffer.subSequence(lexer.getTokenStart(), lexer.getTokenEnd()))) {
+            return false;
+          }
+        }
+        statementFound = true;
+        commentsBound = true;
+        lastSignificantType = type;
+      }
+      lastType = type;
+      lastStart = lexer.getTokenStart();
+    }
+    if (!statementFound || !commentsBound || bodyExpected || lastLineContinued || lexer.getBraceLevel() != 0) {
+      return false;
+    }
+    // the file lexer places the dedents after a block ending with a comment on a line of its own before the line break
+    // following the block, and after it otherwise
+    return endsWithLineComment(buffer, blockIndent, docstringExpected) == endsWithLineComment(list.getChars(), blockIndent, docstringExpected);
+  }
+
+  private static boolean endsWithLineComment(CharSequence text, int blockIndent, boolean docstringExpected) {
+    PythonIndentingLexer lexer = new PythonIndentingLexer(blockIndent, docstringExpected, false);
+    lexer.start(text);
+    IElementType lastType = null;
+    boolean continued = false;
+    boolean lineComment = false;
+    for (IElementType type = lexer.getTokenType(); type != null; lexer.advance(), type = lexer.getTokenType()) {
+      int start = lexer.getTokenStart();
+      if (start == lexer.getTokenEnd()) {
+        continue;
+      }
+      lineComment = type == PyTokenTypes.END_OF_LINE_COMMENT && lastType == PyTokenTypes.LINE_BREAK && !continued;
+      if (type == PyTokenTypes.LINE_BREAK) {
+        // a line break after a backslash continues the line
+        continued = start > 0 && text.charAt(start - 1) == '\\';
+      }
+      lastType = type;
+    }
+    return lineComment;
+  }
+
+  @Override
+  public String toString() {
+    return "Py:" + super.toString();
+  }
+
+  /**
+   * Console code, doctests and the dialects are lexed and parsed in ways of their own: their lists are built with the
+   * file and reparsed only with it, as {@link #parseContents(ASTNode)} would parse them as plain Python.
+   */
+  private static boolean isInPlainPythonFile(ASTNode node, Language fileLanguage) {
+    if (fileLanguage != PythonLanguage.getInstance()) {
+      return false;
+    }
+    PsiFile file = node.getPsi().getContainingFile();
+    ASTNode fileNode = file != null ? file.getNode() : null;
+    return fileNode != null && fileNode.getElementType() == PyFileElementType.INSTANCE && !PydevConsoleRunner.isPythonConsole(fileNode);
+  }
+
+  /**
+   * @return the list the chameleon stands for: the chameleon itself, or the list it is going to replace when the new
+   * text of that list is parsed in a holder
+   */
+  private static ASTNode getOriginalList(ASTNode chameleon) {
+    PsiElement holder = chameleon.getTreeParent().getPsi();
+    if (holder instanceof PsiFile && !(holder instanceof PyFile)) {
+      PsiElement context = holder.getContext();
+      if (context != null) {
+        return context.getNode();
+      }
+    }
+    return chameleon;
+  }
+
+  @Nullable
+  private static PyFile getPyFile(PsiElement element) {
+    PsiFile file = element.getContainingFile();
+    while (!(file instanceof PyFile)) {
+      PsiElement context = file != null ? file.getContext() : null;
+      if (context == null) {
+        return null;
+      }
+      file = context.getContainingFile();
+    }
+    return (PyFile)file;
+  }
+
+  /**
+   * @return the indentation of the line the node starts, -1 if there is other text before the node on the line
+   */
+  private static int getLineIndent(ASTNode node) {
+    StringBuilder whitespace = new StringBuilder();
+    for (ASTNode leaf = getPrevLeaf(node); leaf != null; leaf = getPrevLeaf(leaf)) {
+      CharSequence text = leaf.getChars();
+      for (int i = text.length() - 1; i >= 0; i--) {
+        char c = text.charAt(i);
+        if (c == '\n') {
+          return getIndent(whitespace.reverse(), 0, whitespace.length());
+        }
+        if (!isWhitespace(c)) {
+          return -1;
+        }
+        whitespace.append(c);
+      }
+    }
+    return getIndent(whitespace.reverse(), 0, whitespace.length());
+  }
+
+  /**
+   * @return true if there is text after the node in the file
+   */
+  private static boolean isFollowed(ASTNode node) {
+    for (; node != null; node = node.getTreeParent()) {
+      if (node.getTreeNext() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the previous leaf, or the previous lazily parsed element, which isn't parsed to be looked into
+   */
+  @Nullable
+  private static ASTNode getPrevLeaf(ASTNode node) {
+    ASTNode prev = node.getTreePrev();
+    while (prev == null) {
+      node = node.getTreeParent();
+      if (node == null) {
+        return null;
+      }
+      prev = node.getTreePrev();
+    }
+    while (!(prev.getElementType() instanceof ILazyParseableElementType) && prev.getLastChildNode() != null) {
+      prev = prev.getLastChildNode();
+    }
+    return prev;
+  }
+
+  /**
+   * @return the indentation of the first line of the text with a statement on it, -1 if there is no such line
+   */
+  private static int getBlockIndent(CharSequence text, int firstLineIndent) {
+    int indent = firstLineIndent;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        indent = 0;
+      }
+      else if (c == '#') {
+        while (i + 1 < text.length() && text.charAt(i + 1) != '\n') {
+          i++;
+        }
+      }
+      else if (isWhitespace(c)) {
+        indent = addIndent(indent, c);
+      }
+      else {
+        return indent;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the indentation after the last line break of the range, counted as the indenting lexer counts it
+   */
+  private static int getIndent(CharSequence text, int start, int end) {
+    int indent = 0;
+    for (int i = start; i < end; i++) {
+      indent = text.charAt(i) == '\n' ? 0 : addIndent(indent, text.charAt(i));
+    }
+    return indent;
+  }
+
+  private static int addIndent(int indent, char c) {
+    if (c == ' ') {
+      return indent + 1;
+    }
+    if (c == '\t') {
+      return (indent / 8 + 1) * 8;
+    }
+    return indent;
+  }
+
+  private static boolean isWhitespace(ASTNode node) {
+    return node.getElementType() == TokenType.WHITE_SPACE || PyTokenTypes.WHITESPACE_OR_LINEBREAK.contains(node.getElementType());
+  }
+
+  /**
+   * @return true if an error ends the list or the last block nested in it: the error may be owed to the text after the
+   * list, like an unindent matching no outer indentation level, which the list parsed alone doesn't see
+   */
+  private static boolean endsWithError(ASTNode list) {
+    ASTNode node = list.getLastChildNode();
+    while (node != null) {
+      if (node.getElementType() == TokenType.ERROR_ELEMENT) {
+        return true;
+      }
+      node = isWhitespace(node) || node.getElementType() == PyTokenTypes.END_OF_LINE_COMMENT ? node.getTreePrev() : node.getLastChildNode();
+    }
+    return false;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\f' || c == '\n' || c == '\r';
+  }
+
+  /**
+   * The lexer expects a docstring after the colon of a function or a class followed by spaces and a comment at most
+   * on its line.
+   */
+  private static boolean isDocstringExpected(ASTNode list) {
+    ASTNode owner = list.getTreeParent();
+    if (owner == null ||
+        owner.getElementType() != PyElementTypes.FUNCTION_DECLARATION && owner.getElementType() != PyElementTypes.CLASS_DECLARATION) {
+      return false;
+    }
+    ASTNode colon = list.getTreePrev();
+    while (colon != null && (isWhitespace(colon) || colon.getElementType() == PyTokenTypes.END_OF_LINE_COMMENT)) {
+      colon = colon.getTreePrev();
+    }
+    if (colon == null || colon.getElementType() != PyTokenTypes.COLON) {
+      return false;
+    }
+    StringBuilder text = new StringBuilder();
+    for (ASTNode node = colon.getTreeNext(); node != list; node = node.getTreeNext()) {
+      text.append(node.getChars());
+    }
+    int i = 0;
+    while (i < text.length() && text.charAt(i) == ' ') {
+      i++;
+    }
+    if (i < text.length() && text.charAt(i) == '#') {
+      while (i < text.length() && text.charAt(i) != '\n') {
+        i++;
+      }
+    }
+    return i < text.length() && text.charAt(i) == '\n';
+  }
+
+  private static boolean isTerminated(CharSequence string) {
+    int start = 0;
+    while (start < string.length() && Character.isLetter(string.charAt(start))) {
+      start++;
+    }
+    if (start == string.length()) {
+      return false;
+    }
+    char quote = string.charAt(start);
+    int quoteLength = start + 2 < string.length() && string.charAt(start + 1) == quote && string.charAt(start + 2) == quote ? 3 : 1;
+    int end = string.length() - quoteLength;
+    if (end < start + quoteLength) {
+      return false;
+    }
+    for (int i = end; i < string.length(); i++) {
+      if (string.charAt(i) != quote) {
+        return false;
+      }
+    }
+    int backslashes = 0;
+    for (int i = end - 1; i >= start + quoteLength && string.charAt(i) == '\\'; i--) {
+      backslashes++;
+    }
+    return backslashes % 2 == 0;
+  }
+}
@@ -52,7 +52,6 @@ import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressManager;
 import consulo.application.progress.Task;
 import consulo.application.util.AsyncFileService;
-import consulo.application.util.CachedValueProvider;
 import consulo.codeEditor.Editor;
 import consulo.codeEditor.EditorEx;
 import consulo.codeEditor.EditorFactory;
@@ -73,7 +72,6 @@ import consulo.language.file.inject.VirtualFileWindow;
 import consulo.language.impl.ast.ASTFactory;
 import consulo.language.psi.*;
 import consulo.language.psi.stub.StubElement;
-import consulo.language.psi.util.LanguageCachedValueUtil;
 import consulo.language.psi.util.PsiTreeUtil;
 import consulo.language.psi.util.QualifiedName;
 import consulo.language.scratch.ScratchFileService;
@@ -110,6 +108,7 @@ import java.util.List;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 import static com.jetbrains.python.psi.PyFunction.Modifier.CLASSMETHOD;
 import static com.jetbrains.python.psi.PyFunction.Modifier.STATICMETHOD;
@@ -901,23 +900,20 @@ public class PyUtil {
         });
     }
 
+    /**
+     * Returns the value computed for the parameter, kept on the element until the PSI changes.
+     */
     public static <T, P> T getParameterizedCachedValue(PsiElement element, P param, Function<P, T> f) {
-        Map<P, T> cache = LanguageCachedValueUtil.getCachedValue(
-            element,
-            new CachedValueProvider<Map<P, T>>() {
-                @Nullable
-                @Override
-                public Result<Map<P, T>> compute() {
-                    return Result.create(Maps.newHashMap(), PsiModificationTracker.MODIFICATION_COUNT);
-                }
-            }
-        );
-        T result = cache.get(param);
-        if (result == null) {
-            result = f.apply(param);
-            cache.put(param, result);
-        }
-        return result;
+        PsiModificationTracker tracker = PsiModificationTracker.getInstance(element.getProject());
+        return getParameterizedCachedValue(element, param, f, tracker::getModificationCount);
+    }
+
+    /**
+     * Returns the value computed for the parameter, kept on the element until the modification count
+     * of the dependency changes.
+     */
+    public static <T, P> T getParameterizedCachedValue(PsiElement element, P param, Function<P, T> f, LongSupplier dependency) {
+        return PyParameterizedCache.<P, T>getInstance(element).getValue(param, f, dependency);
     }
 
     /**
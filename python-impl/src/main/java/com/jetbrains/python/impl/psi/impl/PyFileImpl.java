@@ -64,6 +64,7 @@ import org.jspecify.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
@@ -76,12 +77,27 @@ public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
     private volatile SoftReference<ExportedNameCache> myExportedNameCache = new SoftReference<>(null);
     private final PsiModificationTracker myModificationTracker;
 
+    /**
+     * The names that didn't resolve as of a modification count of the project.
+     */
+    private static final class UnresolvedNames {
+        private final long myModCount;
+        private final Set<String> myNames = ConcurrentHashMap.newKeySet();
+
+        private UnresolvedNames(long modCount) {
+            myModCount = modCount;
+        }
+    }
+
     private class ExportedNameCache {
-        private final List<String> myNameDefinerNegativeCache = new ArrayList<>();
-        private long myNameDefinerOOCBModCount = -1;
+        private volatile UnresolvedNames myUnresolvedNames = new UnresolvedNames(-1);
         private final long myModificationStamp;
         private final Map<String, List<PsiNamedElement>> myNamedElements = Maps.newHashMap();
         private final List<PyImportedNameDefiner> myImportedNameDefiners = Lists.newArrayList();
+        // positions in myImportedNameDefiners: an import element defines its visible name only and is looked up by it,
+        // the other definers, star imports mostly, may define any name
+        private final Map<String, List<Integer>> myImportElementIndices = new HashMap<>();
+        private final List<Integer> myOtherDefinerIndices = new ArrayList<>();
 
         @RequiredReadAction
         private ExportedNameCache(long modificationStamp) {
@@ -120,6 +136,18 @@ public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
                 Collections.reverse(elements);
             }
             Collections.reverse(myImportedNameDefiners);
+            for (int i = 0; i < myImportedNameDefiners.size(); i++) {
+                PyImportedNameDefiner definer = myImportedNameDefiners.get(i);
+                if (definer instanceof PyImportElement importElement) {
+                    String visibleName = importElement.getVisibleName();
+                    if (visibleName != null) {
+                        myImportElementIndices.computeIfAbsent(visibleName, k -> new ArrayList<>()).add(i);
+                    }
+                }
+                else {
+                    myOtherDefinerIndices.add(i);
+                }
+            }
         }
 
         private boolean processDeclarations(List<PsiElement> elements, Predicate<PsiElement> processor) {
@@ -135,16 +163,37 @@ public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
             return true;
         }
 
-        private List<RatedResolveResult> multiResolve(String name) {
-            synchronized (myNameDefinerNegativeCache) {
-                long modCount = myModificationTracker.getModificationCount();
-                if (modCount != myNameDefinerOOCBModCount) {
-                    myNameDefinerNegativeCache.clear();
-                    myNameDefinerOOCBModCount = modCount;
+        /**
+         * Offers the import elements defining the name and the other definers to the processor, in the order of declaration.
+         */
+        private void processImportedNameDefiners(String name, PyResolveProcessor processor) {
+            List<Integer> importElementIndices = myImportElementIndices.getOrDefault(name, Collections.emptyList());
+            int i = 0;
+            int j = 0;
+            while (i < importElementIndices.size() || j < myOtherDefinerIndices.size()) {
+                int index;
+                if (j == myOtherDefinerIndices.size()
+                    || (i < importElementIndices.size() && importElementIndices.get(i) < myOtherDefinerIndices.get(j))) {
+                    index = importElementIndices.get(i++);
                 }
-                else if (myNameDefinerNegativeCache.contains(name)) {
-                    return Collections.emptyList();
+                else {
+                    index = myOtherDefinerIndices.get(j++);
                 }
+                if (!processor.execute(myImportedNameDefiners.get(index), ResolveState.initial())) {
+                    return;
+                }
+            }
+        }
+
+        private List<RatedResolveResult> multiResolve(String name) {
+            long modCount = myModificationTracker.getModificationCount();
+            UnresolvedNames unresolvedNames = myUnresolvedNames;
+            if (unresolvedNames.myModCount != modCount) {
+                unresolvedNames = new UnresolvedNames(modCount);
+                myUnresolvedNames = unresolvedNames;
+            }
+            else if (unresolvedNames.myNames.contains(name)) {
+                return Collections.emptyList();
             }
 
             PyResolveProcessor processor = new PyResolveProcessor(name);
@@ -158,11 +207,7 @@ public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
                 }
             }
             if (!stopped) {
-                for (PyImportedNameDefiner definer : myImportedNameDefiners) {
-                    if (!processor.execute(definer, ResolveState.initial())) {
-                        break;
-                    }
-                }
+                processImportedNameDefiners(name, processor);
             }
             Map<PsiElement, PyImportedNameDefiner> results = processor.getResults();
             if (!results.isEmpty()) {
@@ -184,9 +229,7 @@ public class PyFileImpl extends PsiFileBase implements PyFile, PyExpression {
                 return resultList;
             }
 
-            synchronized (myNameDefinerNegativeCache) {
-                myNameDefinerNegativeCache.add(name);
-            }
+            unresolvedNames.myNames.add(name);
             return Collections.emptyList();
         }
 
@@ -18,6 +18,7 @@ package com.jetbrains.python.impl.psi.resolve;
 
 import com.jetbrains.python.impl.sdk.PythonSdkType;
 import consulo.annotation.component.ComponentScope;
+import consulo.application.Application;
 import consulo.annotation.component.ServiceAPI;
 import consulo.annotation.component.ServiceImpl;
 import consulo.content.bundle.Sdk;
@@ -26,7 +27,7 @@ import consulo.module.Module;
 import consulo.module.content.layer.event.ModuleRootAdapter;
 import consulo.module.content.layer.event.ModuleRootEvent;
 import consulo.module.content.layer.event.ModuleRootListener;
-import consulo.virtualFileSystem.VirtualFileManager;
+import consulo.virtualFileSystem.event.BulkFileListener;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 
@@ -42,14 +43,14 @@ public class PythonModulePathCache extends PythonPathCache implements Disposable
   }
 
   @Inject
-  public PythonModulePathCache(final Module module, VirtualFileManager virtualFileManager) {
+  public PythonModulePathCache(final Module module, Application application) {
     module.getMessageBus().connect().subscribe(ModuleRootListener.class, new ModuleRootAdapter() {
       public void rootsChanged(ModuleRootEvent event) {
         updateCacheForSdk(module);
         clearCache();
       }
     });
-    virtualFileManager.addVirtualFileListener(new MyVirtualFileAdapter(), this);
+    application.getMessageBus().connect(this).subscribe(BulkFileListener.class, new MyBulkFileListener());
     updateCacheForSdk(module);
   }
 
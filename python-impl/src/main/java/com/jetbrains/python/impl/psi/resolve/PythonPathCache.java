@@ -15,14 +15,22 @@
  */
 package com.jetbrains.python.impl.psi.resolve;
 
+import com.jetbrains.python.PyNames;
+import com.jetbrains.python.PythonFileType;
+import consulo.language.file.FileTypeManager;
 import consulo.language.psi.PsiElement;
+import consulo.language.psi.PsiUtilCore;
 import consulo.language.psi.util.QualifiedName;
+import consulo.util.io.FileUtil;
 import consulo.virtualFileSystem.VirtualFile;
 import consulo.virtualFileSystem.event.*;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author yole
@@ -30,14 +38,35 @@ import java.util.Map;
 public abstract class PythonPathCache {
   private final Map<QualifiedName, List<PsiElement>> myCache = new HashMap<QualifiedName, List<PsiElement>>();
   private final Map<VirtualFile, List<QualifiedName>> myQNameCache = new HashMap<VirtualFile, List<QualifiedName>>();
+  private volatile long myModificationCount;
 
-  public void clearCache() {
+  public synchronized void clearCache() {
     myCache.clear();
     myQNameCache.clear();
+    myModificationCount++;
+  }
+
+  /**
+   * Changes whenever the roots change or Python files or directories are created, deleted, moved or renamed.
+   */
+  public long getModificationCount() {
+    return myModificationCount;
+  }
+
+  /**
+   * Marks the values derived from this cache stale while keeping its entries.
+   */
+  protected synchronized void incModificationCount() {
+    myModificationCount++;
   }
 
   public synchronized List<PsiElement> get(QualifiedName qualifiedName) {
-    return myCache.get(qualifiedName);
+    List<PsiElement> results = myCache.get(qualifiedName);
+    if (results != null && !areValid(results)) {
+      myCache.remove(qualifiedName);
+      return null;
+    }
+    return results;
   }
 
   public synchronized void put(QualifiedName qualifiedName, List<PsiElement> results) {
@@ -52,32 +81,127 @@ public abstract class PythonPathCache {
     myQNameCache.put(vFile, qNames);
   }
 
-  protected class MyVirtualFileAdapter extends VirtualFileAdapter {
-    @Override
-    public void fileCreated(VirtualFileEvent event) {
-      clearCache();
+  /**
+   * Drops only the entries that a file system change may affect: qualified names having one of {@code components},
+   * resolved to elements located under one of the changed {@code paths}, and importable names of files located under
+   * one of {@code directories}.
+   */
+  private synchronized void invalidate(Set<String> components, Set<String> paths, Set<String> directories) {
+    myModificationCount++;
+    for (Iterator<Map.Entry<QualifiedName, List<PsiElement>>> it = myCache.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<QualifiedName, List<PsiElement>> entry = it.next();
+      if (hasComponent(entry.getKey(), components) || !areValid(entry.getValue()) || isUnder(entry.getValue(), paths)) {
+        it.remove();
+      }
     }
+    for (Iterator<VirtualFile> it = myQNameCache.keySet().iterator(); it.hasNext(); ) {
+      if (isUnder(it.next().getPath(), directories)) {
+        it.remove();
+      }
+    }
+  }
 
-    @Override
-    public void fileDeleted(VirtualFileEvent event) {
-      clearCache();
+  private static boolean hasComponent(QualifiedName qualifiedName, Set<String> components) {
+    for (String component : qualifiedName.getComponents()) {
+      if (components.contains(component)) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    @Override
-    public void fileMoved(VirtualFileMoveEvent event) {
-      clearCache();
+  private static boolean areValid(List<PsiElement> elements) {
+    for (PsiElement element : elements) {
+      if (element != null && !element.isValid()) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    @Override
-    public void fileCopied(VirtualFileCopyEvent event) {
-      clearCache();
+  /**
+   * Names resolved through a plain directory don't have it as a component, as {@code mypkg} found in {@code src}.
+   */
+  private static boolean isUnder(List<PsiElement> elements, Set<String> paths) {
+    for (PsiElement element : elements) {
+      VirtualFile file = element != null ? PsiUtilCore.getVirtualFile(element) : null;
+      if (file != null && isUnder(file.getPath(), paths)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isUnder(String path, Set<String> directories) {
+    for (String directory : directories) {
+      if (FileUtil.startsWith(path, directory)) {
+        return true;
+      }
     }
+    return false;
+  }
 
+  protected class MyBulkFileListener implements BulkFileListener {
     @Override
-    public void propertyChanged(VirtualFilePropertyEvent event) {
-      if (event.getPropertyName().equals(VirtualFile.PROP_NAME)) {
+    public void after(List<? extends VFileEvent> events) {
+      Set<String> components = new HashSet<String>();
+      Set<String> paths = new HashSet<String>();
+      Set<String> directories = new HashSet<String>();
+      for (VFileEvent event : events) {
+        if (event instanceof VFileCreateEvent) {
+          VFileCreateEvent createEvent = (VFileCreateEvent)event;
+          addChange(createEvent.getParent(), createEvent.getChildName(), createEvent.isDirectory(), components, paths, directories);
+        }
+        else if (event instanceof VFileDeleteEvent) {
+          VirtualFile file = event.getFile();
+          addChange(file.getParent(), file.getName(), file.isDirectory(), components, paths, directories);
+        }
+        else if (event instanceof VFileMoveEvent) {
+          VFileMoveEvent moveEvent = (VFileMoveEvent)event;
+          VirtualFile file = moveEvent.getFile();
+          addChange(moveEvent.getOldParent(), file.getName(), file.isDirectory(), components, paths, directories);
+          addChange(moveEvent.getNewParent(), file.getName(), file.isDirectory(), components, paths, directories);
+        }
+        else if (event instanceof VFileCopyEvent) {
+          VFileCopyEvent copyEvent = (VFileCopyEvent)event;
+          addChange(copyEvent.getNewParent(), copyEvent.getNewChildName(), copyEvent.getFile().isDirectory(), components, paths, directories);
+        }
+        else if (event instanceof VFilePropertyChangeEvent) {
+          VFilePropertyChangeEvent propertyEvent = (VFilePropertyChangeEvent)event;
+          if (VirtualFile.PROP_NAME.equals(propertyEvent.getPropertyName())) {
+            VirtualFile file = propertyEvent.getFile();
+            addChange(file.getParent(), (String)propertyEvent.getOldValue(), file.isDirectory(), components, paths, directories);
+            addChange(file.getParent(), (String)propertyEvent.getNewValue(), file.isDirectory(), components, paths, directories);
+          }
+        }
+      }
+      if (!components.isEmpty()) {
+        invalidate(components, paths, directories);
+      }
+    }
+
+    private void addChange(VirtualFile parent,
+                           String name,
+                           boolean isDirectory,
+                           Set<String> components,
+                           Set<String> paths,
+                           Set<String> directories) {
+      if (parent == null) {
         clearCache();
+        return;
+      }
+      if (isDirectory) {
+        components.add(name);
+      }
+      else if (FileTypeManager.getInstance().getFileTypeByFileName(name) == PythonFileType.INSTANCE) {
+        // __init__.py turns its directory into a package (or back into a plain one)
+        components.add(PyNames.INIT_DOT_PY.equals(name) ? parent.getName() : FileUtil.getNameWithoutExtension(name));
+      }
+      else {
+        return;
       }
+      paths.add(parent.getPath() + "/" + name);
+      directories.add(parent.getPath());
     }
   }
 }
@@ -0,0 +1,351 @@
+package com.jetbrains.python.impl.psi.resolve;
+
+import com.jetbrains.python.PyNames;
+import com.jetbrains.python.PythonFileType;
+import consulo.container.boot.ContainerPathManager;
+import consulo.content.base.BinariesOrderRootType;
+import consulo.content.bundle.Sdk;
+import consulo.language.file.FileTypeManager;
+import consulo.logging.Logger;
+import consulo.util.io.FileUtil;
+import consulo.virtualFileSystem.VirtualFile;
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Persistent index of top-level importable names (packages and modules) found directly in the roots of an SDK.
+ * <p>
+ * Resolving an import visits every SDK root; the index lets {@link QualifiedNameResolverImpl} skip roots that cannot contain
+ * the first component of the name without touching their VFS children. The index is stored per interpreter in the system
+ * directory, memory-mapped on load and keyed by the modification stamps of the root directories, which change whenever
+ * a package is installed to or removed from them.
+ * <p>
+ * Format: version, roots (path, stamp, has {@code __init__.py}), then a sorted table of names with the roots containing them.
+ */
+public class PythonSdkModuleIndex
+{
+	private static final Logger LOG = Logger.getInstance(PythonSdkModuleIndex.class);
+
+	private static final int VERSION = 1;
+	private static final String INDEX_DIR_NAME = "python_module_index";
+
+	private final Map<String, Integer> myRoots;
+	private final BitSet myRootsWithInit;
+	private final ByteBuffer myBuffer;
+	private final int myNameCount;
+	private final int myOffsetsStart;
+
+	private PythonSdkModuleIndex(Map<String, Integer> roots, BitSet rootsWithInit, ByteBuffer buffer, int nameCount, int offsetsStart)
+	{
+		myRoots = roots;
+		myRootsWithInit = rootsWithInit;
+		myBuffer = buffer;
+		myNameCount = nameCount;
+		myOffsetsStart = offsetsStart;
+	}
+
+	/**
+	 * @return false only if the root is indexed and definitely has no module or package with the given name
+	 */
+	public boolean mayContain(VirtualFile root, String name)
+	{
+		Integer rootIndex = myRoots.get(root.getPath());
+		if(rootIndex == null || myRootsWithInit.get(rootIndex))
+		{
+			return true;
+		}
+		int entry = findEntry(toKey(name));
+		if(entry < 0)
+		{
+			return false;
+		}
+		int pos = entry + 2 + (myBuffer.getShort(entry) & 0xFFFF);
+		int count = myBuffer.getShort(pos) & 0xFFFF;
+		for(int i = 0; i < count; i++)
+		{
+			if((myBuffer.getShort(pos + 2 + 2 * i) & 0xFFFF) == rootIndex)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if a change to the direct children of the file may make the index stale
+	 */
+	public boolean isRoot(VirtualFile file)
+	{
+		return myRoots.containsKey(file.getPath());
+	}
+
+	private int findEntry(byte[] key)
+	{
+		int low = 0;
+		int high = myNameCount - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int entry = myBuffer.getInt(myOffsetsStart + 4 * mid);
+			int cmp = compare(entry, key);
+			if(cmp < 0)
+			{
+				low = mid + 1;
+			}
+			else if(cmp > 0)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	private int compare(int entry, byte[] key)
+	{
+		int length = myBuffer.getShort(entry) & 0xFFFF;
+		int common = Math.min(length, key.length);
+		for(int i = 0; i < common; i++)
+		{
+			int cmp = (myBuffer.get(entry + 2 + i) & 0xFF) - (key[i] & 0xFF);
+			if(cmp != 0)
+			{
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Loads the stored index of the SDK, rebuilding and storing it if the SDK roots have changed since it was built.
+	 *
+	 * @return null if the SDK has no local directory roots to index
+	 */
+	@Nullable
+	public static PythonSdkModuleIndex getOrBuild(Sdk sdk)
+	{
+		String homePath = sdk.getHomePath();
+		List<File> roots = getIndexableRoots(sdk);
+		if(homePath == null || roots.isEmpty())
+		{
+			return null;
+		}
+		Path indexFile = getIndexFile(homePath);
+		if(Files.isRegularFile(indexFile))
+		{
+			try
+			{
+				ByteBuffer buffer;
+				try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ))
+				{
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+				PythonSdkModuleIndex index = parse(buffer, roots);
+				if(index != null)
+				{
+					return index;
+				}
+			}
+			catch(IOException | RuntimeException e)
+			{
+				LOG.info("Cannot read module index " + indexFile + ": " + e);
+			}
+		}
+		byte[] data = build(roots);
+		store(indexFile, data);
+		return parse(ByteBuffer.wrap(data), roots);
+	}
+
+	private static Path getIndexFile(String sdkHome)
+	{
+		return ContainerPathManager.get().getSystemDir().resolve(INDEX_DIR_NAME).resolve(FileUtil.toSystemIndependentName(sdkHome).hashCode() + ".idx");
+	}
+
+	private static List<File> getIndexableRoots(Sdk sdk)
+	{
+		List<File> result = new ArrayList<>();
+		for(VirtualFile root : sdk.getRootProvider().getFiles(BinariesOrderRootType.ID))
+		{
+			if(root.isInLocalFileSystem() && root.isDirectory())
+			{
+				result.add(new File(root.getPath()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return null if the stored roots or their stamps differ from the actual ones
+	 */
+	@Nullable
+	private static PythonSdkModuleIndex parse(ByteBuffer buffer, List<File> actualRoots)
+	{
+		if(buffer.getInt(0) != VERSION)
+		{
+			return null;
+		}
+		int rootCount = buffer.getInt(4);
+		if(rootCount != actualRoots.size())
+		{
+			return null;
+		}
+		int pos = 8;
+		Map<String, Integer> roots = new HashMap<>();
+		BitSet rootsWithInit = new BitSet(rootCount);
+		for(int i = 0; i < rootCount; i++)
+		{
+			int length = buffer.getShort(pos) & 0xFFFF;
+			byte[] bytes = new byte[length];
+			for(int j = 0; j < length; j++)
+			{
+				bytes[j] = buffer.get(pos + 2 + j);
+			}
+			pos += 2 + length;
+			File root = actualRoots.get(i);
+			String path = FileUtil.toSystemIndependentName(root.getPath());
+			if(!path.equals(new String(bytes, StandardCharsets.UTF_8)) || buffer.getLong(pos) != root.lastModified())
+			{
+				return null;
+			}
+			pos += 8;
+			if(buffer.get(pos) != 0)
+			{
+				rootsWithInit.set(i);
+			}
+			pos += 1;
+			roots.put(path, i);
+		}
+		int nameCount = buffer.getInt(pos);
+		return new PythonSdkModuleIndex(roots, rootsWithInit, buffer, nameCount, pos + 4);
+	}
+
+	private static byte[] build(List<File> roots)
+	{
+		FileTypeManager fileTypeManager = FileTypeManager.getInstance();
+		boolean[] hasInit = new boolean[roots.size()];
+		SortedMap<byte[], List<Integer>> names = new TreeMap<>(PythonSdkModuleIndex::compareBytes);
+		for(int i = 0; i < roots.size(); i++)
+		{
+			String[] children = roots.get(i).list();
+			if(children == null)
+			{
+				continue;
+			}
+			for(String child : children)
+			{
+				String name;
+				if(fileTypeManager.getFileTypeByFileName(child) == PythonFileType.INSTANCE)
+				{
+					if(PyNames.INIT_DOT_PY.equals(child))
+					{
+						hasInit[i] = true;
+					}
+					name = FileUtil.getNameWithoutExtension(child);
+				}
+				else
+				{
+					// may be a package or, for plain directory lookups, any directory; an extra name only costs a visit of the root
+					name = child;
+				}
+				List<Integer> rootIndices = names.computeIfAbsent(toKey(name), k -> new ArrayList<>());
+				if(rootIndices.isEmpty() || rootIndices.get(rootIndices.size() - 1) != i)
+				{
+					rootIndices.add(i);
+				}
+			}
+		}
+
+		try
+		{
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(header);
+			out.writeInt(VERSION);
+			out.writeInt(roots.size());
+			for(int i = 0; i < roots.size(); i++)
+			{
+				File root = roots.get(i);
+				byte[] path = FileUtil.toSystemIndependentName(root.getPath()).getBytes(StandardCharsets.UTF_8);
+				out.writeShort(path.length);
+				out.write(path);
+				out.writeLong(root.lastModified());
+				out.writeBoolean(hasInit[i]);
+			}
+			out.writeInt(names.size());
+			int entriesStart = out.size() + 4 * names.size();
+
+			ByteArrayOutputStream entries = new ByteArrayOutputStream();
+			DataOutputStream entriesOut = new DataOutputStream(entries);
+			for(Map.Entry<byte[], List<Integer>> entry : names.entrySet())
+			{
+				out.writeInt(entriesStart + entriesOut.size());
+				entriesOut.writeShort(entry.getKey().length);
+				entriesOut.write(entry.getKey());
+				entriesOut.writeShort(entry.getValue().size());
+				for(int rootIndex : entry.getValue())
+				{
+					entriesOut.writeShort(rootIndex);
+				}
+			}
+			entries.writeTo(out);
+			out.flush();
+			return header.toByteArray();
+		}
+		catch(IOException e)
+		{
+			// in-memory streams
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void store(Path indexFile, byte[] data)
+	{
+		try
+		{
+			Files.createDirectories(indexFile.getParent());
+			Path tempFile = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+			Files.write(tempFile, data);
+			Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(IOException e)
+		{
+			LOG.info("Cannot store module index " + indexFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Names are stored in lower case: on case-insensitive file systems VFS finds children regardless of case.
+	 */
+	private static byte[] toKey(String name)
+	{
+		return name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int compareBytes(byte[] a, byte[] b)
+	{
+		int common = Math.min(a.length, b.length);
+		for(int i = 0; i < common; i++)
+		{
+			int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(cmp != 0)
+			{
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+}
@@ -17,6 +17,7 @@
 package com.jetbrains.python.impl.psi.resolve;
 
 import com.jetbrains.python.impl.psi.impl.PyBuiltinCache;
+import consulo.application.ApplicationManager;
 import consulo.content.RootProvider;
 import consulo.content.bundle.Sdk;
 import consulo.content.bundle.event.SdkTableListener;
@@ -24,11 +25,20 @@ import consulo.disposer.Disposable;
 import consulo.disposer.Disposer;
 import consulo.module.Module;
 import consulo.module.ModuleManager;
+import consulo.module.content.layer.event.ModuleRootAdapter;
+import consulo.module.content.layer.event.ModuleRootEvent;
+import consulo.module.content.layer.event.ModuleRootListener;
 import consulo.project.Project;
 import consulo.util.collection.Maps;
 import consulo.util.dataholder.Key;
-import consulo.virtualFileSystem.VirtualFileManager;
+import consulo.virtualFileSystem.VirtualFile;
+import consulo.virtualFileSystem.event.BulkFileListener;
+import consulo.virtualFileSystem.event.VFileCreateEvent;
+import consulo.virtualFileSystem.event.VFileEvent;
+import consulo.virtualFileSystem.event.VFileMoveEvent;
+import org.jspecify.annotations.Nullable;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -57,6 +67,7 @@ public class PythonSdkPathCache extends PythonPathCache implements Disposable {
   private final Project myProject;
   private final Sdk mySdk;
   private final AtomicReference<PyBuiltinCache> myBuiltins = new AtomicReference<PyBuiltinCache>();
+  private final AtomicReference<PythonSdkModuleIndex> myModuleIndex = new AtomicReference<PythonSdkModuleIndex>();
 
   public PythonSdkPathCache(final Project project, final Sdk sdk) {
     myProject = project;
@@ -72,9 +83,16 @@ public class PythonSdkPathCache extends PythonPathCache implements Disposable {
           }
         }
         myBuiltins.set(null);
+        myModuleIndex.set(null);
       }
     }, this);
-    VirtualFileManager.getInstance().addVirtualFileListener(new MyVirtualFileAdapter(), this);
+    ApplicationManager.getApplication().getMessageBus().connect(this).subscribe(BulkFileListener.class, new MyBulkFileListener() {
+      @Override
+      public void after(List<? extends VFileEvent> events) {
+        super.after(events);
+        dropStaleModuleIndex(events);
+      }
+    });
     if (!project.isDisposed()) {
       project.getMessageBus().connect(this).subscribe(SdkTableListener.class, new SdkTableListener() {
         @Override
@@ -84,6 +102,13 @@ public class PythonSdkPathCache extends PythonPathCache implements Disposable {
           }
         }
       });
+      // the imports of a library file depend on the order entries of the modules too
+      project.getMessageBus().connect(this).subscribe(ModuleRootListener.class, new ModuleRootAdapter() {
+        @Override
+        public void rootsChanged(ModuleRootEvent event) {
+          incModificationCount();
+        }
+      });
       Disposer.register(project, this);
     }
   }
@@ -116,6 +141,36 @@ public class PythonSdkPathCache extends PythonPathCache implements Disposable {
     }
   }
 
+  private void dropStaleModuleIndex(List<? extends VFileEvent> events) {
+    PythonSdkModuleIndex index = myModuleIndex.get();
+    if (index == null) {
+      return;
+    }
+    for (VFileEvent event : events) {
+      VirtualFile file = event.getFile();
+      VirtualFile parent = event instanceof VFileCreateEvent ? ((VFileCreateEvent)event).getParent() : file != null ? file.getParent() : null;
+      if (parent != null && index.isRoot(parent) || event instanceof VFileMoveEvent && index.isRoot(((VFileMoveEvent)event).getNewParent())) {
+        myModuleIndex.compareAndSet(index, null);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return index of top-level names in the SDK roots, loaded or rebuilt on first access; null if the SDK cannot be indexed
+   */
+  @Nullable
+  public PythonSdkModuleIndex getModuleIndex() {
+    PythonSdkModuleIndex index = myModuleIndex.get();
+    if (index == null) {
+      index = PythonSdkModuleIndex.getOrBuild(mySdk);
+      if (index != null) {
+        myModuleIndex.compareAndSet(null, index);
+      }
+    }
+    return index;
+  }
+
   public void clearBuiltins() {
     myBuiltins.set(null);
   }
@@ -209,7 +209,7 @@ public class QualifiedNameResolverImpl implements RootVisitor, QualifiedNameReso
 		{
 			return true;
 		}
-		PsiElement resolveResult = resolveInRoot(root);
+		PsiElement resolveResult = sdk == null || mayContainTopLevelName(root, sdk) ? resolveInRoot(root) : null;
 		if(resolveResult != null)
 		{
 			addRoot(resolveResult, isModuleSource);
@@ -227,6 +227,17 @@ public class QualifiedNameResolverImpl implements RootVisitor, QualifiedNameReso
 		return true;
 	}
 
+	private boolean mayContainTopLevelName(VirtualFile root, Sdk sdk)
+	{
+		String topLevelName = myQualifiedName.getFirstComponent();
+		if(topLevelName == null)
+		{
+			return true;
+		}
+		PythonSdkModuleIndex index = PythonSdkPathCache.getInstance(myContext.getProject(), sdk).getModuleIndex();
+		return index == null || index.mayContain(root, topLevelName);
+	}
+
 	private void addRoot(PsiElement resolveResult, boolean isModuleSource)
 	{
 		if(isModuleSource)
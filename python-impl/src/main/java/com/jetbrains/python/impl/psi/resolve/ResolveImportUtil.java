@@ -41,7 +41,9 @@ import consulo.language.psi.util.PsiTreeUtil;
 import consulo.language.psi.util.QualifiedName;
 import consulo.language.util.ModuleUtilCore;
 import consulo.module.Module;
+import consulo.module.content.ProjectRootManager;
 import consulo.util.io.FileUtil;
+import consulo.virtualFileSystem.VirtualFile;
 import consulo.virtualFileSystem.fileType.FileNameMatcher;
 import consulo.virtualFileSystem.fileType.matcher.ExtensionFileNameMatcher;
 
@@ -193,9 +195,24 @@ public class ResolveImportUtil {
       return Collections.emptyList();
     }
     ResolveModuleParams params = new ResolveModuleParams(qualifiedName, sourceFile, importIsAbsolute, relativeLevel);
+    PythonPathCache libraryPathCache = findLibraryPathCache(sourceFile);
+    if (libraryPathCache != null) {
+      // the imports of a library file only depend on the roots and the file system, editing project files keeps them
+      return PyUtil.getParameterizedCachedValue(sourceFile, params, ResolveImportUtil::calculateResolveModule,
+                                                libraryPathCache::getModificationCount);
+    }
     return PyUtil.getParameterizedCachedValue(sourceFile, params, ResolveImportUtil::calculateResolveModule);
   }
 
+  @Nullable
+  private static PythonPathCache findLibraryPathCache(PsiFile file) {
+    VirtualFile vFile = file.getOriginalFile().getVirtualFile();
+    if (vFile == null || ProjectRootManager.getInstance(file.getProject()).getFileIndex().isInContent(vFile)) {
+      return null;
+    }
+    return getPathCache(file);
+  }
+
   private static List<PsiElement> calculateResolveModule(ResolveModuleParams params) {
     QualifiedName qualifiedName = params.getName();
     int relativeLevel = params.getLevel();
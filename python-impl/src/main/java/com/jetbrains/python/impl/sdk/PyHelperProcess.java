@@ -0,0 +1,154 @@
+package com.jetbrains.python.impl.sdk;
+
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.logging.Logger;
+import consulo.process.ExecutionException;
+import consulo.process.cmd.GeneralCommandLine;
+import consulo.process.util.ProcessOutput;
+import org.jspecify.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-running helper script of an interpreter that serves requests over its stdin and stdout, such as the generator3
+ * workers and the pycodestyle daemons.
+ * <p>
+ * A request is written as is, a reply starts with a header line read here and goes on with a body read by the caller,
+ * see {@link ReplyReader}. A helper that doesn't reply in time is killed, and a helper that fails in the middle of
+ * a reply is closed. An empty request line asks the helper to exit. Not thread-safe: a helper serves one request at a time.
+ */
+public class PyHelperProcess {
+    private static final Logger LOG = Logger.getInstance(PyHelperProcess.class);
+
+    private static final int EXIT_TIMEOUT_SECONDS = 5;
+
+    private final String myName;
+    private final Process myProcess;
+    private final OutputStream myRequests;
+    private final DataInputStream myReplies;
+    private volatile boolean myAlive = true;
+
+    private PyHelperProcess(String name, Process process) {
+        myName = name;
+        myProcess = process;
+        myRequests = new BufferedOutputStream(process.getOutputStream());
+        myReplies = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        AppExecutorUtil.getAppExecutorService().execute(this::drainStderr);
+    }
+
+    /**
+     * Starts the helper in the directory of the interpreter, with the environment of the command line added to the one
+     * of the IDE. The helper doesn't write bytecode, so its scripts are not compiled into the helpers directory.
+     *
+     * @param name the name of the helper in logs and in the errors of the replies
+     * @return null if the helper can't be started
+     */
+    @Nullable
+    public static PyHelperProcess start(String name, String interpreterPath, GeneralCommandLine commandLine) {
+        String workDir = new File(interpreterPath).getParent();
+        if (workDir == null || !new File(workDir).exists()) {
+            return null;
+        }
+        Map<String, String> env = PySdkUtil.mergeEnvVariables(System.getenv(), commandLine.getEnvironment());
+        PythonEnvUtil.resetHomePathChanges(interpreterPath, env);
+        PythonEnvUtil.setPythonDontWriteBytecode(env);
+        try {
+            Process process = commandLine.withWorkDirectory(workDir).withEnvironment(env).createProcess();
+            return new PyHelperProcess(name, process);
+        }
+        catch (ExecutionException e) {
+            LOG.info("Cannot start " + name, e);
+            return null;
+        }
+    }
+
+    public boolean isAlive() {
+        return myAlive;
+    }
+
+    /**
+     * Sends a request and waits for its reply. If the helper dies or doesn't reply in time, it is killed and the output
+     * reports a failure with a negative exit code (and a timeout, if that was the reason).
+     */
+    public ProcessOutput request(byte[] request, int timeout, ReplyReader replyReader) {
+        ProcessOutput output = new ProcessOutput();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> watchdog = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+            timedOut.set(true);
+            myProcess.destroy();
+        }, timeout, TimeUnit.MILLISECONDS);
+        try {
+            myRequests.write(request);
+            myRequests.flush();
+            replyReader.read(readLine(), myReplies, output);
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            if (timedOut.get()) {
+                output.setTimeout();
+            }
+            output.appendStderr(myName + " stopped: " + e);
+            output.setExitCode(-1);
+        }
+        finally {
+            watchdog.cancel(false);
+        }
+        return output;
+    }
+
+    /**
+     * Asks the helper to exit, and kills it if it is still running a few seconds later. Doesn't wait for the exit.
+     */
+    public void close() {
+        if (!myAlive) {
+            return;
+        }
+        myAlive = false;
+        try {
+            myRequests.write('\n');
+            myRequests.close();
+        }
+        catch (IOException ignored) {
+        }
+        if (myProcess.isAlive()) {
+            AppExecutorUtil.getAppScheduledExecutorService().schedule(myProcess::destroy, EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = myReplies.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private void drainStderr() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(myProcess.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LOG.debug(line);
+            }
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    public interface ReplyReader {
+        /**
+         * Reads the body of a reply and fills the output, with the exit code the reply stands for.
+         *
+         * @param header the first line of the reply, without the line break
+         */
+        void read(String header, DataInputStream body, ProcessOutput output) throws IOException;
+    }
+}
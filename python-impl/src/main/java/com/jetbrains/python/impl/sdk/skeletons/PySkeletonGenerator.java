@@ -35,6 +35,7 @@ import org.jspecify.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 import static com.jetbrains.python.impl.sdk.skeletons.SkeletonVersionChecker.fromVersionString;
@@ -49,8 +50,14 @@ public class PySkeletonGenerator {
 
     private final String mySkeletonsPath;
     private final Map<String, String> myEnv;
+    private final Queue<PySkeletonGeneratorWorker> myIdleWorkers = new ConcurrentLinkedQueue<>();
+    private volatile boolean myWorkersUnavailable;
 
     public void finishSkeletonsGeneration() {
+        PySkeletonGeneratorWorker worker;
+        while ((worker = myIdleWorkers.poll()) != null) {
+            worker.close();
+        }
     }
 
     public boolean exists(String name) {
@@ -133,6 +140,13 @@ public class PySkeletonGenerator {
         String binaryPath,
         String extraSyspath
     ) throws InvalidSdkException {
+        if (assemblyRefs == null || assemblyRefs.isEmpty()) {
+            String request = "GEN\t" + modname + "\t" + StringUtil.notNullize(modfilename);
+            ProcessOutput output = runInWorker(binaryPath, extraSyspath, request, MINUTE * 10);
+            if (output != null && output.getExitCode() != PySkeletonGeneratorWorker.STATUS_NEEDS_FRESH_INTERPRETER) {
+                return output;
+            }
+        }
         String parent_dir = new File(binaryPath).getParent();
         List<String> commandLine = new ArrayList<>();
         commandLine.add(binaryPath);
@@ -161,6 +175,60 @@ public class PySkeletonGenerator {
         return getProcessOutput(parent_dir, ArrayUtil.toStringArray(commandLine), env, MINUTE * 10);
     }
 
+    /**
+     * Runs a request in a reusable generator3 worker of the interpreter, see {@link PySkeletonGeneratorWorker}.
+     *
+     * @param extraSyspath sys.path additions the worker must have been started with, null if any worker of the interpreter will do
+     * @return null if no worker is available or it died on the request, so the caller should start a fresh process instead
+     */
+    @Nullable
+    private ProcessOutput runInWorker(String binaryPath, @Nullable String extraSyspath, String request, int timeout) {
+        if (myWorkersUnavailable || request.indexOf('\n') >= 0) {
+            return null;
+        }
+        PySkeletonGeneratorWorker worker = acquireWorker(binaryPath, extraSyspath);
+        if (worker == null) {
+            return null;
+        }
+        ProcessOutput output = worker.request(request, timeout);
+        if (worker.isAlive()) {
+            myIdleWorkers.add(worker);
+            return output;
+        }
+        return output.isTimeout() ? output : null;
+    }
+
+    @Nullable
+    private PySkeletonGeneratorWorker acquireWorker(String binaryPath, @Nullable String extraSyspath) {
+        for (PySkeletonGeneratorWorker worker : myIdleWorkers) {
+            if (worker.accepts(binaryPath, extraSyspath) && myIdleWorkers.remove(worker)) {
+                return worker;
+            }
+        }
+        String syspath = StringUtil.notNullize(extraSyspath);
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(binaryPath);
+        commandLine.add(PythonHelpersLocator.getHelperPath(GENERATOR3));
+        commandLine.add("-d");
+        commandLine.add(getSkeletonsPath());
+        if (ApplicationProperties.isInSandbox()) {
+            commandLine.add("-x");
+        }
+        if (!syspath.isEmpty()) {
+            commandLine.add("-s");
+            commandLine.add(syspath);
+        }
+        commandLine.add("-W");
+
+        Map<String, String> extraEnv = PythonSdkType.getVirtualEnvExtraEnv(binaryPath);
+        PySkeletonGeneratorWorker worker =
+            PySkeletonGeneratorWorker.start(binaryPath, syspath, commandLine, extraEnv != null ? PySdkUtil.mergeEnvVariables(myEnv, extraEnv) : myEnv);
+        if (worker == null) {
+            myWorkersUnavailable = true;
+        }
+        return worker;
+    }
+
     protected ProcessOutput getProcessOutput(
         String homePath,
         String[] commandLine,
@@ -181,7 +249,9 @@ public class PySkeletonGenerator {
         }
 
         long startTime = System.currentTimeMillis();
-        ProcessOutput runResult = getProcessOutput(new File(binaryPath).getParent(), new String[]{
+        ProcessOutput runResult = runInWorker(binaryPath, null, "BUILTINS", MINUTE * 5);
+        if (runResult == null) {
+            runResult = getProcessOutput(new File(binaryPath).getParent(), new String[]{
             binaryPath,
             PythonHelpersLocator.getHelperPath(GENERATOR3),
             "-d",
@@ -189,7 +259,8 @@ public class PySkeletonGenerator {
             // output dir
             "-b",
             // for builtins
-        }, PythonSdkType.getVirtualEnvExtraEnv(binaryPath), MINUTE * 5);
+            }, PythonSdkType.getVirtualEnvExtraEnv(binaryPath), MINUTE * 5);
+        }
         runResult.checkSuccess(LOG);
         LOG.info("Rebuilding builtin skeletons took " + (System.currentTimeMillis() - startTime) + " ms");
     }
@@ -208,12 +279,15 @@ public class PySkeletonGenerator {
             cmd.add(extraSysPath);
         }
 
-        ProcessOutput process = getProcessOutput(
-            parentDir,
-            ArrayUtil.toStringArray(cmd),
-            PythonSdkType.getVirtualEnvExtraEnv(homePath),
-            MINUTE * 4
-        ); // see PY-3898
+        ProcessOutput process = runInWorker(homePath, StringUtil.notNullize(extraSysPath), "LIST", MINUTE * 4);
+        if (process == null) {
+            process = getProcessOutput(
+                parentDir,
+                ArrayUtil.toStringArray(cmd),
+                PythonSdkType.getVirtualEnvExtraEnv(homePath),
+                MINUTE * 4
+            ); // see PY-3898
+        }
 
         LOG.info("Retrieving binary module list took " + (System.currentTimeMillis() - startTime) + " ms");
         if (process.getExitCode() != 0) {
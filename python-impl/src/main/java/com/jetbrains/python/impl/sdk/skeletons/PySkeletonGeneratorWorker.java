@@ -0,0 +1,82 @@
+package com.jetbrains.python.impl.sdk.skeletons;
+
+import com.jetbrains.python.impl.sdk.PyHelperProcess;
+import consulo.process.cmd.GeneralCommandLine;
+import consulo.process.util.ProcessOutput;
+import org.jspecify.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A generator3 process started in worker mode ({@code -W}) that serves many generation requests,
+ * so the interpreter startup and {@code site} import are paid once per refresh instead of once per module.
+ * <p>
+ * Requests are single tab-separated lines, replies are a {@code "status stdout_length stderr_length"} line followed by
+ * the stdout and stderr bytes. Not thread-safe: a worker serves one request at a time.
+ */
+class PySkeletonGeneratorWorker {
+    /**
+     * The module cannot be generated by a worker (e.g. an earlier request imported it but failed); use a fresh interpreter.
+     */
+    static final int STATUS_NEEDS_FRESH_INTERPRETER = 2;
+
+    private final String myBinaryPath;
+    private final String myExtraSyspath;
+    private final PyHelperProcess myProcess;
+
+    private PySkeletonGeneratorWorker(String binaryPath, String extraSyspath, PyHelperProcess process) {
+        myBinaryPath = binaryPath;
+        myExtraSyspath = extraSyspath;
+        myProcess = process;
+    }
+
+    @Nullable
+    static PySkeletonGeneratorWorker start(String binaryPath, String extraSyspath, List<String> commandLine, Map<String, String> extraEnv) {
+        PyHelperProcess process = PyHelperProcess.start(
+            "Skeleton generator worker for " + binaryPath,
+            binaryPath,
+            new GeneralCommandLine(commandLine).withEnvironment(extraEnv)
+        );
+        return process != null ? new PySkeletonGeneratorWorker(binaryPath, extraSyspath, process) : null;
+    }
+
+    /**
+     * @param extraSyspath null if the request does not depend on sys.path
+     */
+    boolean accepts(String binaryPath, @Nullable String extraSyspath) {
+        return isAlive() && myBinaryPath.equals(binaryPath) && (extraSyspath == null || myExtraSyspath.equals(extraSyspath));
+    }
+
+    boolean isAlive() {
+        return myProcess.isAlive();
+    }
+
+    /**
+     * Sends a request and waits for its reply, see {@link PyHelperProcess#request}.
+     */
+    ProcessOutput request(String request, int timeout) {
+        return myProcess.request((request + "\n").getBytes(StandardCharsets.UTF_8), timeout, PySkeletonGeneratorWorker::readReply);
+    }
+
+    private static void readReply(String header, DataInputStream body, ProcessOutput output) throws IOException {
+        String[] status = header.split(" ");
+        byte[] stdout = new byte[Integer.parseInt(status[1])];
+        byte[] stderr = new byte[Integer.parseInt(status[2])];
+        body.readFully(stdout);
+        body.readFully(stderr);
+        output.appendStdout(new String(stdout, StandardCharsets.UTF_8));
+        output.appendStderr(new String(stderr, StandardCharsets.UTF_8));
+        output.setExitCode(Integer.parseInt(status[0]));
+    }
+
+    /**
+     * Asks the worker to stop: it exits on an empty request line or on EOF.
+     */
+    void close() {
+        myProcess.close();
+    }
+}
@@ -0,0 +1,270 @@
+package com.jetbrains.python.impl.sdk.skeletons;
+
+import consulo.logging.Logger;
+import consulo.util.io.FileUtil;
+import consulo.util.lang.Pair;
+import org.jspecify.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary manifest of a skeletons directory: for every generated module it records the binary it was generated from
+ * (path, size, last modification time and a hash of its first and last {@link #HASHED_PART_SIZE} bytes) and the
+ * version of the skeleton. It also keeps the binaries the generation failed for, see {@link #getFailures()}.
+ * <p>
+ * The whole manifest is read sequentially once per refresh, so up-to-date modules are recognized without touching
+ * their skeleton files. A skeleton deleted since it was recorded is only noticed when the skeletons directory is
+ * cleaned up, see {@link #retainModules}. When the modification time of a binary changes but its content doesn't (e.g. on bind mounts
+ * or after a reinstall of the same version), the hash keeps the skeleton fresh. Only the ends of a binary are hashed,
+ * so that recording large libraries costs little; binaries of the same size differing only in the middle aren't told
+ * apart when their modification time changes.
+ * Thread-safe: modules are checked and recorded from parallel generation tasks.
+ */
+class PySkeletonManifest {
+    private static final Logger LOG = Logger.getInstance(PySkeletonManifest.class);
+
+    static final String FILE_NAME = ".manifest";
+    private static final int FORMAT_VERSION = 3;
+    private static final String HASH_ALGORITHM = "MD5";
+    private static final int HASHED_PART_SIZE = 1024 * 1024;
+
+    private final File myFile;
+    private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+    // binary path -> (generator version, binary modification time) of a failed generation
+    private final Map<String, Pair<Integer, Long>> myFailures = new HashMap<>();
+    private volatile boolean myModified;
+
+    private PySkeletonManifest(File file) {
+        myFile = file;
+    }
+
+    static PySkeletonManifest load(File skeletonsDir) {
+        PySkeletonManifest manifest = new PySkeletonManifest(new File(skeletonsDir, FILE_NAME));
+        if (!manifest.myFile.isFile()) {
+            return manifest;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest.myFile)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return manifest;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String module = input.readUTF();
+                String binaryPath = input.readUTF();
+                long length = input.readLong();
+                long lastModified = input.readLong();
+                int version = input.readInt();
+                byte[] hash = new byte[input.readUnsignedByte()];
+                input.readFully(hash);
+                manifest.myEntries.put(module, new Entry(binaryPath, length, lastModified, hash, version));
+            }
+            int failureCount = input.readInt();
+            for (int i = 0; i < failureCount; i++) {
+                String binaryPath = input.readUTF();
+                int version = input.readInt();
+                long lastModified = input.readLong();
+                manifest.myFailures.put(binaryPath, new Pair<>(version, lastModified));
+            }
+        }
+        catch (IOException e) {
+            LOG.info("Failed to read skeletons manifest " + manifest.myFile + ", skeleton headers will be checked instead", e);
+            manifest.myEntries.clear();
+            manifest.myFailures.clear();
+        }
+        return manifest;
+    }
+
+    void store() {
+        if (!myModified) {
+            return;
+        }
+        // written aside and moved in place, so an interrupted write leaves the previous manifest
+        File temp = new File(myFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            Map<String, Entry> entries = Map.copyOf(myEntries);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                output.writeUTF(e.getKey());
+                output.writeUTF(entry.myBinaryPath);
+                output.writeLong(entry.myLength);
+                output.writeLong(entry.myLastModified);
+                output.writeInt(entry.myVersion);
+                output.writeByte(entry.myHash.length);
+                output.write(entry.myHash);
+            }
+            output.writeInt(myFailures.size());
+            for (Map.Entry<String, Pair<Integer, Long>> failure : myFailures.entrySet()) {
+                output.writeUTF(failure.getKey());
+                output.writeInt(failure.getValue().getFirst());
+                output.writeLong(failure.getValue().getSecond());
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to store skeletons manifest " + myFile, e);
+            FileUtil.delete(temp);
+            return;
+        }
+        try {
+            try {
+                Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            myModified = false;
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to store skeletons manifest " + myFile, e);
+            FileUtil.delete(temp);
+        }
+    }
+
+    /**
+     * Forgets all modules, e.g. when the skeletons are replaced by pregenerated ones.
+     */
+    void clear() {
+        myEntries.clear();
+        myModified = true;
+    }
+
+    /**
+     * Forgets the modules whose skeletons are gone, so that they are generated again.
+     *
+     * @param modules the modules having a skeleton, the others are forgotten
+     */
+    void retainModules(Set<String> modules) {
+        if (myEntries.keySet().retainAll(modules)) {
+            myModified = true;
+        }
+    }
+
+    /**
+     * @return the binary the skeleton of the module was generated from, or null if the manifest knows nothing about it
+     */
+    @Nullable
+    String getBinaryPath(String module) {
+        Entry entry = myEntries.get(module);
+        return entry != null ? entry.myBinaryPath : null;
+    }
+
+    /**
+     * @return binary path -> (generator version, binary modification time) of the binaries the generation failed for
+     */
+    Map<String, Pair<Integer, Long>> getFailures() {
+        return new HashMap<>(myFailures);
+    }
+
+    void setFailures(Map<String, Pair<Integer, Long>> failures) {
+        if (!myFailures.equals(failures)) {
+            myFailures.clear();
+            myFailures.putAll(failures);
+            myModified = true;
+        }
+    }
+
+    /**
+     * Reads nothing but the manifest: the skeleton file is assumed to be there unless {@link #retainModules} was told
+     * otherwise.
+     *
+     * @return whether the skeleton of the module is up to date, or null if the manifest knows nothing about it
+     */
+    @Nullable
+    Boolean isFresh(PySkeletonRefresher.PyBinaryItem binary, int requiredVersion) {
+        Entry entry = myEntries.get(binary.getModule());
+        if (entry == null || !entry.myBinaryPath.equals(binary.getPath())) {
+            return null;
+        }
+        if (entry.myVersion < requiredVersion || entry.myLength != binary.length()) {
+            return false;
+        }
+        if (entry.myLastModified == binary.lastModified()) {
+            return true;
+        }
+        byte[] hash = hash(binary.getPath());
+        if (hash == null) {
+            return null;
+        }
+        if (!Arrays.equals(hash, entry.myHash)) {
+            return false;
+        }
+        myEntries.put(binary.getModule(), new Entry(entry.myBinaryPath, entry.myLength, binary.lastModified(), hash, entry.myVersion));
+        myModified = true;
+        return true;
+    }
+
+    /**
+     * Remembers that the skeleton of the given version is up to date with the binary.
+     */
+    void record(PySkeletonRefresher.PyBinaryItem binary, int version) {
+        byte[] hash = hash(binary.getPath());
+        if (hash == null) {
+            remove(binary);
+            return;
+        }
+        myEntries.put(binary.getModule(), new Entry(binary.getPath(), binary.length(), binary.lastModified(), hash, version));
+        myModified = true;
+    }
+
+    void remove(PySkeletonRefresher.PyBinaryItem binary) {
+        if (myEntries.remove(binary.getModule()) != null) {
+            myModified = true;
+        }
+    }
+
+    @Nullable
+    private static byte[] hash(String path) {
+        try (RandomAccessFile input = new RandomAccessFile(path, "r")) {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            byte[] buffer = new byte[64 * 1024];
+            long length = input.length();
+            update(digest, input, buffer, 0, Math.min(length, HASHED_PART_SIZE));
+            long tailStart = Math.max(HASHED_PART_SIZE, length - HASHED_PART_SIZE);
+            update(digest, input, buffer, tailStart, length - tailStart);
+            return digest.digest();
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            LOG.info("Failed to compute hash of " + path, e);
+            return null;
+        }
+    }
+
+    private static void update(MessageDigest digest, RandomAccessFile input, byte[] buffer, long start, long count) throws IOException {
+        input.seek(start);
+        while (count > 0) {
+            int read = input.read(buffer, 0, (int)Math.min(buffer.length, count));
+            if (read <= 0) {
+                break;
+            }
+            digest.update(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    private static final class Entry {
+        private final String myBinaryPath;
+        private final long myLength;
+        private final long myLastModified;
+        private final byte[] myHash;
+        private final int myVersion;
+
+        private Entry(String binaryPath, long length, long lastModified, byte[] hash, int version) {
+            myBinaryPath = binaryPath;
+            myLength = length;
+            myLastModified = lastModified;
+            myHash = hash;
+            myVersion = version;
+        }
+    }
+}
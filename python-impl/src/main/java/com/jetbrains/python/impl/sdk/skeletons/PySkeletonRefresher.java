@@ -28,6 +28,7 @@ import consulo.application.progress.ProgressIndicator;
 import consulo.application.progress.ProgressManager;
 import consulo.application.util.SystemInfo;
 import consulo.application.util.UserHomeFileUtil;
+import consulo.application.util.concurrent.AppExecutorUtil;
 import consulo.container.boot.ContainerPathManager;
 import consulo.content.base.BinariesOrderRootType;
 import consulo.content.bundle.Sdk;
@@ -55,6 +56,10 @@ import java.awt.*;
 import java.io.*;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -80,6 +85,7 @@ public class PySkeletonRefresher {
     private final Sdk mySdk;
     private String mySkeletonsPath;
 
+    // the text blacklist of older versions, replaced by the failures of the manifest
     public static final String BLACKLIST_FILE_NAME = ".blacklist";
     private final static Pattern BLACKLIST_LINE = Pattern.compile("^([^=]+) = (\\d+\\.\\d+) (\\d+)\\s*$");
     // we use the equals sign after filename so that we can freely include space in the filename
@@ -91,12 +97,15 @@ public class PySkeletonRefresher {
     private static final Pattern FROM_LINE_V2 = Pattern.compile("# from (.*)$");
     private static final Pattern BY_LINE_V2 = Pattern.compile("# by generator (.*)$");
 
+    private static final int MAX_PARALLEL_GENERATORS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
     private static int ourGeneratingCount = 0;
 
     private String myExtraSyspath;
     private VirtualFile myPregeneratedSkeletons;
     private int myGeneratorVersion;
     private Map<String, Pair<Integer, Long>> myBlacklist;
+    private PySkeletonManifest myManifest;
     private SkeletonVersionChecker myVersionChecker;
 
     private PySkeletonGenerator mySkeletonsGenerator;
@@ -283,57 +292,69 @@ public class PySkeletonRefresher {
         String readablePath = UserHomeFileUtil.getLocationRelativeToUserHome(homePath);
 
         mySkeletonsGenerator.prepare();
-        myBlacklist = loadBlacklist();
+        boolean oldOrNonExisting;
+        boolean builtinsUpdated;
+        try {
+            myManifest = PySkeletonManifest.load(skeletonsDir);
+            myBlacklist = myManifest.getFailures();
+            myBlacklist.putAll(loadLegacyBlacklist());
 
-        indicate(PyLocalize.sdkGenQuerying$0(readablePath));
-        // get generator version and binary libs list in one go
+            indicate(PyLocalize.sdkGenQuerying$0(readablePath));
+            // get generator version and binary libs list in one go
 
-        String extraSysPath = calculateExtraSysPath(mySdk, getSkeletonsPath());
-        PySkeletonGenerator.ListBinariesResult binaries = mySkeletonsGenerator.listBinaries(mySdk, extraSysPath);
-        myGeneratorVersion = binaries.generatorVersion;
-        myPregeneratedSkeletons = findPregeneratedSkeletons();
+            String extraSysPath = calculateExtraSysPath(mySdk, getSkeletonsPath());
+            PySkeletonGenerator.ListBinariesResult binaries = mySkeletonsGenerator.listBinaries(mySdk, extraSysPath);
+            myGeneratorVersion = binaries.generatorVersion;
+            myPregeneratedSkeletons = findPregeneratedSkeletons();
 
-        indicate(PyLocalize.sdkGenReadingVersionsFile());
-        if (cachedChecker != null) {
-            myVersionChecker = cachedChecker.withDefaultVersionIfUnknown(myGeneratorVersion);
-        }
-        else {
-            myVersionChecker = new SkeletonVersionChecker(myGeneratorVersion);
-        }
+            indicate(PyLocalize.sdkGenReadingVersionsFile());
+            if (cachedChecker != null) {
+                myVersionChecker = cachedChecker.withDefaultVersionIfUnknown(myGeneratorVersion);
+            }
+            else {
+                myVersionChecker = new SkeletonVersionChecker(myGeneratorVersion);
+            }
 
-        // check builtins
-        String builtinsFileName = PythonSdkType.getBuiltinsFileName(mySdk);
-        File builtinsFile = new File(skeletonsPath, builtinsFileName);
+            // check builtins
+            String builtinsFileName = PythonSdkType.getBuiltinsFileName(mySdk);
+            File builtinsFile = new File(skeletonsPath, builtinsFileName);
 
-        SkeletonHeader oldHeader = readSkeletonHeader(builtinsFile);
-        boolean oldOrNonExisting = oldHeader == null || oldHeader.getVersion() == 0;
+            SkeletonHeader oldHeader = readSkeletonHeader(builtinsFile);
+            oldOrNonExisting = oldHeader == null || oldHeader.getVersion() == 0;
 
-        if (myPregeneratedSkeletons != null && oldOrNonExisting) {
-            unpackPreGeneratedSkeletons();
-        }
+            if (myPregeneratedSkeletons != null && oldOrNonExisting) {
+                unpackPreGeneratedSkeletons();
+            }
 
-        if (oldOrNonExisting) {
-            copyBaseSdkSkeletonsToVirtualEnv(skeletonsPath, binaries);
-        }
+            if (oldOrNonExisting) {
+                myManifest.clear();
+                copyBaseSdkSkeletonsToVirtualEnv(skeletonsPath, binaries);
+            }
 
-        boolean builtinsUpdated = updateSkeletonsForBuiltins(readablePath, builtinsFile);
+            builtinsUpdated = updateSkeletonsForBuiltins(readablePath, builtinsFile);
 
-        if (!binaries.modules.isEmpty()) {
-            indicate(PyLocalize.sdkGenUpdating$0(readablePath));
-            List<UpdateResult> updateErrors = updateOrCreateSkeletons(binaries.modules);
-            if (updateErrors.size() > 0) {
-                indicateMinor(BLACKLIST_FILE_NAME);
-                for (UpdateResult error : updateErrors) {
-                    if (error.isFresh()) {
-                        errorList.add(error.getName());
+            if (!binaries.modules.isEmpty()) {
+                indicate(PyLocalize.sdkGenUpdating$0(readablePath));
+                List<UpdateResult> updateErrors = updateOrCreateSkeletons(binaries.modules);
+                if (updateErrors.size() > 0) {
+                    for (UpdateResult error : updateErrors) {
+                        if (error.isFresh()) {
+                            errorList.add(error.getName());
+                        }
+                        myBlacklist.put(error.getPath(), new Pair<>(myGeneratorVersion, error.getTimestamp()));
                     }
-                    myBlacklist.put(error.getPath(), new Pair<>(myGeneratorVersion, error.getTimestamp()));
+                    myManifest.setFailures(myBlacklist);
+                }
+                else {
+                    myManifest.setFailures(Collections.emptyMap());
                 }
-                storeBlacklist(skeletonsDir, myBlacklist);
-            }
-            else {
-                removeBlacklist(skeletonsDir);
             }
+            myManifest.store();
+            removeLegacyBlacklist(skeletonsDir);
+        }
+        finally {
+            // stops generator workers even if the refresh was cancelled or failed
+            finishSkeletonsGeneration();
         }
 
         indicate(PyLocalize.sdkGenReloading());
@@ -341,7 +362,10 @@ public class PySkeletonRefresher {
 
         if (!oldOrNonExisting) {
             indicate(PyLocalize.sdkGenCleaning$0(readablePath));
-            cleanUpSkeletons(skeletonsDir);
+            Set<String> skeletonModules = new HashSet<>();
+            cleanUpSkeletons(skeletonsDir, "", skeletonModules);
+            myManifest.retainModules(skeletonModules);
+            myManifest.store();
         }
 
         if ((builtinsUpdated || PySdkUtil.isRemote(mySdk)) && myProject != null) {
@@ -463,7 +487,7 @@ public class PySkeletonRefresher {
         }
     }
 
-    private Map<String, Pair<Integer, Long>> loadBlacklist() {
+    private Map<String, Pair<Integer, Long>> loadLegacyBlacklist() {
         Map<String, Pair<Integer, Long>> ret = new HashMap<>();
         File blacklistFile = new File(mySkeletonsPath, BLACKLIST_FILE_NAME);
         if (blacklistFile.exists() && blacklistFile.canRead()) {
@@ -507,36 +531,7 @@ public class PySkeletonRefresher {
         return ret;
     }
 
-    private static void storeBlacklist(File skeletonDir, Map<String, Pair<Integer, Long>> blacklist) {
-        File blacklistFile = new File(skeletonDir, BLACKLIST_FILE_NAME);
-        PrintWriter output;
-        try {
-            output = new PrintWriter(blacklistFile);
-            try {
-                output.println("# PyCharm failed to generate skeletons for these modules.");
-                output.println("# These skeletons will be re-generated automatically");
-                output.println("# when a newer module version or an updated generator becomes available.");
-                // each line:   filename = version.string timestamp
-                for (String fname : blacklist.keySet()) {
-                    Pair<Integer, Long> data = blacklist.get(fname);
-                    output.print(fname);
-                    output.print(" = ");
-                    output.print(SkeletonVersionChecker.toVersionString(data.getFirst()));
-                    output.print(" ");
-                    output.print(data.getSecond());
-                    output.println();
-                }
-            }
-            finally {
-                output.close();
-            }
-        }
-        catch (IOException ex) {
-            LOG.warn("Failed to store blacklist in " + skeletonDir.getPath(), ex);
-        }
-    }
-
-    private static void removeBlacklist(File skeletonDir) {
+    private static void removeLegacyBlacklist(File skeletonDir) {
         File blacklistFile = new File(skeletonDir, BLACKLIST_FILE_NAME);
         if (blacklistFile.exists()) {
             boolean okay = blacklistFile.delete();
@@ -550,8 +545,11 @@ public class PySkeletonRefresher {
      * For every existing skeleton file, take its module file name,
      * and remove the skeleton if the module file does not exist.
      * Works recursively starting from dir. Removes dirs that become empty.
+     *
+     * @param packagePrefix the qualified name of the package of dir followed by a dot, empty for the skeletons root
+     * @param skeletonModules collects the modules whose skeletons are left
      */
-    private void cleanUpSkeletons(File dir) {
+    private void cleanUpSkeletons(File dir, String packagePrefix, Set<String> skeletonModules) {
         indicateMinor(dir.getPath());
         File[] files = dir.listFiles();
         if (files == null) {
@@ -559,7 +557,7 @@ public class PySkeletonRefresher {
         }
         for (File item : files) {
             if (item.isDirectory()) {
-                cleanUpSkeletons(item);
+                cleanUpSkeletons(item, packagePrefix + item.getName() + ".", skeletonModules);
                 // was the dir emptied?
                 File[] remaining = item.listFiles();
                 if (remaining != null && remaining.length == 0) {
@@ -581,21 +579,29 @@ public class PySkeletonRefresher {
                 if (PyNames.INIT_DOT_PY.equals(itemName) && item.length() == 0) {
                     continue; // these are versionless
                 }
-                if (BLACKLIST_FILE_NAME.equals(itemName)) {
-                    continue; // don't touch the blacklist
+                if (BLACKLIST_FILE_NAME.equals(itemName) || PySkeletonManifest.FILE_NAME.equals(itemName)) {
+                    continue; // don't touch the blacklist and the manifest
                 }
                 if (PythonSdkType.getBuiltinsFileName(mySdk).equals(itemName)) {
                     continue;
                 }
-                SkeletonHeader header = readSkeletonHeader(item);
-                boolean canLive = header != null;
-                if (canLive) {
-                    String binaryFile = header.getBinaryFile();
-                    canLive = SkeletonVersionChecker.BUILTIN_NAME.equals(binaryFile) || mySkeletonsGenerator.exists(binaryFile);
+                String module = PyNames.INIT_DOT_PY.equals(itemName)
+                    ? StringUtil.trimEnd(packagePrefix, ".")
+                    : packagePrefix + StringUtil.trimEnd(itemName, PyNames.DOT_PY);
+                // the header is only read for the skeletons the manifest doesn't know
+                String binaryFile = myManifest.getBinaryPath(module);
+                if (binaryFile == null) {
+                    SkeletonHeader header = readSkeletonHeader(item);
+                    binaryFile = header != null ? header.getBinaryFile() : null;
                 }
+                boolean canLive = binaryFile != null &&
+                    (SkeletonVersionChecker.BUILTIN_NAME.equals(binaryFile) || mySkeletonsGenerator.exists(binaryFile));
                 if (!canLive) {
                     mySkeletonsGenerator.deleteOrLog(item);
                 }
+                else {
+                    skeletonModules.add(module);
+                }
             }
         }
     }
@@ -633,7 +639,8 @@ public class PySkeletonRefresher {
 
     /**
      * (Re-)generates skeletons for all binary python modules. Up-to-date skeletons are not regenerated.
-     * Does one module at a time: slower, but avoids certain conflicts.
+     * Modules of different top-level packages are generated in parallel; modules of the same package are done one at a time
+     * to avoid conflicts in the package skeleton directory.
      *
      * @param modules output of generator3 -L
      * @return blacklist data; whatever was not generated successfully is put here.
@@ -643,19 +650,55 @@ public class PySkeletonRefresher {
 
         List<String> names = Lists.newArrayList(modules.keySet());
         Collections.sort(names);
-        List<UpdateResult> results = new ArrayList<>();
+        Map<String, List<PyBinaryItem>> packages = new LinkedHashMap<>();
+        for (String name : names) {
+            String topLevelName = StringUtil.substringBefore(name, ".");
+            packages.computeIfAbsent(topLevelName != null ? topLevelName : name, k -> new ArrayList<>()).add(modules.get(name));
+        }
+        getExtraSyspath(); // compute once before the workers share it
+
+        List<UpdateResult> results = Collections.synchronizedList(new ArrayList<>());
         int count = names.size();
-        for (int i = 0; i < count; i++) {
-            checkCanceled();
-            if (myIndicator != null) {
-                myIndicator.setFraction((double)i / count);
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("PySkeletonRefresher pool", MAX_PARALLEL_GENERATORS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<PyBinaryItem> packageModules : packages.values()) {
+                futures.add(executor.submit(() -> {
+                    for (PyBinaryItem module : packageModules) {
+                        checkCanceled();
+                        updateOrCreateSkeleton(module, results);
+                        if (myIndicator != null) {
+                            myIndicator.setFraction((double)done.incrementAndGet() / count);
+                        }
+                    }
+                    return null;
+                }));
             }
-            String name = names.get(i);
-            PyBinaryItem module = modules.get(name);
-            if (module != null) {
-                updateOrCreateSkeleton(module, results);
+            for (Future<?> future : futures) {
+                checkCanceled();
+                try {
+                    future.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InvalidSdkException("Interrupted while generating skeletons for " + mySdk.getHomePath());
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof InvalidSdkException) {
+                        throw (InvalidSdkException)cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
             }
         }
+        finally {
+            executor.shutdownNow();
+        }
         finishSkeletonsGeneration();
 
 
@@ -663,7 +706,7 @@ public class PySkeletonRefresher {
 
         LOG.info("Rebuilding skeletons for binaries took " + doneInMs + " ms");
 
-        return results;
+        return new ArrayList<>(results);
     }
 
     private void finishSkeletonsGeneration() {
@@ -688,16 +731,27 @@ public class PySkeletonRefresher {
     private boolean updateOrCreateSkeleton(PyBinaryItem binaryItem, List<UpdateResult> errorList) throws InvalidSdkException {
         String moduleName = binaryItem.getModule();
 
-        File skeleton = getSkeleton(moduleName, getSkeletonsPath());
-        SkeletonHeader header = readSkeletonHeader(skeleton);
-        boolean mustRebuild = true; // guilty unless proven fresh enough
-        if (header != null) {
-            int requiredVersion = myVersionChecker.getRequiredVersion(moduleName);
-            mustRebuild = header.getVersion() < requiredVersion;
+        int requiredVersion = myVersionChecker.getRequiredVersion(moduleName);
+        // the skeleton file is only looked at for the modules the manifest doesn't know
+        Boolean fresh = myManifest.isFresh(binaryItem, requiredVersion);
+        boolean mustRebuild;
+        if (fresh != null) {
+            mustRebuild = !fresh;
         }
-        if (!mustRebuild) { // ...but what if the lib was updated?
-            mustRebuild = (skeleton.exists() && binaryItem.lastModified() > skeleton.lastModified());
-            // really we can omit both exists() calls but I keep these to make the logic clear
+        else {
+            File skeleton = getSkeleton(moduleName, getSkeletonsPath());
+            SkeletonHeader header = readSkeletonHeader(skeleton);
+            mustRebuild = true; // guilty unless proven fresh enough
+            if (header != null) {
+                mustRebuild = header.getVersion() < requiredVersion;
+            }
+            if (!mustRebuild) { // ...but what if the lib was updated?
+                mustRebuild = (skeleton.exists() && binaryItem.lastModified() > skeleton.lastModified());
+                // really we can omit both exists() calls but I keep these to make the logic clear
+            }
+            if (!mustRebuild) {
+                myManifest.record(binaryItem, header.getVersion());
+            }
         }
         if (myBlacklist != null) {
             Pair<Integer, Long> versionInfo = myBlacklist.get(binaryItem.getPath());
@@ -713,19 +767,36 @@ public class PySkeletonRefresher {
         if (mustRebuild) {
             indicateMinor(moduleName);
             if (myPregeneratedSkeletons != null && copyPregeneratedSkeleton(moduleName)) {
+                recordGeneratedSkeleton(binaryItem);
                 return true;
             }
             LOG.info("Skeleton for " + moduleName);
 
+            long startTime = System.currentTimeMillis();
             generateSkeleton(moduleName, binaryItem.getPath(), null, generated -> {
-                if (!generated) {
+                if (generated) {
+                    recordGeneratedSkeleton(binaryItem);
+                }
+                else {
+                    myManifest.remove(binaryItem);
                     errorList.add(new UpdateResult(moduleName, binaryItem.getPath(), binaryItem.lastModified(), true));
                 }
             });
+            LOG.info("Skeleton for " + moduleName + " took " + (System.currentTimeMillis() - startTime) + " ms");
         }
         return false;
     }
 
+    private void recordGeneratedSkeleton(PyBinaryItem binaryItem) {
+        SkeletonHeader header = readSkeletonHeader(getSkeleton(binaryItem.getModule(), mySkeletonsPath));
+        if (header != null) {
+            myManifest.record(binaryItem, header.getVersion());
+        }
+        else {
+            myManifest.remove(binaryItem);
+        }
+    }
+
     public static class PyBinaryItem {
         private String myPath;
         private String myModule;
@@ -0,0 +1,290 @@
+package com.jetbrains.python.impl.validation;
+
+import com.jetbrains.python.impl.PythonHelper;
+import com.jetbrains.python.impl.sdk.PyHelperProcess;
+import consulo.application.Application;
+import consulo.application.progress.ProgressManager;
+import consulo.application.util.concurrent.AppExecutorUtil;
+import consulo.disposer.Disposer;
+import consulo.logging.Logger;
+import consulo.process.util.ProcessOutput;
+import consulo.util.collection.ContainerUtil;
+import consulo.util.lang.StringUtil;
+import org.jspecify.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A long-running pycodestyle.py process of an interpreter that checks many sources,
+ * so the interpreter startup and the pycodestyle import are not paid on every highlighting pass.
+ * <p>
+ * Requests are a {@code "CHECK\toption...\tlength"} line followed by the source, replies are a {@code "status length"} line
+ * followed by the problems in the pycodestyle.py output format. A {@code "CHECK_LINES\tfirst\tlast\toption...\tlength"} request
+ * checks only the given lines and their context, see {@link #checkLines}. A daemon serves one request at a time;
+ * a few daemons are started per interpreter at most, idle daemons are kept for a few minutes and a crashed daemon
+ * is replaced by a new one.
+ * When a daemon can't be started, the interpreter is retried after a delay growing with each failure.
+ * The daemons are closed on application exit.
+ */
+class Pep8CheckerDaemon {
+    private static final Logger LOG = Logger.getInstance(Pep8CheckerDaemon.class);
+
+    private static final int MAX_DAEMONS_PER_INTERPRETER = 2;
+    private static final int CANCELLATION_CHECK_INTERVAL_MS = 20;
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MIN_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Map<String, BlockingQueue<Pep8CheckerDaemon>> ourIdleDaemons = new ConcurrentHashMap<>();
+    // a permit per running daemon, so the daemons of cancelled passes don't pile up
+    private static final Map<String, Semaphore> ourDaemonPermits = new ConcurrentHashMap<>();
+    private static final Map<String, StartFailures> ourStartFailures = new ConcurrentHashMap<>();
+    private static final AtomicBoolean ourDisposerRegistered = new AtomicBoolean();
+    private static volatile boolean ourDisposed;
+
+    private final String myInterpreterPath;
+    private final PyHelperProcess myProcess;
+    private final AtomicBoolean myClosed = new AtomicBoolean();
+    private volatile long myReleasedAt;
+
+    private Pep8CheckerDaemon(String interpreterPath, PyHelperProcess process) {
+        myInterpreterPath = interpreterPath;
+        myProcess = process;
+    }
+
+    /**
+     * Checks the source in a daemon of the interpreter, waiting for the result in a cancellable way: if the highlighting
+     * pass is cancelled, the daemon finishes the check in background and becomes available for the next request.
+     * While all the daemons of the interpreter are checking, waits for one of them rather than starting another.
+     *
+     * @return null if no daemon can be started for the interpreter and the source should be checked by a one-shot process
+     */
+    @Nullable
+    static ProcessOutput check(String interpreterPath, List<String> options, String text, int timeout) {
+        return run(interpreterPath, ContainerUtil.prepend(options, "CHECK"), text, timeout);
+    }
+
+    /**
+     * Like {@link #check} but reports only the problems of the logical lines overlapping the given lines (1-based, inclusive)
+     * and of the lines up to the next statement after them. The first line of the output is {@code "first last"},
+     * the lines the problems were actually looked for in; problems outside of them are the same as before the change.
+     */
+    @Nullable
+    static ProcessOutput checkLines(String interpreterPath, List<String> options, String text, int firstLine, int lastLine, int timeout) {
+        List<String> request = ContainerUtil.prepend(options, "CHECK_LINES", String.valueOf(firstLine), String.valueOf(lastLine));
+        return run(interpreterPath, request, text, timeout);
+    }
+
+    @Nullable
+    private static ProcessOutput run(String interpreterPath, List<String> request, String text, int timeout) {
+        if (ourDisposed || isStartPostponed(interpreterPath)) {
+            return null;
+        }
+        byte[] source = text.getBytes(StandardCharsets.UTF_8);
+        ProcessOutput output = null;
+        // a daemon that crashed while checking is replaced once, the second failure is reported
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Pep8CheckerDaemon daemon = acquire(interpreterPath);
+            if (daemon == null) {
+                return null;
+            }
+            CompletableFuture<ProcessOutput> reply =
+                CompletableFuture.supplyAsync(() -> daemon.request(request, source, timeout), AppExecutorUtil.getAppExecutorService());
+            reply.whenComplete((o, e) -> release(daemon));
+            output = await(reply);
+            if (output.getExitCode() >= 0 || output.isTimeout()) {
+                break;
+            }
+        }
+        return output;
+    }
+
+    private static ProcessOutput await(Future<ProcessOutput> reply) {
+        while (true) {
+            ProgressManager.checkCanceled();
+            try {
+                return reply.get(CANCELLATION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException ignored) {
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    @Nullable
+    private static Pep8CheckerDaemon acquire(String interpreterPath) {
+        BlockingQueue<Pep8CheckerDaemon> idle = ourIdleDaemons.computeIfAbsent(interpreterPath, k -> new LinkedBlockingQueue<>());
+        Semaphore permits = ourDaemonPermits.computeIfAbsent(interpreterPath, k -> new Semaphore(MAX_DAEMONS_PER_INTERPRETER));
+        Pep8CheckerDaemon daemon = idle.poll();
+        while (true) {
+            if (daemon != null) {
+                if (daemon.myProcess.isAlive()) {
+                    return daemon;
+                }
+                daemon.close();
+                daemon = idle.poll();
+                continue;
+            }
+            if (permits.tryAcquire()) {
+                daemon = start(interpreterPath);
+                if (daemon == null) {
+                    permits.release();
+                }
+                return daemon;
+            }
+            if (ourDisposed) {
+                return null;
+            }
+            // all the daemons are busy, possibly with the sources of cancelled passes: wait for one of them
+            ProgressManager.checkCanceled();
+            try {
+                daemon = idle.poll(CANCELLATION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void release(Pep8CheckerDaemon daemon) {
+        if (!daemon.myProcess.isAlive() || ourDisposed) {
+            daemon.close();
+            return;
+        }
+        Queue<Pep8CheckerDaemon> idle = ourIdleDaemons.get(daemon.myInterpreterPath);
+        daemon.myReleasedAt = System.currentTimeMillis();
+        idle.add(daemon);
+        // the daemon could have been added after the queues were closed on exit
+        if (ourDisposed && idle.remove(daemon)) {
+            daemon.close();
+        }
+    }
+
+    @Nullable
+    private static Pep8CheckerDaemon start(String interpreterPath) {
+        registerDisposer();
+        PyHelperProcess process = PyHelperProcess.start(
+            "pycodestyle.py daemon for " + interpreterPath,
+            interpreterPath,
+            PythonHelper.PYCODESTYLE_DAEMON.newCommandLine(interpreterPath, Collections.emptyList())
+        );
+        if (process == null) {
+            StartFailures failures = ourStartFailures.computeIfAbsent(interpreterPath, k -> new StartFailures());
+            long delay = failures.postpone();
+            LOG.info("pycodestyle.py daemon for " + interpreterPath + " will not be started again for " + delay + " ms");
+            return null;
+        }
+        ourStartFailures.remove(interpreterPath);
+        return new Pep8CheckerDaemon(interpreterPath, process);
+    }
+
+    private static boolean isStartPostponed(String interpreterPath) {
+        StartFailures failures = ourStartFailures.get(interpreterPath);
+        return failures != null && failures.isPostponed();
+    }
+
+    /**
+     * Closes the daemons idle for too long, and all the idle daemons on application exit.
+     */
+    private static void registerDisposer() {
+        if (!ourDisposerRegistered.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> idleCheck = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+            () -> closeIdleDaemons(System.currentTimeMillis() - IDLE_TIMEOUT_MS),
+            IDLE_TIMEOUT_MS,
+            IDLE_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS
+        );
+        Disposer.register(Application.get(), () -> {
+            ourDisposed = true;
+            idleCheck.cancel(false);
+            closeIdleDaemons(Long.MAX_VALUE);
+        });
+    }
+
+    private static void closeIdleDaemons(long releasedBefore) {
+        for (Queue<Pep8CheckerDaemon> idle : ourIdleDaemons.values()) {
+            for (Pep8CheckerDaemon daemon : idle) {
+                if (daemon.myReleasedAt < releasedBefore && idle.remove(daemon)) {
+                    daemon.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the daemon, or frees its place if it has already died.
+     */
+    private void close() {
+        if (myClosed.compareAndSet(false, true)) {
+            myProcess.close();
+            ourDaemonPermits.get(myInterpreterPath).release();
+        }
+    }
+
+    /**
+     * Sends a request and waits for its reply, see {@link PyHelperProcess#request}.
+     */
+    private ProcessOutput request(List<String> request, byte[] source, int timeout) {
+        StringBuilder header = new StringBuilder();
+        for (String part : request) {
+            header.append(part).append('\t');
+        }
+        header.append(source.length).append('\n');
+        byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[headerBytes.length + source.length];
+        System.arraycopy(headerBytes, 0, bytes, 0, headerBytes.length);
+        System.arraycopy(source, 0, bytes, headerBytes.length, source.length);
+        return myProcess.request(bytes, timeout, Pep8CheckerDaemon::readReply);
+    }
+
+    private static void readReply(String header, DataInputStream body, ProcessOutput output) throws IOException {
+        List<String> status = StringUtil.split(header, " ");
+        byte[] reply = new byte[Integer.parseInt(status.get(1))];
+        body.readFully(reply);
+        String text = new String(reply, StandardCharsets.UTF_8);
+        if (Integer.parseInt(status.get(0)) == 0) {
+            output.appendStdout(text);
+            output.setExitCode(0);
+        }
+        else {
+            output.appendStderr(text);
+            output.setExitCode(1);
+        }
+    }
+
+    /**
+     * The failed starts of the daemons of an interpreter since the last successful one.
+     */
+    private static class StartFailures {
+        private int myCount;
+        private long myRetryAt;
+
+        synchronized long postpone() {
+            myCount++;
+            long delay = Math.min(MIN_RETRY_DELAY_MS << Math.min(myCount - 1, 16), MAX_RETRY_DELAY_MS);
+            myRetryAt = System.currentTimeMillis() + delay;
+            return delay;
+        }
+
+        synchronized boolean isPostponed() {
+            return System.currentTimeMillis() < myRetryAt;
+        }
+    }
+}
@@ -74,7 +74,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -87,6 +89,10 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
     private static final String DEFAULT_IGNORED_ERRORS = "E121,E123,E126,E226,E24,E704,W503";
     private static final Logger LOG = Logger.getInstance(Pep8ExternalAnnotator.class);
     private static final Pattern E303_LINE_COUNT_PATTERN = Pattern.compile(".*\\((\\d+)\\)$");
+    private static final int TIMEOUT = 10000;
+    private static final int MAX_CACHED_FILES = 64;
+    // lines around a change checked again, in addition to the logical lines containing it
+    private static final int CONTEXT_LINES = 2;
 
     @Override
     public Language getLanguage() {
@@ -129,13 +135,25 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
         private final HighlightDisplayLevel level;
         private final List<String> ignoredErrors;
         private final int margin;
-
-        public State(String interpreterPath, String fileText, HighlightDisplayLevel level, List<String> ignoredErrors, int margin) {
+        private final String fileUrl;
+        private final long stamp;
+
+        public State(
+            String interpreterPath,
+            String fileText,
+            HighlightDisplayLevel level,
+            List<String> ignoredErrors,
+            int margin,
+            String fileUrl,
+            long stamp
+        ) {
             this.interpreterPath = interpreterPath;
             this.fileText = fileText;
             this.level = level;
             this.ignoredErrors = ignoredErrors;
             this.margin = margin;
+            this.fileUrl = fileUrl;
+            this.stamp = stamp;
         }
     }
 
@@ -148,6 +166,111 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
         }
     }
 
+    /**
+     * Problems found in the latest checked version of a file, so highlighting passes over an unchanged document
+     * (e.g. after a settings change or an editor switch) don't run pycodestyle.py again,
+     * and after a change only the changed lines are checked again.
+     */
+    private static class CachedProblems {
+        private final long stamp;
+        private final List<String> command;
+        private final String text;
+        private final List<Problem> problems;
+
+        private CachedProblems(long stamp, List<String> command, String text, List<Problem> problems) {
+            this.stamp = stamp;
+            this.command = command;
+            this.text = text;
+            this.problems = problems;
+        }
+    }
+
+    /**
+     * Lines of a new version of a file that differ from the old one, found by comparing the common prefix and suffix of the texts.
+     */
+    private static class LineChange {
+        // Python splits lines on these as well, so pycodestyle.py line numbers would not match the document ones
+        private static final String SPECIAL_LINE_BREAKS = "\r\u000b\u000c\u001c\u001d\u001e\u0085\u2028\u2029";
+
+        private final int firstLine;
+        private final int lastLine;
+        private final int oldSuffixLine;
+        private final int lineShift;
+
+        /**
+         * @param firstLine     first changed line of the new text, 1-based
+         * @param lastLine      last changed line of the new text, firstLine - 1 if lines were only removed
+         * @param oldSuffixLine first line of the unchanged end of the old text
+         * @param lineShift     how many lines the unchanged end has moved by
+         */
+        private LineChange(int firstLine, int lastLine, int oldSuffixLine, int lineShift) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.oldSuffixLine = oldSuffixLine;
+            this.lineShift = lineShift;
+        }
+
+        /**
+         * @return null if the lines can't be matched or most of the file has changed
+         */
+        @Nullable
+        private static LineChange compute(String oldText, String newText) {
+            if (StringUtil.containsAnyChar(oldText, SPECIAL_LINE_BREAKS) || StringUtil.containsAnyChar(newText, SPECIAL_LINE_BREAKS)) {
+                return null;
+            }
+            int oldLength = oldText.length();
+            int newLength = newText.length();
+            int prefix = 0;
+            int maxPrefix = Math.min(oldLength, newLength);
+            while (prefix < maxPrefix && oldText.charAt(prefix) == newText.charAt(prefix)) {
+                prefix++;
+            }
+            prefix = newText.lastIndexOf('\n', prefix - 1) + 1;
+
+            int suffix = 0;
+            int maxSuffix = maxPrefix - prefix;
+            while (suffix < maxSuffix && oldText.charAt(oldLength - suffix - 1) == newText.charAt(newLength - suffix - 1)) {
+                suffix++;
+            }
+            while (suffix > 0 && !(isLineStart(oldText, oldLength - suffix) && isLineStart(newText, newLength - suffix))) {
+                suffix--;
+            }
+
+            int firstLine = countNewLines(newText, prefix) + 1;
+            int newSuffixLine = countNewLines(newText, newLength - suffix) + 1;
+            int newLineCount = countNewLines(newText, newLength) + 1;
+            if (2 * (newSuffixLine - firstLine) > newLineCount) {
+                return null;
+            }
+            if (suffix == 0) {
+                return new LineChange(firstLine, newLineCount, Integer.MAX_VALUE, 0);
+            }
+            int oldSuffixLine = countNewLines(oldText, oldLength - suffix) + 1;
+            return new LineChange(firstLine, newSuffixLine - 1, oldSuffixLine, newSuffixLine - oldSuffixLine);
+        }
+
+        private static boolean isLineStart(String text, int offset) {
+            return offset == 0 || text.charAt(offset - 1) == '\n';
+        }
+
+        private static int countNewLines(String text, int end) {
+            int count = 0;
+            for (int i = 0; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final Map<String, CachedProblems> myCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedProblems> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    });
+
     private boolean myReportedMissingInterpreter;
 
     @Nullable
@@ -196,7 +319,9 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
         }
 
         int margin = currentSettings.getRightMargin(file.getLanguage());
-        return new State(homePath, file.getText(), profile.getErrorLevel(key, file), ignoredErrors, margin);
+        Document document = PsiDocumentManager.getInstance(file.getProject()).getDocument(file);
+        long stamp = document != null ? document.getModificationStamp() : file.getModificationStamp();
+        return new State(homePath, file.getText(), profile.getErrorLevel(key, file), ignoredErrors, margin, vFile.getUrl(), stamp);
     }
 
     private static void reportMissingInterpreter() {
@@ -222,30 +347,82 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
             options.add("--ignore=" + DEFAULT_IGNORED_ERRORS + "," + StringUtil.join(collectedInfo.ignoredErrors, ","));
         }
         options.add("--max-line-length=" + collectedInfo.margin);
-        options.add("-");
-
-        GeneralCommandLine cmd = PythonHelper.PYCODESTYLE.newCommandLine(collectedInfo.interpreterPath, options);
 
-        ProcessOutput output = PySdkUtil.getProcessOutput(
-            cmd,
-            new File(collectedInfo.interpreterPath).getParent(),
-            ImmutableMap.of("PYTHONBUFFERED", "1"),
-            10000,
-            collectedInfo.fileText.getBytes(),
-            false
-        );
+        List<String> command = new ArrayList<>(options);
+        command.add(0, collectedInfo.interpreterPath);
 
         Results results = new Results(collectedInfo.level);
+        CachedProblems cached = myCache.get(collectedInfo.fileUrl);
+        if (cached != null && !cached.command.equals(command)) {
+            cached = null;
+        }
+        if (cached != null && (cached.stamp == collectedInfo.stamp || cached.text.equals(collectedInfo.fileText))) {
+            results.problems.addAll(cached.problems);
+            return results;
+        }
+
+        LineChange change = cached != null ? LineChange.compute(cached.text, collectedInfo.fileText) : null;
+        ProcessOutput output = null;
+        if (change != null) {
+            output = Pep8CheckerDaemon.checkLines(
+                collectedInfo.interpreterPath,
+                options,
+                collectedInfo.fileText,
+                Math.max(1, change.firstLine - CONTEXT_LINES),
+                change.lastLine + CONTEXT_LINES,
+                TIMEOUT
+            );
+            if (output == null) {
+                change = null;
+            }
+        }
+        if (output == null) {
+            output = Pep8CheckerDaemon.check(collectedInfo.interpreterPath, options, collectedInfo.fileText, TIMEOUT);
+        }
+        if (output == null) {
+            options.add("-");
+            GeneralCommandLine cmd = PythonHelper.PYCODESTYLE.newCommandLine(collectedInfo.interpreterPath, options);
+
+            output = PySdkUtil.getProcessOutput(
+                cmd,
+                new File(collectedInfo.interpreterPath).getParent(),
+                ImmutableMap.of("PYTHONBUFFERED", "1"),
+                TIMEOUT,
+                collectedInfo.fileText.getBytes(),
+                false
+            );
+        }
+
         if (output.isTimeout()) {
             LOG.info("Timeout running pycodestyle.py");
         }
         else if (output.getStderrLines().isEmpty()) {
-            for (String line : output.getStdoutLines()) {
-                Problem problem = parseProblem(line);
-                if (problem != null) {
-                    results.problems.add(problem);
+            List<String> lines = output.getStdoutLines();
+            if (change != null && !lines.isEmpty()) {
+                // only problems of the checked lines were reported, the others are carried over from the previous version
+                List<String> checkedLines = StringUtil.split(lines.get(0), " ");
+                int first = Integer.parseInt(checkedLines.get(0));
+                int last = Integer.parseInt(checkedLines.get(1));
+                for (Problem problem : cached.problems) {
+                    if (problem.myLine < first) {
+                        results.problems.add(problem);
+                    }
                 }
+                addProblems(lines.subList(1, lines.size()), results.problems);
+                for (Problem problem : cached.problems) {
+                    int line = problem.myLine + change.lineShift;
+                    if (problem.myLine >= change.oldSuffixLine && line > last) {
+                        results.problems.add(new Problem(line, problem.myColumn, problem.myCode, problem.myDescription));
+                    }
+                }
+            }
+            else {
+                addProblems(lines, results.problems);
             }
+            myCache.put(
+                collectedInfo.fileUrl,
+                new CachedProblems(collectedInfo.stamp, command, collectedInfo.fileText, List.copyOf(results.problems))
+            );
         }
         else if (ApplicationProperties.isInSandbox()) {
             LOG.info("Error running pycodestyle.py: " + output.getStderr());
@@ -426,6 +603,15 @@ public class Pep8ExternalAnnotator extends ExternalAnnotator<Pep8ExternalAnnotat
         return false;
     }
 
+    private static void addProblems(List<String> lines, List<Problem> problems) {
+        for (String line : lines) {
+            Problem problem = parseProblem(line);
+            if (problem != null) {
+                problems.add(problem);
+            }
+        }
+    }
+
     private static final Pattern PROBLEM_PATTERN = Pattern.compile(".+:(\\d+):(\\d+): ([EW]\\d{3}) (.+)");
 
     @Nullable
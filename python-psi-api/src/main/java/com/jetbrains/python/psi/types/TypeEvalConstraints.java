@@ -47,6 +47,15 @@ class TypeEvalConstraints
 		myOrigin = origin;
 	}
 
+	/**
+	 * @return true if types evaluated under these constraints read AST (and thus code blocks) of files other than {@link #myOrigin}.
+	 * Otherwise they depend only on the origin file and on stubs of other files.
+	 */
+	boolean mayAccessForeignCodeBlocks()
+	{
+		return myAllowDataFlow || myAllowStubToAST;
+	}
+
 	@Override
 	public boolean equals(Object o)
 	{
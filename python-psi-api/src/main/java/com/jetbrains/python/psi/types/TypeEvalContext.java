@@ -16,11 +16,11 @@
 package com.jetbrains.python.psi.types;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jspecify.annotations.Nullable;
 import consulo.ide.ServiceManager;
@@ -46,13 +46,24 @@ public class TypeEvalContext
 		}
 	}
 
+	/**
+	 * Stored in place of {@code null} types: {@link ConcurrentHashMap} doesn't accept null values.
+	 */
+	private static final Object NULL_TYPE = new Object();
+
 	private final TypeEvalConstraints myConstraints;
 
 	private List<String> myTrace;
 	private String myTraceIndent = "";
 
-	private final Map<PyTypedElement, PyType> myEvaluated = new HashMap<>();
-	private final Map<PyCallable, PyType> myEvaluatedReturn = new HashMap<>();
+	private final Map<PyTypedElement, Object> myEvaluated = new ConcurrentHashMap<>();
+	private final Map<PyCallable, Object> myEvaluatedReturn = new ConcurrentHashMap<>();
+	/**
+	 * Modification stamps of the files this context has read, taken when each file was read first.
+	 * Recorded only for contexts that read nothing but stubs outside of their origin file, null otherwise.
+	 */
+	@Nullable
+	private final Map<PsiFile, Long> myFileStamps;
 	private final ThreadLocal<Set<PyTypedElement>> myEvaluating = new ThreadLocal<Set<PyTypedElement>>()
 	{
 		@Override
@@ -73,6 +84,8 @@ public class TypeEvalContext
 	private TypeEvalContext(boolean allowDataFlow, boolean allowStubToAST, boolean allowCallContext, @Nullable PsiFile origin)
 	{
 		myConstraints = new TypeEvalConstraints(allowDataFlow, allowStubToAST, allowCallContext, origin);
+		myFileStamps = myConstraints.mayAccessForeignCodeBlocks() ? null : new ConcurrentHashMap<>();
+		dependOn(origin);
 	}
 
 	@Override
@@ -83,12 +96,12 @@ public class TypeEvalContext
 
 	public boolean allowDataFlow(PsiElement element)
 	{
-		return myConstraints.myAllowDataFlow || element.getContainingFile() == myConstraints.myOrigin;
+		return myConstraints.myAllowDataFlow || isInOrigin(element);
 	}
 
 	public boolean allowReturnTypes(PsiElement element)
 	{
-		return myConstraints.myAllowDataFlow || element.getContainingFile() == myConstraints.myOrigin;
+		return myConstraints.myAllowDataFlow || isInOrigin(element);
 	}
 
 	public boolean allowCallContext(PsiElement element)
@@ -224,21 +237,17 @@ public class TypeEvalContext
 		evaluating.add(element);
 		try
 		{
-			synchronized(myEvaluated)
+			Object cached = myEvaluated.get(element);
+			if(cached != null)
 			{
-				if(myEvaluated.containsKey(element))
-				{
-					PyType type = myEvaluated.get(element);
-					assertValid(type, element);
-					return type;
-				}
+				PyType type = unwrap(cached);
+				assertValid(type, element);
+				return type;
 			}
+			dependOn(element.getContainingFile());
 			PyType type = element.getType(this, Key.INSTANCE);
 			assertValid(type, element);
-			synchronized(myEvaluated)
-			{
-				myEvaluated.put(element, type);
-			}
+			myEvaluated.put(element, wrap(type));
 			return type;
 		}
 		finally
@@ -258,21 +267,17 @@ public class TypeEvalContext
 		evaluating.add(callable);
 		try
 		{
-			synchronized(myEvaluatedReturn)
+			Object cached = myEvaluatedReturn.get(callable);
+			if(cached != null)
 			{
-				if(myEvaluatedReturn.containsKey(callable))
-				{
-					PyType type = myEvaluatedReturn.get(callable);
-					assertValid(type, callable);
-					return type;
-				}
+				PyType type = unwrap(cached);
+				assertValid(type, callable);
+				return type;
 			}
+			dependOn(callable.getContainingFile());
 			PyType type = callable.getReturnType(this, Key.INSTANCE);
 			assertValid(type, callable);
-			synchronized(myEvaluatedReturn)
-			{
-				myEvaluatedReturn.put(callable, type);
-			}
+			myEvaluatedReturn.put(callable, wrap(type));
 			return type;
 		}
 		finally
@@ -281,6 +286,17 @@ public class TypeEvalContext
 		}
 	}
 
+	private static Object wrap(@Nullable PyType type)
+	{
+		return type == null ? NULL_TYPE : type;
+	}
+
+	@Nullable
+	private static PyType unwrap(Object cached)
+	{
+		return cached == NULL_TYPE ? null : (PyType) cached;
+	}
+
 	private static void assertValid(@Nullable PyType result, PyTypedElement element)
 	{
 		if(result != null)
@@ -291,7 +307,43 @@ public class TypeEvalContext
 
 	public boolean maySwitchToAST(PsiElement element)
 	{
-		return myConstraints.myAllowStubToAST || myConstraints.myOrigin == element.getContainingFile();
+		return myConstraints.myAllowStubToAST || isInOrigin(element);
+	}
+
+	private boolean isInOrigin(PsiElement element)
+	{
+		PsiFile file = element.getContainingFile();
+		dependOn(file);
+		return file == myConstraints.myOrigin;
+	}
+
+	private void dependOn(@Nullable PsiFile file)
+	{
+		if(myFileStamps != null && file != null)
+		{
+			myFileStamps.putIfAbsent(file, file.getModificationStamp());
+		}
+	}
+
+	/**
+	 * @return true if one of the files read by this context was modified or deleted since it was read.
+	 * Always false for contexts that may read code blocks of other files: they do not record what they read.
+	 */
+	boolean isOutdated()
+	{
+		if(myFileStamps == null)
+		{
+			return false;
+		}
+		for(Map.Entry<PsiFile, Long> entry : myFileStamps.entrySet())
+		{
+			PsiFile file = entry.getKey();
+			if(!file.isValid() || file.getModificationStamp() != entry.getValue())
+			{
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Nullable
@@ -18,7 +18,9 @@ package com.jetbrains.python.psi.types;
 import consulo.application.util.CachedValue;
 import consulo.application.util.CachedValueProvider;
 import consulo.application.util.CachedValuesManager;
+import consulo.language.psi.PsiFile;
 import consulo.language.psi.PsiModificationTracker;
+import consulo.virtualFileSystem.VirtualFileManager;
 
 import org.jspecify.annotations.Nullable;
 import java.util.HashMap;
@@ -28,6 +30,11 @@ import java.util.function.Function;
 /**
  * Engine to cache something in map, where {@link TypeEvalContext} is used as key.
  * This cache is weak-based (no memory leaks), thread safe and purges on any PSI change.
+ * <p>
+ * In fine-grained mode values for contexts that never leave stubs outside of their origin file
+ * (see {@link TypeEvalConstraints#mayAccessForeignCodeBlocks()}) are purged only when one of the files read by the context
+ * that computed them is modified (see {@link TypeEvalContext#isOutdated()}), or when files are created, deleted or moved.
+ * Editing a file thus keeps values computed for contexts that have not read it.
  *
  * @author Ilya.Kazakevich
  */
@@ -38,6 +45,11 @@ public final class TypeEvalContextBasedCache<T>
 	 */
 	private final Object myLock = new Object();
 	private final CachedValue<Map<TypeEvalConstraints, T>> myCachedMapStorage;
+	/**
+	 * Values checked against the files read by their contexts. Null if fine-grained mode is off.
+	 */
+	@Nullable
+	private final CachedValue<Map<TypeEvalConstraints, CheckedValue<T>>> myStructureMapStorage;
 
 	private final Function<TypeEvalContext, T> myProvider;
 
@@ -46,8 +58,19 @@ public final class TypeEvalContextBasedCache<T>
 	 * @param valueProvider engine to create value based on context.
 	 */
 	public TypeEvalContextBasedCache(CachedValuesManager manager, Function<TypeEvalContext, T> valueProvider)
+	{
+		this(manager, valueProvider, false);
+	}
+
+	/**
+	 * @param manager       Cache manager to be used to store cache
+	 * @param valueProvider engine to create value based on context.
+	 * @param fineGrained   keep values of stub-only contexts until a file read by the context changes
+	 */
+	public TypeEvalContextBasedCache(CachedValuesManager manager, Function<TypeEvalContext, T> valueProvider, boolean fineGrained)
 	{
 		myCachedMapStorage = manager.createCachedValue(new MapCreator<T>(), false);
+		myStructureMapStorage = fineGrained ? manager.createCachedValue(new StructureMapCreator<T>(), false) : null;
 		myProvider = valueProvider;
 	}
 
@@ -59,6 +82,11 @@ public final class TypeEvalContextBasedCache<T>
 	 */
 	public T getValue(TypeEvalContext context)
 	{
+		TypeEvalConstraints constraints = context.getConstraints();
+		if(myStructureMapStorage != null && !constraints.mayAccessForeignCodeBlocks())
+		{
+			return getCheckedValue(myStructureMapStorage, context);
+		}
 
 		// Map is not thread safe, and "getValue" is not atomic. I do not want several maps to be created.
 		synchronized(myLock)
@@ -77,6 +105,46 @@ public final class TypeEvalContextBasedCache<T>
 		}
 	}
 
+	private T getCheckedValue(CachedValue<Map<TypeEvalConstraints, CheckedValue<T>>> storage, TypeEvalContext context)
+	{
+		PsiFile origin = context.getOrigin();
+		// Files read by a context can't change while the PSI doesn't, so they are checked once per PSI modification
+		long modificationCount = origin != null ? PsiModificationTracker.getInstance(origin.getProject()).getModificationCount() : -1;
+		synchronized(myLock)
+		{
+			Map<TypeEvalConstraints, CheckedValue<T>> map = storage.getValue();
+			CheckedValue<T> checked = map.get(context.getConstraints());
+			if(checked != null && (modificationCount != -1 && checked.myModificationCount == modificationCount || !checked.myContext.isOutdated()))
+			{
+				checked.myModificationCount = modificationCount;
+				return checked.myValue;
+			}
+			T value = myProvider.apply(context);
+			map.put(context.getConstraints(), new CheckedValue<>(value, context, modificationCount));
+			return value;
+		}
+	}
+
+	/**
+	 * Value with the context it was computed for: the value is valid while the files this context reads are not modified.
+	 */
+	private static final class CheckedValue<T>
+	{
+		private final T myValue;
+		private final TypeEvalContext myContext;
+		/**
+		 * PSI modification count the value was known to be valid at
+		 */
+		private long myModificationCount;
+
+		private CheckedValue(T value, TypeEvalContext context, long modificationCount)
+		{
+			myValue = value;
+			myContext = context;
+			myModificationCount = modificationCount;
+		}
+	}
+
 	/**
 	 * Provider that creates map to store cache. Map depends on PSI modification
 	 */
@@ -91,4 +159,19 @@ public final class TypeEvalContextBasedCache<T>
 			return new Result<>(map, PsiModificationTracker.MODIFICATION_COUNT);
 		}
 	}
+
+	/**
+	 * Provider that creates map to store fine-grained cache. Map depends on file creation, deletion and move only:
+	 * content changes are checked per value
+	 */
+	private static final class StructureMapCreator<T> implements CachedValueProvider<Map<TypeEvalConstraints, CheckedValue<T>>>
+	{
+		@Nullable
+		@Override
+		public Result<Map<TypeEvalConstraints, CheckedValue<T>>> compute()
+		{
+			HashMap<TypeEvalConstraints, CheckedValue<T>> map = new HashMap<>();
+			return new Result<>(map, VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+		}
+	}
 }
@@ -24,6 +24,7 @@ import java.util.function.Function;
 
 /**
  * Caches context by their constraints (to prevent context cache loss). Flushes cache every PSI change or low memory conditions.
+ * Stub-only contexts survive changes of the files they have not read (see {@link TypeEvalContextBasedCache}).
  * Class is thread safe.
  * See {@link #getContext(TypeEvalContext)}
  *
@@ -37,7 +38,7 @@ final class TypeEvalContextCacheImpl implements TypeEvalContextCache {
 
   @Inject
   TypeEvalContextCacheImpl(CachedValuesManager manager) {
-    myCache = new TypeEvalContextBasedCache<>(manager, VALUE_PROVIDER);
+    myCache = new TypeEvalContextBasedCache<>(manager, VALUE_PROVIDER, true);
   }
 
 